@@ -0,0 +1,46 @@
+@echo off
+setlocal EnableExtensions EnableDelayedExpansion
+chcp 65001 >nul
+cd /d "%~dp0"
+
+REM Usage: bench.bat [rows...]      e.g. bench.bat 1000 100000 1000000
+REM Runs the JMH DomainBenchmarks (needs mvn on PATH); results go to bench-results\domain-<timestamp>.json
+REM Also compiles the plain harnesses in bench\ into out\bench.
+
+echo [Bench] Compiling harnesses...
+if not exist "out\bench" mkdir "out\bench"
+dir /s /b "src\*.java" "bench\*.java" > "out\bench-sources.txt" 2>nul
+
+javac -encoding UTF-8 -d "out\bench" @"out\bench-sources.txt"
+if errorlevel 1 (
+  echo [Bench] Compile FAILED.
+  pause & exit /b 1
+)
+
+echo [Bench] Building jmh\target\benchmarks.jar...
+call mvn -B -q package
+if errorlevel 1 (
+  echo [Bench] Maven build FAILED.
+  pause & exit /b 1
+)
+
+set "ROWS="
+for %%R in (%*) do (
+  if defined ROWS (set "ROWS=!ROWS!,%%R") else set "ROWS=%%R"
+)
+set "PARAMS="
+if defined ROWS set "PARAMS=-p rows=%ROWS%"
+
+for /f %%T in ('powershell -NoProfile -Command "Get-Date -Format yyyyMMdd-HHmmss"') do set "STAMP=%%T"
+if not exist "bench-results" mkdir "bench-results"
+
+echo [Bench] Running domain benchmarks...
+java -jar "jmh\target\benchmarks.jar" DomainBenchmarks %PARAMS% -rf json -rff "bench-results\domain-%STAMP%.json"
+if errorlevel 1 (
+  echo [Bench] FAILED.
+  pause & exit /b 1
+)
+
+echo [Bench] OK.
+pause
+exit /b 0
@@ -0,0 +1,168 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Timing loop for the plain-javac harnesses in this directory (the JMH benchmarks are in jmh/).
+ * Each benchmark runs warmup iterations, then measured iterations of a fixed wall-clock length;
+ * the score is the mean time per operation (mode "avgt", ns/op). There is no forking or
+ * dead-code protection beyond {@link #sink}, so use it for coarse, I/O-bound measurements.
+ *
+ * Results are written as a JSON array of
+ * {benchmark, mode, params, primaryMetric{score, scoreError, scoreUnit, rawData}}.
+ */
+public final class BenchHarness {
+
+    /** One benchmark invocation; the return value is consumed so the JIT cannot drop the work. */
+    public interface Op { Object run() throws Exception; }
+
+    public static volatile Object sink;
+
+    private final int warmupIterations;
+    private final int measureIterations;
+    private final long iterationMillis;
+    private final List<String> results = new ArrayList<>();
+    private boolean echo = true;
+
+    public BenchHarness(int warmupIterations, int measureIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measureIterations = measureIterations;
+        this.iterationMillis = iterationMillis;
+    }
+
+    /** Builds a harness from system properties bench.warmup / bench.iterations / bench.iterationMs. */
+    public static BenchHarness fromSystemProperties() {
+        return new BenchHarness(
+                Integer.getInteger("bench.warmup", 2),
+                Integer.getInteger("bench.iterations", 5),
+                Long.getLong("bench.iterationMs", 1000));
+    }
+
+    /** Stop printing one line per recorded result (for callers that print their own table). */
+    public BenchHarness quiet() {
+        echo = false;
+        return this;
+    }
+
+    public void run(String benchmark, Map<String, String> params, Op op) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) iteration(op);
+        double[] raw = new double[measureIterations];
+        for (int i = 0; i < measureIterations; i++) raw[i] = iteration(op);
+        record(benchmark, "avgt", "ns/op", params, raw);
+    }
+
+    /** Records an externally measured metric (e.g. a latency percentile) in the same JSON. */
+    public void record(String benchmark, String mode, String unit, Map<String, String> params, double... raw) {
+        double mean = 0;
+        for (double v : raw) mean += v;
+        mean /= raw.length;
+        double var = 0;
+        for (double v : raw) var += (v - mean) * (v - mean);
+        double sd = raw.length > 1 ? Math.sqrt(var / (raw.length - 1)) : 0;
+        double error = 3.291 * sd / Math.sqrt(raw.length); // ~99.9% CI half-width
+
+        if (echo) {
+            System.out.printf("%-45s %-28s %14.1f +- %10.1f %s%n",
+                    benchmark, params, mean, error, unit);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("  {\n");
+        sb.append("    \"benchmark\": ").append(quote(benchmark)).append(",\n");
+        sb.append("    \"mode\": ").append(quote(mode)).append(",\n");
+        sb.append("    \"threads\": 1,\n");
+        sb.append("    \"warmupIterations\": ").append(warmupIterations).append(",\n");
+        sb.append("    \"measurementIterations\": ").append(raw.length).append(",\n");
+        sb.append("    \"params\": {");
+        boolean first = true;
+        for (Map.Entry<String, String> e : params.entrySet()) {
+            if (!first) sb.append(", ");
+            sb.append(quote(e.getKey())).append(": ").append(quote(e.getValue()));
+            first = false;
+        }
+        sb.append("},\n");
+        sb.append("    \"primaryMetric\": {\n");
+        sb.append("      \"score\": ").append(num(mean)).append(",\n");
+        sb.append("      \"scoreError\": ").append(num(error)).append(",\n");
+        sb.append("      \"scoreUnit\": ").append(quote(unit)).append(",\n");
+        sb.append("      \"rawData\": [[");
+        for (int i = 0; i < raw.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(num(raw[i]));
+        }
+        sb.append("]]\n    }\n  }");
+        results.add(sb.toString());
+    }
+
+    public void writeJson(Path out) {
+        try {
+            if (out.toAbsolutePath().getParent() != null) Files.createDirectories(out.toAbsolutePath().getParent());
+            Files.writeString(out, "[\n" + String.join(",\n", results) + "\n]\n", StandardCharsets.UTF_8);
+            System.out.println("Results written to " + out.toAbsolutePath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static Map<String, String> params(String... kv) {
+        Map<String, String> m = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < kv.length; i += 2) m.put(kv[i], kv[i + 1]);
+        return m;
+    }
+
+    /**
+     * Points Loggers (log.dir) and ChatLogger (chat.logDir) at java.io.tmpdir/store-bench-logs unless
+     * they are set already, so benchmark logs stay out of the project tree. Both read the property
+     * once, so call this at the start of main, before anything logs. The directory is kept; the
+     * files stay open until the JVM exits.
+     */
+    public static void useBenchLogs() {
+        Path dir = Path.of(System.getProperty("java.io.tmpdir"), "store-bench-logs");
+        if (System.getProperty("log.dir") == null) System.setProperty("log.dir", dir.toString());
+        if (System.getProperty("chat.logDir") == null) System.setProperty("chat.logDir", dir.resolve("chat").toString());
+    }
+
+    /**
+     * Deletes a scratch directory tree (best effort). A server thread may still be renaming temp
+     * files in it, so entries that vanish during the walk are skipped.
+     */
+    public static void deleteTree(Path dir) {
+        try (var walk = Files.walk(dir)) {
+            walk.sorted((a, b) -> b.compareTo(a)).forEach(p -> {
+                try { Files.deleteIfExists(p); } catch (IOException ignored) {}
+            });
+        } catch (IOException | UncheckedIOException ignored) {
+        }
+    }
+
+    // ---------- internals ----------
+
+    private double iteration(Op op) throws Exception {
+        long deadline = System.nanoTime() + iterationMillis * 1_000_000L;
+        long ops = 0;
+        long start = System.nanoTime();
+        long now;
+        do {
+            sink = op.run();
+            ops++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return (double) (now - start) / ops;
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String num(double d) {
+        return Double.isFinite(d) ? String.valueOf(d) : "0";
+    }
+}
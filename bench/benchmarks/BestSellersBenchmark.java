@@ -0,0 +1,107 @@
+package benchmarks;
+
+import server.domain.sales.BestSellers;
+import server.shared.Branch;
+
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * BestSellers (per-branch Space-Saving buckets) against exact counting, over a Zipf-distributed
+ * day of sales for several catalog sizes.
+ *
+ *   bestsellers.add     ns per counted line (sketch update under the branch lock)
+ *   bestsellers.top     top(k=20) latency for a 1h and a 24h window
+ *   recall              share of the exact top 20 (1h window) that the sketch reports
+ *   memory              the sketch holds at most branches x buckets x capacity counters; the exact
+ *                       map needs one per distinct SKU sold
+ *
+ * usage: BestSellersBenchmark [--lines 2000000] [--catalog 1000,100000,1000000] [--zipf 1.1] [--out file.json]
+ */
+public final class BestSellersBenchmark {
+
+    private static final long HOUR = 3600_000L;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        int lines = Integer.parseInt(opt.getOrDefault("lines", "2000000").replace("_", ""));
+        double zipf = Double.parseDouble(opt.getOrDefault("zipf", "1.1"));
+        BenchHarness json = new BenchHarness(1, 5, 0).quiet();
+
+        System.out.printf("%-9s %10s %12s %12s %10s %12s %14s%n",
+                "catalog", "add ns", "top 1h ms", "top 24h ms", "recall", "distinct", "max counters");
+        for (String c : opt.getOrDefault("catalog", "1000,100000,1000000").split(",")) {
+            int catalog = Integer.parseInt(c.trim().replace("_", ""));
+            double[] cdf = zipfCdf(catalog, zipf);
+            SplittableRandom rnd = new SplittableRandom(42);
+            long now = System.currentTimeMillis();
+            long start = now - 24 * HOUR;
+            long step = 24 * HOUR / lines;
+
+            String[] skus = new String[lines];
+            for (int i = 0; i < lines; i++) skus[i] = String.valueOf(1001 + sample(cdf, rnd.nextDouble()));
+
+            BestSellers sketch = new BestSellers();
+            Map<String, Long> exactHour = new HashMap<>();
+            Set<String> distinct = new HashSet<>();
+            long t0 = System.nanoTime();
+            for (int i = 0; i < lines; i++) sketch.add(Branch.HOLON, start + i * step, skus[i], 1);
+            double addNs = (System.nanoTime() - t0) / (double) lines;
+            for (int i = 0; i < lines; i++) {
+                distinct.add(skus[i]);
+                if (start + i * step > now - HOUR) exactHour.merge(skus[i], 1L, Long::sum);
+            }
+
+            double[] top1h = new double[5], top24h = new double[5];
+            List<BestSellers.Entry> hour = null;
+            for (int i = 0; i <= 5; i++) { // first pass is warmup
+                long q0 = System.nanoTime();
+                hour = sketch.top(Branch.HOLON, HOUR, 20, now);
+                long q1 = System.nanoTime();
+                BenchHarness.sink = sketch.top(Branch.HOLON, 24 * HOUR, 20, now);
+                long q2 = System.nanoTime();
+                if (i > 0) { top1h[i - 1] = (q1 - q0) / 1e6; top24h[i - 1] = (q2 - q1) / 1e6; }
+            }
+
+            List<String> exactTop = exactHour.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                    .limit(20).map(Map.Entry::getKey).toList();
+            Set<String> reported = new HashSet<>();
+            for (BestSellers.Entry e : hour) reported.add(e.sku());
+            long hits = exactTop.stream().filter(reported::contains).count();
+            double recall = exactTop.isEmpty() ? 1 : hits / (double) exactTop.size();
+
+            long maxCounters = (long) Branch.values().length
+                    * ((Long.getLong("bestsellers.maxWindowMs", 24 * HOUR) + Long.getLong("bestsellers.bucketMs", 5 * 60_000L) - 1)
+                    / Long.getLong("bestsellers.bucketMs", 5 * 60_000L) + 1)
+                    * Integer.getInteger("bestsellers.capacity", 128);
+            System.out.printf("%-9d %10.0f %12.3f %12.3f %9.0f%% %12d %14d%n", catalog, addNs, avg(top1h), avg(top24h),
+                    recall * 100, distinct.size(), maxCounters);
+
+            Map<String, String> p = BenchHarness.params("catalog", String.valueOf(catalog), "lines", String.valueOf(lines));
+            json.record("bestsellers.add", "avgt", "ns/op", p, addNs);
+            json.record("bestsellers.top", "avgt", "ms/op", BenchHarness.params("catalog", String.valueOf(catalog), "window", "1h"), top1h);
+            json.record("bestsellers.top", "avgt", "ms/op", BenchHarness.params("catalog", String.valueOf(catalog), "window", "24h"), top24h);
+            json.record("bestsellers.recall", "ss", "ratio", p, recall);
+        }
+        if (opt.containsKey("out")) json.writeJson(Path.of(opt.get("out")));
+    }
+
+    private static double[] zipfCdf(int n, double s) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) cdf[i] = sum += 1 / Math.pow(i + 1, s);
+        for (int i = 0; i < n; i++) cdf[i] /= sum;
+        return cdf;
+    }
+
+    private static int sample(double[] cdf, double u) {
+        int i = Arrays.binarySearch(cdf, u);
+        return Math.min(cdf.length - 1, i >= 0 ? i : -i - 1);
+    }
+
+    private static double avg(double[] v) {
+        return Arrays.stream(v).average().orElse(0);
+    }
+}
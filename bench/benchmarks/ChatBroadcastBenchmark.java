@@ -0,0 +1,192 @@
+package benchmarks;
+
+import server.app.ChatServer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Server-side cost of Conversation.broadcast as the conversation grows.
+ *
+ * A ChatServer runs in this JVM for each transport. Two cashiers pair up and
+ * {@code --members}-2 shift managers JOIN; one cashier then sends {@code --messages} MSG lines
+ * and every member reads all of them. Reported per transport and member count:
+ *   chat.broadcast.alloc   bytes the server's threads allocated per message
+ *   chat.broadcast.member  the same, divided by the number of members
+ *   chat.broadcast.thrpt   messages/s until every member has read every message
+ * Allocation is the sum of ThreadMXBean.getThreadAllocatedBytes over the server's threads
+ * (connection threads, selector, log writers), so the client threads here don't count. The
+ * difference between two member counts is the per-member fan-out cost.
+ *
+ * usage: ChatBroadcastBenchmark [--members 2,8,32] [--messages 20000] [--transports blocking,nio] [--out file.json]
+ */
+public final class ChatBroadcastBenchmark {
+
+    private static final String SERVER_THREAD = "bench-chat-server";
+
+    public static void main(String[] args) throws Exception {
+        BenchHarness.useBenchLogs();
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        int messages = Integer.parseInt(opt.getOrDefault("messages", "20000").replace("_", ""));
+        String[] members = opt.getOrDefault("members", "2,8,32").split(",");
+
+        Path dir = Files.createTempDirectory("store-chat-broadcast-");
+        BenchHarness json = new BenchHarness(0, 1, 0).quiet();
+        try {
+            System.out.printf("%-9s %8s %14s %14s %12s%n", "transport", "members", "B/message", "B/member", "messages/s");
+            for (String t : opt.getOrDefault("transports", "blocking,nio").split(",")) {
+                String transport = t.trim();
+                int port = startServer(transport);
+                for (String m : members) run(transport, port, Integer.parseInt(m.trim()), messages, json);
+            }
+        } finally {
+            BenchHarness.deleteTree(dir);
+        }
+        if (opt.containsKey("out")) json.writeJson(Path.of(opt.get("out")));
+    }
+
+    /** ChatServer has no stop(); each transport's server lives until the benchmark exits. */
+    private static int startServer(String transport) throws Exception {
+        int port;
+        try (ServerSocket ss = new ServerSocket(0)) { port = ss.getLocalPort(); }
+        System.setProperty("chat.transport", transport);
+        Thread t = new Thread(() -> new ChatServer(port).start(), SERVER_THREAD);
+        t.setDaemon(true);
+        t.start();
+        for (int i = 0; i < 200; i++) {
+            try {
+                new Socket("127.0.0.1", port).close(); // connected: the server is up
+                return port;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("ChatServer did not start on port " + port);
+    }
+
+    private static void run(String transport, int port, int members, int messages, BenchHarness json) throws Exception {
+        String tag = transport + members;
+        List<Client> all = new ArrayList<>();
+        try {
+            Client a = Client.hello(port, tag + "a CASHIER HOLON"), b = Client.hello(port, tag + "b CASHIER HOLON");
+            all.add(a);
+            all.add(b);
+            a.send("REQUEST_USER " + tag + "b");
+            a.flush();
+            String conv = a.expect("PAIRED").split(" ")[1];
+            b.expect("PAIRED");
+            for (int i = 2; i < members; i++) {
+                Client mgr = Client.hello(port, tag + "m" + i + " SHIFT_MANAGER RISHON");
+                all.add(mgr);
+                mgr.send("JOIN " + conv);
+                mgr.flush();
+                mgr.expect("PAIRED");
+            }
+
+            int warmup = Math.max(1, messages / 4);
+            send(a, all, warmup);
+            long before = serverAllocatedBytes();
+            long t0 = System.nanoTime();
+            send(a, all, messages);
+            double secs = (System.nanoTime() - t0) / 1e9;
+            double perMessage = (serverAllocatedBytes() - before) / (double) messages;
+
+            System.out.printf("%-9s %8d %14.0f %14.1f %12.0f%n", transport, members, perMessage, perMessage / members, messages / secs);
+            Map<String, String> p = BenchHarness.params("transport", transport, "members", String.valueOf(members));
+            json.record("chat.broadcast.alloc", "ss", "B/op", p, perMessage);
+            json.record("chat.broadcast.member", "ss", "B/op", p, perMessage / members);
+            json.record("chat.broadcast.thrpt", "thrpt", "ops/s", p, messages / secs);
+        } finally {
+            for (Client c : all) c.close();
+        }
+    }
+
+    /** Sends n MSG lines from sender and waits until every member has read all of them. */
+    private static void send(Client sender, List<Client> members, int n) throws Exception {
+        CountDownLatch done = new CountDownLatch(members.size());
+        for (Client c : members) {
+            Thread t = new Thread(() -> {
+                try {
+                    for (int got = 0; got < n; ) {
+                        String l = c.in.readLine();
+                        if (l == null) return;
+                        if (l.startsWith("MSG from")) got++;
+                    }
+                    done.countDown();
+                } catch (IOException ignored) {
+                }
+            }, "bench-reader");
+            t.setDaemon(true);
+            t.start();
+        }
+        for (int i = 0; i < n; i++) {
+            sender.send("MSG price check on aisle " + (i % 10) + ", shelf by the fitting rooms");
+            if (i % 64 == 63) sender.flush();
+        }
+        sender.flush();
+        done.await();
+    }
+
+    private static long serverAllocatedBytes() {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sum = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            String name = t.getName();
+            if (name.equals(SERVER_THREAD) || name.startsWith("ChatServer-conn-")
+                    || name.equals("chat-log-writer") || name.equals("log-writer") || name.equals("chat-expiry")) {
+                long bytes = mx.getThreadAllocatedBytes(t.getId());
+                if (bytes > 0) sum += bytes;
+            }
+        }
+        return sum;
+    }
+
+    private static final class Client {
+        final Socket socket;
+        final BufferedReader in;
+        final PrintWriter out;
+
+        private Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+        }
+
+        static Client hello(int port, String who) throws IOException {
+            Client c = new Client(new Socket("127.0.0.1", port));
+            c.socket.setTcpNoDelay(true);
+            c.send("HELLO " + who);
+            c.flush();
+            c.expect("OK HELLO");
+            return c;
+        }
+
+        void send(String line) { out.println(line); }
+        void flush() { out.flush(); }
+
+        /** Returns the first line starting with prefix. */
+        String expect(String prefix) throws IOException {
+            for (String l; (l = in.readLine()) != null; ) {
+                if (l.startsWith(prefix)) return l;
+                if (l.startsWith("ERR")) throw new IOException("expected " + prefix + ", got " + l);
+            }
+            throw new IOException("connection closed while waiting for " + prefix);
+        }
+
+        void close() {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Broadcast-request race on one ChatServer versus two clustered ChatServer processes.
+ *
+ * Each round a HOLON cashier sends REQUEST_ANY_OTHER_BRANCH and two sessions ACCEPT it as soon
+ * as they see it: a TEL_AVIV cashier and a RISHON cashier. In "single" mode all three are on one
+ * server. In "cluster" mode node A owns HOLON and TEL_AVIV and node B owns RISHON, so a local
+ * ACCEPT races one relayed from B. The winner then ENDs the conversation. Reported per mode:
+ *   chat.cluster.pair    ms from REQUEST_ANY_OTHER_BRANCH until the requester is PAIRED (p50/p99)
+ *   chat.cluster.rounds  rounds/s
+ *   chat.cluster.remote  fraction of rounds won by the RISHON session
+ * Every request must pair up exactly one acceptor; the benchmark fails if either acceptor ends
+ * up with more PAIRED lines than the rounds the requester saw it win.
+ *
+ * usage: ChatClusterBenchmark [--rounds 2000] [--modes single,cluster] [--out file.json]
+ */
+public final class ChatClusterBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        int rounds = Integer.parseInt(opt.getOrDefault("rounds", "2000").replace("_", ""));
+
+        BenchHarness json = new BenchHarness(0, 1, 0).quiet();
+        System.out.printf("%-8s %8s %10s %10s %12s %10s%n", "mode", "rounds", "p50 ms", "p99 ms", "rounds/s", "remote");
+        for (String m : opt.getOrDefault("modes", "single,cluster").split(",")) run(m.trim(), rounds, json);
+        if (opt.containsKey("out")) json.writeJson(Path.of(opt.get("out")));
+    }
+
+    private static void run(String mode, int rounds, BenchHarness json) throws Exception {
+        boolean cluster = mode.equals("cluster");
+        Path scratch = Files.createTempDirectory("store-chat-cluster-");
+        int portA = freePort(), portB = cluster ? freePort() : portA;
+        List<String> props = new ArrayList<>();
+        if (cluster) {
+            props.add("-Dchat.nodes=A=127.0.0.1:" + portA + ":" + freePort() + ",B=127.0.0.1:" + portB + ":" + freePort());
+            props.add("-Dchat.branches=HOLON=A,TEL_AVIV=A,RISHON=B");
+        }
+        List<Process> servers = new ArrayList<>();
+        List<Client> all = new ArrayList<>();
+        try {
+            servers.add(startNode(scratch, "A", portA, props));
+            if (cluster) servers.add(startNode(scratch, "B", portB, props));
+
+            Client requester = Client.hello(portA, "asker CASHIER HOLON");
+            Client local = Client.hello(portA, "local CASHIER TEL_AVIV");
+            Client remote = Client.hello(portB, "remote CASHIER RISHON");
+            all.addAll(List.of(requester, local, remote));
+            Acceptor la = new Acceptor(local, "local"), ra = new Acceptor(remote, "remote");
+
+            int warmup = Math.max(1, rounds / 10);
+            for (int i = 0; i < warmup; i++) round(requester, la, ra);
+            long[] pairNanos = new long[rounds];
+            int remoteWins = 0;
+            long t0 = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                long r0 = System.nanoTime();
+                if (round(requester, la, ra) == ra) remoteWins++;
+                pairNanos[i] = requester.pairedAt - r0;
+            }
+            double secs = (System.nanoTime() - t0) / 1e9;
+            Thread.sleep(500); // a second winner's PAIRED would arrive by now
+            for (Acceptor a : List.of(la, ra)) {
+                if (a.paired.availablePermits() > 0) throw new IllegalStateException(a.name + " PAIRED for a request it lost");
+            }
+
+            Arrays.sort(pairNanos);
+            double p50 = pairNanos[rounds / 2] / 1e6, p99 = pairNanos[Math.min(rounds - 1, rounds * 99 / 100)] / 1e6;
+            double remoteShare = remoteWins / (double) rounds;
+            System.out.printf("%-8s %8d %10.3f %10.3f %12.0f %10.2f%n", mode, rounds, p50, p99, rounds / secs, remoteShare);
+            Map<String, String> p = BenchHarness.params("mode", mode);
+            json.record("chat.cluster.pair", "sample", "ms", p, p50, p99);
+            json.record("chat.cluster.rounds", "thrpt", "ops/s", p, rounds / secs);
+            json.record("chat.cluster.remote", "ss", "ratio", p, remoteShare);
+        } finally {
+            for (Client c : all) c.close();
+            for (Process s : servers) {
+                s.destroy();
+                s.waitFor();
+            }
+            BenchHarness.deleteTree(scratch);
+        }
+    }
+
+    /**
+     * One request, two racing ACCEPTs, END by the winner; returns the winner. An acceptor still
+     * leaving the previous conversation may not see the request at all, which is fine.
+     */
+    private static Acceptor round(Client requester, Acceptor a, Acceptor b) throws Exception {
+        requester.send("REQUEST_ANY_OTHER_BRANCH");
+        requester.flush();
+        String paired = requester.expect("PAIRED");
+        requester.pairedAt = System.nanoTime();
+        List<String> members = List.of(paired.split(" ")[2].split(","));
+        if (members.contains(a.name) == members.contains(b.name)) throw new IllegalStateException("bad pairing: " + paired);
+        Acceptor winner = members.contains(a.name) ? a : b;
+        // END once the winner's node knows about the conversation
+        if (!winner.paired.tryAcquire(10, TimeUnit.SECONDS)) throw new IllegalStateException(winner.name + " never got " + paired);
+        winner.client.send("END");
+        winner.client.flush();
+        requester.expect("INFO CONVERSATION_ENDED");
+        return winner;
+    }
+
+    private static Process startNode(Path scratch, String name, int port, List<String> props) throws Exception {
+        List<String> cmd = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Dchat.idleTimeoutMs=0", "-Dchat.node=" + name, "-Dchat.logDir=logs/chat-" + name));
+        cmd.addAll(props);
+        cmd.addAll(List.of("-cp", System.getProperty("java.class.path"), "server.app.ChatServer", String.valueOf(port)));
+        Process p = new ProcessBuilder(cmd)
+                .directory(scratch.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(scratch.resolve("node-" + name + ".out").toFile())
+                .start();
+        for (int i = 0; i < 200; i++) {
+            try {
+                new Socket("127.0.0.1", port).close(); // connected: the server is up
+                return p;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("ChatServer node " + name + " did not start on port " + port);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket ss = new ServerSocket(0)) { return ss.getLocalPort(); }
+    }
+
+    /** Accepts every INCOMING_REQUEST right away on its own thread; one permit per PAIRED. */
+    private static final class Acceptor {
+        final Client client;
+        final String name;
+        final Semaphore paired = new Semaphore(0);
+
+        Acceptor(Client client, String name) {
+            this.client = client;
+            this.name = name;
+            Thread t = new Thread(this::loop, "bench-acceptor");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        private void loop() {
+            try {
+                for (String l; (l = client.in.readLine()) != null; ) {
+                    if (l.startsWith("INCOMING_REQUEST")) {
+                        client.send("ACCEPT " + l.split(" ")[1]);
+                        client.flush();
+                    } else if (l.startsWith("PAIRED")) {
+                        paired.release();
+                    }
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static final class Client {
+        final Socket socket;
+        final BufferedReader in;
+        final PrintWriter out;
+        long pairedAt;
+
+        private Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+        }
+
+        static Client hello(int port, String who) throws IOException {
+            Client c = new Client(new Socket("127.0.0.1", port));
+            c.socket.setTcpNoDelay(true);
+            c.send("HELLO " + who);
+            c.flush();
+            c.expect("OK HELLO");
+            return c;
+        }
+
+        void send(String line) { out.println(line); }
+        void flush() { out.flush(); }
+
+        /** Returns the first line starting with prefix. */
+        String expect(String prefix) throws IOException {
+            for (String l; (l = in.readLine()) != null; ) {
+                if (l.startsWith(prefix)) return l;
+                if (l.startsWith("ERR")) throw new IOException("expected " + prefix + ", got " + l);
+            }
+            throw new IOException("connection closed while waiting for " + prefix);
+        }
+
+        void close() {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+}
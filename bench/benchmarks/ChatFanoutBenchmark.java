@@ -0,0 +1,181 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * ChatServer broadcast-request routing with many open requests and many sessions online.
+ *
+ * A ChatServer child process is started, {@code --requests} open requests are created by 50
+ * TEL_AVIV requesters (REQUEST_BRANCH HOLON, so no RISHON session may take them) and
+ * {@code --idle} RISHON sessions wait idle. Then, for each open-request count:
+ *   chat.idleTransition  two RISHON sessions pair up (REQUEST_USER) and END, which puts both
+ *                        back to idle; ops/s of those cycles
+ *   chat.churn           a RISHON session connects (HELLO) and QUITs; ops/s
+ *   chat.fanout          a HOLON session sends REQUEST_ANY_OTHER_BRANCH; ms until every idle
+ *                        RISHON session got the INCOMING_REQUEST
+ * Before routing was indexed, each HELLO/idle transition scanned every open request and each
+ * disconnect scanned them again, so the first two dropped as --requests grew.
+ *
+ * usage: ChatFanoutBenchmark [--requests 0,1000,10000] [--idle 200] [--cycles 2000] [--out file.json]
+ */
+public final class ChatFanoutBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        int idle = Integer.parseInt(opt.getOrDefault("idle", "200"));
+        int cycles = Integer.parseInt(opt.getOrDefault("cycles", "2000"));
+
+        BenchHarness json = new BenchHarness(0, 1, 0).quiet();
+        System.out.printf("%-9s %6s %16s %12s %12s%n", "requests", "idle", "idle cycles/s", "churn/s", "fanout ms");
+        for (String r : opt.getOrDefault("requests", "0,1000,10000").split(",")) {
+            run(Integer.parseInt(r.trim()), idle, cycles, json);
+        }
+        if (opt.containsKey("out")) json.writeJson(Path.of(opt.get("out")));
+    }
+
+    private static void run(int requests, int idle, int cycles, BenchHarness json) throws Exception {
+        Path scratch = Files.createTempDirectory("store-chat-fanout-");
+        int port;
+        try (ServerSocket ss = new ServerSocket(0)) { port = ss.getLocalPort(); }
+        Process server = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Dchat.idleTimeoutMs=0", // the idle sessions don't answer PING
+                "-cp", System.getProperty("java.class.path"),
+                "server.app.ChatServer", String.valueOf(port))
+                .directory(scratch.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(scratch.resolve("server.out").toFile())
+                .start();
+        List<Client> all = new ArrayList<>();
+        try {
+            Client first = null;
+            for (int i = 0; i < 200 && first == null; i++) {
+                try { first = Client.hello(port, "req0 CASHIER TEL_AVIV"); } catch (IOException e) { Thread.sleep(50); }
+            }
+            if (first == null) throw new IllegalStateException("ChatServer did not start on port " + port);
+            all.add(first);
+
+            // open requests nobody in RISHON may take
+            List<Client> requesters = new ArrayList<>(List.of(first));
+            for (int i = 1; i < 50; i++) requesters.add(Client.hello(port, "req" + i + " CASHIER TEL_AVIV"));
+            all.addAll(requesters.subList(1, requesters.size()));
+            for (int i = 0; i < requests; i++) requesters.get(i % requesters.size()).send("REQUEST_BRANCH HOLON");
+            for (Client c : requesters) c.flush();
+            for (int i = 0; i < requests; i++) requesters.get(i % requesters.size()).expect("INFO REQUEST_BROADCASTED");
+
+            // idle RISHON sessions, each counting the INCOMING_REQUESTs it gets
+            CountDownLatch fanned = new CountDownLatch(idle);
+            for (int i = 0; i < idle; i++) {
+                Client c = Client.hello(port, "idle" + i + " SALESPERSON RISHON");
+                all.add(c);
+                Thread t = new Thread(() -> {
+                    try {
+                        for (String l; (l = c.in.readLine()) != null; ) {
+                            if (l.startsWith("INCOMING_REQUEST")) { fanned.countDown(); return; }
+                        }
+                    } catch (IOException ignored) {
+                    }
+                }, "idle-reader");
+                t.setDaemon(true);
+                t.start();
+            }
+
+            // idle transitions: pair up and END
+            Client a = Client.hello(port, "pairA CASHIER RISHON"), b = Client.hello(port, "pairB CASHIER RISHON");
+            all.add(a);
+            all.add(b);
+            long t0 = System.nanoTime();
+            for (int i = 0; i < cycles; i++) {
+                a.send("REQUEST_USER pairB");
+                a.flush();
+                a.expect("PAIRED");
+                b.expect("PAIRED");
+                a.send("END");
+                a.flush();
+                a.expect("INFO LEFT_CONVERSATION");
+                b.expect("INFO CONVERSATION_ENDED");
+            }
+            double cyclesPerSec = cycles / ((System.nanoTime() - t0) / 1e9);
+
+            // connect / disconnect churn
+            long c0 = System.nanoTime();
+            for (int i = 0; i < cycles; i++) {
+                Client c = Client.hello(port, "churn" + i + " CASHIER RISHON");
+                c.send("QUIT");
+                c.flush();
+                c.expect("BYE");
+                c.close();
+            }
+            double churnPerSec = cycles / ((System.nanoTime() - c0) / 1e9);
+
+            // fan-out to every idle RISHON session
+            Client asker = Client.hello(port, "asker CASHIER HOLON");
+            all.add(asker);
+            long f0 = System.nanoTime();
+            asker.send("REQUEST_ANY_OTHER_BRANCH");
+            asker.flush();
+            fanned.await();
+            double fanoutMs = (System.nanoTime() - f0) / 1e6;
+
+            System.out.printf("%-9d %6d %16.0f %12.0f %12.2f%n", requests, idle, cyclesPerSec, churnPerSec, fanoutMs);
+            Map<String, String> p = BenchHarness.params("requests", String.valueOf(requests), "idle", String.valueOf(idle));
+            json.record("chat.idleTransition", "thrpt", "ops/s", p, cyclesPerSec);
+            json.record("chat.churn", "thrpt", "ops/s", p, churnPerSec);
+            json.record("chat.fanout", "ss", "ms", p, fanoutMs);
+        } finally {
+            for (Client c : all) c.close();
+            server.destroy();
+            server.waitFor();
+            BenchHarness.deleteTree(scratch);
+        }
+    }
+
+    private static final class Client {
+        final Socket socket;
+        final BufferedReader in;
+        final PrintWriter out;
+
+        private Client(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+        }
+
+        static Client hello(int port, String who) throws IOException {
+            Client c = new Client(new Socket("127.0.0.1", port));
+            c.socket.setTcpNoDelay(true);
+            c.send("HELLO " + who);
+            c.flush();
+            c.expect("OK HELLO");
+            return c;
+        }
+
+        void send(String line) { out.println(line); }
+        void flush() { out.flush(); }
+
+        /** Reads up to the first line starting with prefix (skipping events such as MISSED_REQUEST_FROM). */
+        void expect(String prefix) throws IOException {
+            for (String l; (l = in.readLine()) != null; ) {
+                if (l.startsWith(prefix)) return;
+                if (l.startsWith("ERR")) throw new IOException("expected " + prefix + ", got " + l);
+            }
+            throw new IOException("connection closed while waiting for " + prefix);
+        }
+
+        void close() {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+}
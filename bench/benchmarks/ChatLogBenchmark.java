@@ -0,0 +1,122 @@
+package benchmarks;
+
+import server.util.ChatLogger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Chat message logging throughput: ChatLogger (bounded queue, one writer, open channels, periodic
+ * force) against the previous per-line Files.writeString(APPEND) done on the caller's thread.
+ *
+ * {@code --threads} senders, each its own conversation, log {@code --messages} messages between
+ * them. Reported per mode and thread count: messages/s until everything is on disk (for
+ * ChatLogger, until flush() returns), and whether the file kept every conversation's messages
+ * in the order they were logged with message ids growing.
+ *
+ * usage: ChatLogBenchmark [--messages 200000] [--threads 1,8,64] [--modes legacy,queued] [--out file.json]
+ */
+public final class ChatLogBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        int messages = Integer.parseInt(opt.getOrDefault("messages", "200000").replace("_", ""));
+        String[] threadCounts = opt.getOrDefault("threads", "1,8,64").split(",");
+        String[] modes = opt.getOrDefault("modes", "legacy,queued").split(",");
+
+        BenchHarness.useBenchLogs();
+        // senders here may wait; the server's default (drop) would lose messages and skew the rate
+        System.setProperty("chat.log.overflow", "block");
+        Path dir = Files.createTempDirectory("store-chatlog-");
+        BenchHarness json = new BenchHarness(0, 1, 0).quiet();
+        try {
+            Path messagesFile = Path.of(System.getProperty("chat.logDir"), "messages.txt");
+            ChatLogger.flush(); // loads ChatLogger: creates the files and starts the writer
+            Path legacyFile = dir.resolve("legacy-messages.txt");
+            Files.writeString(legacyFile, "timestamp,message_id,conversation_id,sender,receiver,message_type,content\n");
+
+            System.out.printf("%-7s %8s %14s %10s%n", "mode", "threads", "messages/s", "order");
+            for (String m : modes) {
+                String mode = m.trim();
+                for (String t : threadCounts) {
+                    int threads = Integer.parseInt(t.trim());
+                    int perThread = Math.max(1, messages / threads);
+                    Path file = mode.equals("legacy") ? legacyFile : messagesFile;
+                    long offset = Files.size(file);
+
+                    CountDownLatch start = new CountDownLatch(1), done = new CountDownLatch(threads);
+                    for (int i = 0; i < threads; i++) {
+                        String conv = "c" + threads + "-" + i;
+                        Thread th = new Thread(() -> {
+                            try {
+                                start.await();
+                                for (int k = 0; k < perThread; k++) {
+                                    String text = "seq " + k + ", hello from the HOLON branch";
+                                    if (mode.equals("legacy")) legacyLog(legacyFile, conv, "emp" + conv, text);
+                                    else ChatLogger.logMessage(conv, "emp" + conv, text);
+                                }
+                            } catch (Exception e) {
+                                throw new IllegalStateException(e);
+                            } finally {
+                                done.countDown();
+                            }
+                        });
+                        th.setDaemon(true);
+                        th.start();
+                    }
+                    long t0 = System.nanoTime();
+                    start.countDown();
+                    done.await();
+                    if (!mode.equals("legacy")) ChatLogger.flush();
+                    double secs = (System.nanoTime() - t0) / 1e9;
+                    double perSec = perThread * (double) threads / secs;
+                    String order = mode.equals("legacy") ? "-" : checkOrder(file, offset, threads * perThread);
+                    System.out.printf("%-7s %8d %14.0f %10s%n", mode, threads, perSec, order);
+                    json.record("chatlog.messages", "thrpt", "ops/s",
+                            BenchHarness.params("mode", mode, "threads", String.valueOf(threads)), perSec);
+                }
+            }
+        } finally {
+            BenchHarness.deleteTree(dir);
+        }
+        if (opt.containsKey("out")) json.writeJson(Path.of(opt.get("out")));
+    }
+
+    private static long legacyCounter;
+
+    /** What ChatLogger.logMessage did before: open, append one line, close. */
+    private static void legacyLog(Path file, String conv, String sender, String content) throws IOException {
+        long id;
+        synchronized (ChatLogBenchmark.class) { id = ++legacyCounter; }
+        String line = String.format("%s,%d,%s,%s,ALL,CHAT,%s\n", java.time.LocalDateTime.now().format(
+                java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")), id, conv, sender, content.replace(",", "\\,"));
+        Files.writeString(file, line, StandardOpenOption.APPEND);
+    }
+
+    /** "ok" if the lines after offset have growing ids and each conversation's seq numbers in order. */
+    private static String checkOrder(Path file, long offset, int expected) throws IOException {
+        byte[] all = Files.readAllBytes(file);
+        String text = new String(all, (int) offset, all.length - (int) offset, StandardCharsets.UTF_8);
+        Map<String, Integer> lastSeq = new HashMap<>();
+        long lastId = -1;
+        int lines = 0;
+        for (String line : text.split("\n")) {
+            if (line.isEmpty()) continue;
+            String[] f = line.split(",", 7);
+            long id = Long.parseLong(f[1]);
+            int seq = Integer.parseInt(f[6].substring(4, f[6].indexOf('\\')));
+            if (id <= lastId) return "BAD id";
+            Integer prev = lastSeq.put(f[2], seq);
+            if (seq != (prev == null ? 0 : prev + 1)) return "BAD seq";
+            lastId = id;
+            lines++;
+        }
+        return lines == expected ? "ok" : "BAD " + lines + "/" + expected;
+    }
+}
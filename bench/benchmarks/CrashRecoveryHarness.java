@@ -0,0 +1,161 @@
+package benchmarks;
+
+import server.util.FileDatabase;
+import server.util.JournaledFileDatabase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Kills a writer mid-write and checks that the file recovers to a whole version.
+ *
+ * A child JVM rewrites one table over and over and prints "ack n" after version n is written:
+ *   snapshot  FileDatabase.writeAllLines of --rows lines "n,i" (temp file + fsync + rename)
+ *   journal   JournaledFileDatabase.put of row (n % rows) = n, compacting every 20 records, so
+ *             kills also land inside compaction
+ * The parent kills it (SIGKILL, no shutdown hooks) after a random delay, reopens the table the
+ * way the server does, and requires it to hold exactly version ack or ack+1 (the one in flight).
+ * It also counts kills that left a *.tmp behind (the child died between creating the temp file
+ * and the rename) and checks that reopening deleted them.
+ *
+ * usage: CrashRecoveryHarness [--kills 100] [--rows 2000] [--modes snapshot,journal]
+ */
+public final class CrashRecoveryHarness {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        int rows = Integer.parseInt(opt.getOrDefault("rows", "2000"));
+        if (opt.containsKey("child")) {
+            child(opt.get("child"), Path.of(opt.get("file")), rows);
+            return;
+        }
+        BenchHarness.useBenchLogs();
+        System.setProperty("db.staleTmpMs", "0"); // the child is dead, every temp file is stale
+        int kills = Integer.parseInt(opt.getOrDefault("kills", "100"));
+        System.out.printf("%-9s %6s %10s %12s%n", "mode", "kills", "in flight", "temp left");
+        for (String m : opt.getOrDefault("modes", "snapshot,journal").split(",")) run(m.trim(), kills, rows);
+    }
+
+    private static void run(String mode, int kills, int rows) throws Exception {
+        Path dir = Files.createTempDirectory("store-crash-");
+        Path file = dir.resolve("table.txt");
+        // a file, not a pipe: output still unread when the child is killed can get lost from a pipe
+        Path out = dir.resolve("child.out");
+        int inFlight = 0, tempLeft = 0;
+        try {
+            for (int k = 0; k < kills; k++) {
+                Files.deleteIfExists(out);
+                Process child = new ProcessBuilder(
+                        Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-Ddb.journal.compactEvery=20",
+                        "-cp", System.getProperty("java.class.path"),
+                        CrashRecoveryHarness.class.getName(),
+                        "--child", mode, "--file", file.toString(), "--rows", String.valueOf(rows))
+                        .directory(dir.toFile())
+                        .redirectErrorStream(true)
+                        .redirectOutput(out.toFile())
+                        .start();
+                // the first write loads classes and is slow; kill somewhere in the steady state after it
+                long until = System.currentTimeMillis() + 10_000;
+                while (acks(out).size() < 2) {
+                    if (!child.isAlive() || System.currentTimeMillis() > until) {
+                        child.destroyForcibly().waitFor();
+                        throw new IllegalStateException("child never wrote: " + Files.readString(out));
+                    }
+                    Thread.sleep(5);
+                }
+                Thread.sleep(ThreadLocalRandom.current().nextInt(0, 30));
+                child.destroyForcibly().waitFor();
+                List<Long> acks = acks(out);
+                long ack = acks.get(acks.size() - 1);
+
+                boolean tmp = hasTemp(dir);
+                if (tmp) tempLeft++;
+                long version = recoveredVersion(mode, file, rows, ack);
+                if (version == ack + 1) inFlight++;
+                else if (version != ack) {
+                    throw new IllegalStateException(mode + ": recovered version " + version + " after ack " + ack);
+                }
+                if (hasTemp(dir)) throw new IllegalStateException(mode + ": temp file survived reopening");
+            }
+            System.out.printf("%-9s %6d %10d %12d%n", mode, kills, inFlight, tempLeft);
+        } finally {
+            BenchHarness.deleteTree(dir);
+        }
+    }
+
+    /** The version the table holds after reopening; fails if it is not one whole version. */
+    private static long recoveredVersion(String mode, Path file, int rows, long ack) {
+        if (mode.equals("snapshot")) {
+            List<String> lines = new FileDatabase(file).readAllLines();
+            if (lines.isEmpty()) return -1;
+            long v = Long.parseLong(lines.get(0).split(",")[0]);
+            if (lines.size() != rows) throw new IllegalStateException("snapshot has " + lines.size() + " rows");
+            for (int i = 0; i < rows; i++) {
+                if (!lines.get(i).equals(v + "," + i)) throw new IllegalStateException("torn snapshot at row " + i + ": " + lines.get(i));
+            }
+            return v;
+        }
+        Map<String, String> got = new HashMap<>();
+        for (String l : new JournaledFileDatabase(file, JournaledFileDatabase.keyByColumns(0)).readAllLines()) {
+            String[] t = l.split(",");
+            got.put(t[0], t[1]);
+        }
+        for (long v = Math.max(-1, ack); v <= ack + 1; v++) {
+            if (got.equals(journalState(v, rows))) return v;
+        }
+        throw new IllegalStateException("journal state matches neither version " + ack + " nor " + (ack + 1));
+    }
+
+    /** Rows after puts 0..v: row r holds the last n <= v with n % rows == r. */
+    private static Map<String, String> journalState(long v, int rows) {
+        Map<String, String> m = new HashMap<>();
+        for (long n = Math.max(0, v - rows + 1); n <= v; n++) m.put(String.valueOf(n % rows), String.valueOf(n));
+        return m;
+    }
+
+    private static boolean hasTemp(Path dir) throws IOException {
+        try (var ds = Files.newDirectoryStream(dir, "*.tmp")) {
+            return ds.iterator().hasNext();
+        }
+    }
+
+    /** Child: writes versions last+1, last+2, ... until killed. */
+    private static void child(String mode, Path file, int rows) {
+        if (mode.equals("snapshot")) {
+            FileDatabase db = new FileDatabase(file);
+            List<String> current = db.readAllLines();
+            long n = current.isEmpty() ? 0 : Long.parseLong(current.get(0).split(",")[0]) + 1;
+            System.out.println("ack " + (n - 1));
+            for (; ; n++) {
+                List<String> lines = new ArrayList<>(rows);
+                for (int i = 0; i < rows; i++) lines.add(n + "," + i);
+                db.writeAllLines(lines);
+                System.out.println("ack " + n);
+            }
+        }
+        JournaledFileDatabase db = new JournaledFileDatabase(file, JournaledFileDatabase.keyByColumns(0));
+        long n = -1;
+        for (String l : db.readAllLines()) n = Math.max(n, Long.parseLong(l.split(",")[1]));
+        System.out.println("ack " + n);
+        for (n++; ; n++) {
+            db.put((n % rows) + "," + n);
+            System.out.println("ack " + n);
+        }
+    }
+
+    /** The "ack n" values in the child's output so far, ignoring a partly written last line. */
+    private static List<Long> acks(Path out) throws IOException {
+        List<Long> acks = new ArrayList<>();
+        if (Files.notExists(out)) return acks;
+        String text = Files.readString(out);
+        for (String l : text.substring(0, text.lastIndexOf('\n') + 1).split("\n")) {
+            if (l.startsWith("ack ")) acks.add(Long.parseLong(l.substring(4)));
+        }
+        return acks;
+    }
+}
@@ -0,0 +1,75 @@
+package benchmarks;
+
+import server.domain.employees.AuthService;
+import server.shared.Branch;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes synthetic data files (same CSV layouts as data/*.txt) into a scratch directory.
+ *
+ *   products.txt        rows lines, SKUs 1001.. spread round-robin over the branches
+ *   customers.txt       rows customers, ids C1..C{rows}
+ *   customer_stats.txt  one stats row per customer
+ *   employees.txt       rows employees, usernames emp1..emp{rows}, password {@link #PASSWORD}
+ */
+public final class DataGenerator {
+
+    public static final String PASSWORD = "pass1!";
+    private static final String[] CATEGORIES = {"JEANS", "SHIRT", "JACKET", "UNDERWEAR", "DRESS", "SHOES"};
+    private static final String[] TYPES = {"NEW", "RETURNING", "VIP"};
+
+    private DataGenerator() {}
+
+    public static void generate(Path dir, int rows) throws IOException {
+        Files.createDirectories(dir);
+        Branch[] branches = Branch.values();
+
+        try (BufferedWriter w = writer(dir.resolve("products.txt"))) {
+            w.write("# id,category,branch,quantity,price\n");
+            for (int i = 0; i < rows; i++) {
+                int sku = 1001 + i / branches.length;
+                w.write(sku + "," + CATEGORIES[sku % CATEGORIES.length] + "," + branches[i % branches.length].name()
+                        + ",1000000," + (10 + sku % 290) + ".90\n");
+            }
+        }
+        try (BufferedWriter c = writer(dir.resolve("customers.txt"));
+             BufferedWriter s = writer(dir.resolve("customer_stats.txt"))) {
+            for (int i = 1; i <= rows; i++) {
+                c.write("C" + i + ",Customer " + i + ",05" + (10000000 + i) + "," + TYPES[i % TYPES.length] + "\n");
+                s.write("C" + i + "," + (i % 12) + "\n");
+            }
+        }
+        String hash = AuthService.sha256(PASSWORD);
+        try (BufferedWriter w = writer(dir.resolve("employees.txt"))) {
+            for (int i = 1; i <= rows; i++) {
+                w.write(String.format("E%05d", i) + ",emp" + i + "," + hash + ",CASHIER,"
+                        + branches[i % branches.length].name() + ",1000" + i + ",05" + (20000000 + i)
+                        + ",Employee " + i + "," + (300000000 + i) + "\n");
+            }
+        }
+        Files.writeString(dir.resolve("sales.txt"),
+                "# timestamp,branch,id,quantity,customerId,customerType,unitPrice,discountValue,finalPrice\n");
+    }
+
+    /** Number of distinct SKUs per branch for a generated file of {@code rows} product lines. */
+    public static int skusPerBranch(int rows) {
+        return Math.max(1, rows / Branch.values().length);
+    }
+
+    private static BufferedWriter writer(Path p) throws IOException {
+        return Files.newBufferedWriter(p, StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("usage: DataGenerator <dir> <rows>");
+            return;
+        }
+        generate(Path.of(args[0]), Integer.parseInt(args[1]));
+    }
+}
@@ -0,0 +1,127 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Compares StoreServer connection-handling modes (-Dserver.executor=cached|virtual|fixed:N)
+ * under many idle connections.
+ *
+ * For each mode a StoreServer child process is started on a throwaway data dir, then
+ * {@code --connections} sockets are opened one after another and left idle. Reported:
+ *   accept latency   connect() until "OK WELCOME" is read (p50 / p99 / max)
+ *   footprint        the server process' resident memory and OS thread count once all
+ *                    connections are idle (from /proc - Linux only, "n/a" elsewhere)
+ *
+ * usage: IdleConnectionBenchmark [--connections 10000] [--modes cached,virtual] [--out file.json]
+ * Needs an open-files limit above the connection count (ulimit -n) for both processes.
+ * "virtual" only differs from "cached" when the JVM running the server is Java 21+.
+ */
+public final class IdleConnectionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        int connections = Integer.parseInt(opt.getOrDefault("connections", "10000"));
+        String[] modes = opt.getOrDefault("modes", "cached,virtual").split(",");
+
+        BenchHarness json = new BenchHarness(0, 1, 0).quiet();
+        System.out.printf("%-10s %12s %10s %10s %10s %12s %10s%n",
+                "mode", "connections", "p50 ms", "p99 ms", "max ms", "rss MB", "threads");
+        for (String mode : modes) run(mode.trim(), connections, json);
+        if (opt.containsKey("out")) json.writeJson(Path.of(opt.get("out")));
+    }
+
+    private static void run(String mode, int connections, BenchHarness json) throws Exception {
+        Path scratch = Files.createTempDirectory("store-idle-");
+        DataGenerator.generate(scratch.resolve("data"), 1000);
+        int port;
+        try (ServerSocket ss = new ServerSocket(0)) { port = ss.getLocalPort(); }
+
+        Process server = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Dserver.executor=" + mode,
+                "-Dstore.idleTimeoutMs=0", // the connections are idle on purpose
+                "-cp", System.getProperty("java.class.path"),
+                "server.app.StoreServer", String.valueOf(port), scratch.resolve("data").toString())
+                .directory(scratch.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(scratch.resolve("server.out").toFile())
+                .start();
+
+        List<Socket> open = new ArrayList<>(connections);
+        long[] latency = new long[connections];
+        int opened = 0;
+        try {
+            waitForPort(port);
+            for (; opened < connections; opened++) {
+                long start = System.nanoTime();
+                Socket s = new Socket("127.0.0.1", port);
+                open.add(s);
+                s.setSoTimeout(10_000); // fixed:N never greets connections beyond N
+                new BufferedReader(new InputStreamReader(s.getInputStream())).readLine(); // OK WELCOME
+                latency[opened] = System.nanoTime() - start;
+            }
+        } catch (IOException e) {
+            System.out.println(mode + ": stopped after " + opened + " connections: " + e.getMessage());
+        }
+
+        try {
+            Thread.sleep(2000); // let the server settle with every connection idle
+            long[] lat = Arrays.copyOf(latency, opened);
+            Arrays.sort(lat);
+            double p50 = pct(lat, 50), p99 = pct(lat, 99), max = lat.length == 0 ? 0 : lat[lat.length - 1] / 1e6;
+            String rss = procStatus(server.pid(), "VmRSS:");
+            String threads = procStatus(server.pid(), "Threads:");
+            double rssMb = rss == null ? Double.NaN : Long.parseLong(rss.replace("kB", "").trim()) / 1024.0;
+
+            System.out.printf("%-10s %12d %10.3f %10.3f %10.3f %12s %10s%n", mode, opened, p50, p99, max,
+                    rss == null ? "n/a" : String.format("%.1f", rssMb), threads == null ? "n/a" : threads);
+
+            Map<String, String> p = BenchHarness.params("mode", mode, "connections", String.valueOf(opened));
+            json.record("idle.acceptLatency.p50", "sample", "ms", p, p50);
+            json.record("idle.acceptLatency.p99", "sample", "ms", p, p99);
+            if (rss != null) json.record("idle.serverRss", "sample", "MB", p, rssMb);
+            if (threads != null) json.record("idle.serverThreads", "sample", "threads", p, Double.parseDouble(threads));
+        } finally {
+            for (Socket s : open) try { s.close(); } catch (IOException ignored) {}
+            server.destroy();
+            server.waitFor();
+            BenchHarness.deleteTree(scratch);
+        }
+    }
+
+    private static double pct(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int idx = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))] / 1e6;
+    }
+
+    private static String procStatus(long pid, String key) {
+        try {
+            for (String l : Files.readAllLines(Path.of("/proc", String.valueOf(pid), "status"))) {
+                if (l.startsWith(key)) return l.substring(key.length()).trim();
+            }
+        } catch (IOException ignored) {
+        }
+        return null;
+    }
+
+    private static void waitForPort(int port) throws InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            try (Socket s = new Socket("127.0.0.1", port)) {
+                new BufferedReader(new InputStreamReader(s.getInputStream())).readLine();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("StoreServer did not start on port " + port);
+    }
+}
@@ -0,0 +1,166 @@
+package benchmarks;
+
+import server.domain.invantory.InventoryService;
+import server.domain.invantory.InventoryService.CartLine;
+import server.domain.invantory.Product;
+import server.shared.Branch;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent stress test for InventoryService's per-branch locking and the products journal.
+ *
+ * --threads terminals run a random mix for --seconds against one generated catalog (--rows lines):
+ * commitSale carts, BUY-style updateQuantity(+n), consumeOneByCategory, addNewProduct, findProduct
+ * and listByBranch. Every change is also counted per branch. The journal compacts every 200
+ * records (db.journal.compactEvery), so compactions run under load.
+ *   layout one     every thread works in HOLON (one branch lock, the pre-striping situation)
+ *   layout spread  thread i works in branch i % 3
+ * Afterwards each branch's total stock must equal its initial stock plus the counted changes, both
+ * in memory and after reopening the file. New SKUs must be unique across branches. Prints ops/s
+ * per layout; any violation throws.
+ *
+ * usage: InventoryStressHarness [--threads 12] [--seconds 5] [--rows 3000] [--layouts one,spread]
+ */
+public final class InventoryStressHarness {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        int threads = Integer.parseInt(opt.getOrDefault("threads", "12"));
+        int seconds = Integer.parseInt(opt.getOrDefault("seconds", "5"));
+        int rows = Integer.parseInt(opt.getOrDefault("rows", "3000").replace("_", ""));
+        if (System.getProperty("db.journal.compactEvery") == null) System.setProperty("db.journal.compactEvery", "200");
+        System.setProperty("log.level", "OFF");
+        BenchHarness.useBenchLogs();
+
+        System.out.printf("%-8s %8s %12s %10s %12s%n", "layout", "threads", "ops/s", "new SKUs", "stock moved");
+        for (String l : opt.getOrDefault("layouts", "one,spread").split(",")) run(l.trim(), threads, seconds, rows);
+    }
+
+    private static void run(String layout, int threads, int seconds, int rows) throws Exception {
+        Path dir = Files.createTempDirectory("store-inventory-stress-");
+        try {
+            DataGenerator.generate(dir, rows);
+            Path file = dir.resolve("products.txt");
+            InventoryService inventory = new InventoryService(file);
+            long[] expected = new long[Branch.values().length];
+            for (Branch b : Branch.values()) expected[b.ordinal()] = totalStock(inventory, b);
+            int skus = DataGenerator.skusPerBranch(rows);
+
+            LongAdder[] delta = new LongAdder[expected.length];
+            for (int i = 0; i < delta.length; i++) delta[i] = new LongAdder();
+            LongAdder ops = new LongAdder(), moved = new LongAdder();
+            Set<String> newSkus = ConcurrentHashMap.newKeySet();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            CountDownLatch start = new CountDownLatch(1);
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Branch branch = layout.equals("one") ? Branch.HOLON : Branch.values()[t % Branch.values().length];
+                long seed = t;
+                Thread w = new Thread(() -> {
+                    SplittableRandom rnd = new SplittableRandom(seed);
+                    LongAdder d = delta[branch.ordinal()];
+                    try {
+                        start.await();
+                        while (System.nanoTime() < deadline && failure.get() == null) {
+                            step(inventory, branch, skus, rnd, d, moved, newSkus);
+                            ops.increment();
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }, "stress-" + t);
+                workers.add(w);
+                w.start();
+            }
+            long t0 = System.nanoTime();
+            start.countDown();
+            for (Thread w : workers) w.join();
+            double secs = (System.nanoTime() - t0) / 1e9;
+            if (failure.get() != null) throw new IllegalStateException("worker failed", failure.get());
+
+            awaitCompactions(file);
+            InventoryService reopened = new InventoryService(file);
+            for (Branch b : Branch.values()) {
+                long want = expected[b.ordinal()] + delta[b.ordinal()].sum();
+                long live = totalStock(inventory, b), loaded = totalStock(reopened, b);
+                if (live != want || loaded != want) {
+                    throw new IllegalStateException(b + ": expected stock " + want + ", in memory " + live + ", reopened " + loaded);
+                }
+                if (inventory.listByBranch(b).size() != reopened.listByBranch(b).size()) {
+                    throw new IllegalStateException(b + ": product count differs after reopening");
+                }
+            }
+            System.out.printf("%-8s %8d %12.0f %10d %12d%n", layout, threads, ops.sum() / secs, newSkus.size(), moved.sum());
+        } finally {
+            BenchHarness.deleteTree(dir);
+        }
+    }
+
+    /** One random operation in branch; stock changes are added to delta. */
+    private static void step(InventoryService inv, Branch branch, int skus, SplittableRandom rnd,
+                             LongAdder delta, LongAdder moved, Set<String> newSkus) {
+        int op = rnd.nextInt(100);
+        if (op < 40) {
+            List<CartLine> cart = new ArrayList<>();
+            int units = 0;
+            for (int i = rnd.nextInt(1, 4); i > 0; i--) {
+                int q = rnd.nextInt(1, 3);
+                cart.add(new CartLine(sku(skus, rnd), q));
+                units += q;
+            }
+            if (inv.commitSale(branch, cart).ok()) {
+                delta.add(-units);
+                moved.add(units);
+            }
+        } else if (op < 60) {
+            int q = rnd.nextInt(1, 5);
+            inv.updateQuantity(branch, sku(skus, rnd), q);
+            delta.add(q);
+            moved.add(q);
+        } else if (op < 70) {
+            if (inv.consumeOneByCategory(branch, "JEANS")) {
+                delta.add(-1);
+                moved.add(1);
+            }
+        } else if (op < 71) {
+            String sku = inv.addNewProduct(branch, "STRESS", 5, new BigDecimal("9.90"));
+            if (!newSkus.add(sku)) throw new IllegalStateException("SKU " + sku + " handed out twice");
+            delta.add(5);
+        } else if (op < 73) {
+            inv.listByBranch(branch);
+        } else {
+            inv.findProduct(branch, sku(skus, rnd));
+        }
+    }
+
+    /**
+     * Compactions queued by the last appends still run on the journal thread; a second instance
+     * opened mid-compaction would fold the same .journal.old. Wait until none has run for 200ms.
+     */
+    private static void awaitCompactions(Path file) throws InterruptedException {
+        Path old = file.resolveSibling(file.getFileName() + ".journal.old");
+        for (int quiet = 0; quiet < 10; ) {
+            quiet = Files.exists(old) ? 0 : quiet + 1;
+            Thread.sleep(20);
+        }
+    }
+
+    private static String sku(int skus, SplittableRandom rnd) { return String.valueOf(1001 + rnd.nextInt(skus)); }
+
+    private static long totalStock(InventoryService inv, Branch b) {
+        long sum = 0;
+        for (Product p : inv.listByBranch(b)) sum += p.quantity();
+        return sum;
+    }
+}
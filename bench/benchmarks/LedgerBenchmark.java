@@ -0,0 +1,103 @@
+package benchmarks;
+
+import server.domain.sales.SalesLedger;
+import server.shared.Branch;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SalesLedger throughput on a throwaway directory.
+ *
+ *   ledger.append  {@code --threads} cashiers append {@code --sales} 3-line sales between them;
+ *                  every append waits for its group commit (sales/s)
+ *   ledger.scan    sequential scan of everything written, reading each record's amount (records/s),
+ *                  repeated {@code --scans} times
+ *
+ * usage: LedgerBenchmark [--sales 1000000] [--threads 64] [--scans 5] [--dir path] [--out file.json]
+ * --dir keeps the ledger there (e.g. on the real data disk; group commit cost depends on fsync).
+ */
+public final class LedgerBenchmark {
+
+    static final String[] CATEGORIES = {"SHIRT", "JEANS", "DRESS", "SHOES", "JACKET", "SKIRT"};
+
+    public static void main(String[] args) throws Exception {
+        BenchHarness.useBenchLogs();
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        int sales = Integer.parseInt(opt.getOrDefault("sales", "1000000").replace("_", ""));
+        int threads = Integer.parseInt(opt.getOrDefault("threads", "64"));
+        int scans = Integer.parseInt(opt.getOrDefault("scans", "5"));
+
+        boolean scratch = !opt.containsKey("dir");
+        Path dir = scratch ? Files.createTempDirectory("store-ledger-") : Path.of(opt.get("dir"));
+        BenchHarness json = new BenchHarness(1, scans, 0).quiet();
+        try (SalesLedger ledger = new SalesLedger(dir.resolve("sales"))) {
+            Map<String, String> p = BenchHarness.params("sales", String.valueOf(sales), "threads", String.valueOf(threads));
+
+            long t0 = System.nanoTime();
+            fill(ledger, sales, threads);
+            double appendSec = (System.nanoTime() - t0) / 1e9;
+            System.out.printf("append: %d sales with %d threads in %.2fs = %.0f sales/s%n",
+                    sales, threads, appendSec, sales / appendSec);
+            json.record("ledger.append", "thrpt", "sales/s", p, sales / appendSec);
+
+            double[] recordsPerSec = new double[scans];
+            for (int i = 0; i <= scans; i++) {
+                long[] cents = {0};
+                long[] saleCount = {0};
+                long s0 = System.nanoTime();
+                long records = ledger.scan(0, r -> {
+                    if (r.isSale()) saleCount[0]++;
+                    cents[0] += r.totalCents();
+                });
+                double sec = (System.nanoTime() - s0) / 1e9;
+                BenchHarness.sink = cents[0];
+                if (i == 0) continue; // warmup
+                recordsPerSec[i - 1] = records / sec;
+                System.out.printf("scan:   %d records (%d sales) in %.3fs = %.1fM records/s, %.1fM sales/s%n",
+                        records, saleCount[0], sec, records / sec / 1e6, saleCount[0] / sec / 1e6);
+            }
+            json.record("ledger.scan", "thrpt", "records/s", p, recordsPerSec);
+        } finally {
+            if (scratch) BenchHarness.deleteTree(dir);
+        }
+        if (opt.containsKey("out")) json.writeJson(Path.of(opt.get("out")));
+    }
+
+    /** Appends {@code sales} synthetic 3-line sales (one item each, mixed categories) from {@code threads} threads. */
+    static void fill(SalesLedger ledger, int sales, int threads) throws InterruptedException {
+        AtomicLong next = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.currentTimeMillis() - 30L * 24 * 3600 * 1000; // spread over the last 30 days
+        long step = Math.max(1, 30L * 24 * 3600 * 1000 / Math.max(1, sales));
+        for (int t = 0; t < threads; t++) {
+            Thread th = new Thread(() -> {
+                try {
+                    SplittableRandom rnd = new SplittableRandom(Thread.currentThread().getId());
+                    long i;
+                    while ((i = next.getAndIncrement()) < sales) {
+                        List<SalesLedger.Line> lines = new ArrayList<>(3);
+                        long base = 0;
+                        for (int k = 0; k < 3; k++) {
+                            int sku = 1001 + rnd.nextInt(5000);
+                            long unit = 1090 + (sku % 290) * 100;
+                            base += unit;
+                            lines.add(new SalesLedger.Line(String.valueOf(sku), CATEGORIES[sku % CATEGORIES.length], 1, unit, 0, unit));
+                        }
+                        ledger.append(start + i * step, Branch.values()[(int) (i % 3)], "C" + (1 + rnd.nextInt(100000)),
+                                "NEW", base, 0, base, false, lines);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            }, "cashier-" + t);
+            th.setDaemon(true);
+            th.start();
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,117 @@
+package benchmarks;
+
+import server.domain.sales.SalesLedger;
+import server.shared.Branch;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SalesLedger range queries (branch + time window) over a large synthetic ledger.
+ *
+ *   ledger.open         reopening the ledger (saved segment indexes + tail index rebuild)
+ *   ledger.query        query(branch, from, to) for windows of 1h, 1d and 7d ending mid-ledger,
+ *                       for one branch, and 7d for all branches (ms per query)
+ *   ledger.scanFilter   the same 1d / one-branch question answered by a full scan(), for comparison
+ *
+ * The ledger is filled through append() (4 records per sale, timestamps spread over 30 days).
+ * With --dir the ledger is kept there and only filled up to --records, so reruns skip the fill.
+ *
+ * usage: LedgerQueryBenchmark [--records 10000000] [--threads 512] [--reps 10] [--dir path] [--out file.json]
+ */
+public final class LedgerQueryBenchmark {
+
+    private static final long HOUR = 3600_000L;
+
+    public static void main(String[] args) throws Exception {
+        BenchHarness.useBenchLogs();
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        long records = Long.parseLong(opt.getOrDefault("records", "10000000").replace("_", ""));
+        int threads = Integer.parseInt(opt.getOrDefault("threads", "512"));
+        int reps = Integer.parseInt(opt.getOrDefault("reps", "10"));
+
+        boolean scratch = !opt.containsKey("dir");
+        Path dir = scratch ? Files.createTempDirectory("store-ledger-query-") : Path.of(opt.get("dir"));
+        BenchHarness json = new BenchHarness(1, reps, 0).quiet();
+        try {
+            try (SalesLedger ledger = new SalesLedger(dir.resolve("sales"))) {
+                long missing = records - ledger.size();
+                if (missing > 0) {
+                    long t0 = System.nanoTime();
+                    LedgerBenchmark.fill(ledger, (int) ((missing + 3) / 4), threads);
+                    System.out.printf("fill:  %,d records in %.1fs%n", ledger.size(), (System.nanoTime() - t0) / 1e9);
+                }
+            }
+
+            long o0 = System.nanoTime();
+            SalesLedger ledger = new SalesLedger(dir.resolve("sales"));
+            double openMs = (System.nanoTime() - o0) / 1e6;
+            System.out.printf("open:  %,d records in %.1f ms%n", ledger.size(), openMs);
+            Map<String, String> base = BenchHarness.params("records", String.valueOf(ledger.size()));
+            json.record("ledger.open", "ss", "ms", base, openMs);
+
+            try (ledger) {
+                long[] span = {Long.MAX_VALUE, Long.MIN_VALUE};
+                ledger.scan(0, r -> {
+                    long ts = r.timestamp();
+                    if (ts < span[0]) span[0] = ts;
+                    if (ts > span[1]) span[1] = ts;
+                });
+                long mid = span[0] + (span[1] - span[0]) / 2;
+
+                measure(json, ledger, Branch.HOLON, mid, HOUR, "1h", reps);
+                measure(json, ledger, Branch.HOLON, mid, 24 * HOUR, "1d", reps);
+                measure(json, ledger, Branch.HOLON, mid, 7 * 24 * HOUR, "7d", reps);
+                measure(json, ledger, null, mid, 7 * 24 * HOUR, "7d", reps);
+
+                double[] ms = new double[reps];
+                long matched = 0;
+                for (int i = 0; i <= reps; i++) {
+                    long[] n = {0};
+                    long from = mid - 24 * HOUR, to = mid;
+                    int holon = Branch.HOLON.ordinal();
+                    long s0 = System.nanoTime();
+                    ledger.scan(0, r -> {
+                        if (r.branchOrdinal() == holon && r.timestamp() >= from && r.timestamp() < to) n[0]++;
+                    });
+                    double t = (System.nanoTime() - s0) / 1e6;
+                    matched = n[0];
+                    if (i > 0) ms[i - 1] = t;
+                }
+                System.out.printf("%-22s %-10s %-5s %,12d records %10.2f ms%n", "scanFilter", "HOLON", "1d", matched, avg(ms));
+                json.record("ledger.scanFilter", "avgt", "ms/op",
+                        BenchHarness.params("records", String.valueOf(ledger.size()), "branch", "HOLON", "window", "1d"), ms);
+            }
+        } finally {
+            if (scratch) BenchHarness.deleteTree(dir);
+        }
+        if (opt.containsKey("out")) json.writeJson(Path.of(opt.get("out")));
+    }
+
+    private static void measure(BenchHarness json, SalesLedger ledger, Branch branch, long end, long window,
+                                String label, int reps) {
+        double[] ms = new double[reps];
+        long matched = 0;
+        for (int i = 0; i <= reps; i++) { // first pass is warmup
+            long[] cents = {0};
+            long q0 = System.nanoTime();
+            matched = ledger.query(branch, end - window, end, r -> cents[0] += r.totalCents());
+            double t = (System.nanoTime() - q0) / 1e6;
+            BenchHarness.sink = cents[0];
+            if (i > 0) ms[i - 1] = t;
+        }
+        String b = branch == null ? "ALL" : branch.name();
+        System.out.printf("%-22s %-10s %-5s %,12d records %10.2f ms%n", "query", b, label, matched, avg(ms));
+        json.record("ledger.query", "avgt", "ms/op",
+                BenchHarness.params("records", String.valueOf(ledger.size()), "branch", b, "window", label), ms);
+    }
+
+    private static double avg(double[] v) {
+        double s = 0;
+        for (double d : v) s += d;
+        return s / v.length;
+    }
+}
@@ -0,0 +1,263 @@
+package benchmarks;
+
+import server.app.StoreServer;
+import server.shared.Branch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless load generator for the StoreServer text protocol (same lines ClientConsole sends).
+ * N simulated cashiers each LOGIN, then loop over a weighted command mix with think time, and
+ * finally LOGOUT. Reports throughput and p50/p99/p999 latency per command.
+ *
+ * usage: LoadGenerator [options]
+ *   --cashiers N       concurrent cashiers                         (default 50)
+ *   --duration S       measured seconds                            (default 30)
+ *   --think MS         think time between commands                 (default 20)
+ *   --mix CMD=W,...    LIST, SELL, SELL_MULTI, BUY, CUSTOMER_LIST  (default LIST=30,SELL_MULTI=50,SELL=10,BUY=10)
+ *   --rows N           rows in the generated data files            (default 1000)
+ *   --host H --port P  target an already running StoreServer whose data dir was made by
+ *                      DataGenerator (otherwise one is started in-process on a throwaway dir)
+ *   --out FILE         also write results as JSON
+ */
+public final class LoadGenerator {
+
+    private static final String[] COMMANDS = {"LOGIN", "LIST", "SELL", "SELL_MULTI", "BUY", "CUSTOMER_LIST"};
+
+    private final String host;
+    private final int port;
+    private final int cashiers;
+    private final long durationMs;
+    private final long thinkMs;
+    private final int rows;
+    private final String[] mixCommands;
+    private final int[] mixCumulative;
+
+    private final Map<String, Samples> samples = new LinkedHashMap<>();
+    private final AtomicLong errors = new AtomicLong();
+
+    private LoadGenerator(String host, int port, int cashiers, long durationMs, long thinkMs, int rows, String mix) {
+        this.host = host;
+        this.port = port;
+        this.cashiers = cashiers;
+        this.durationMs = durationMs;
+        this.thinkMs = thinkMs;
+        this.rows = rows;
+        String[] parts = mix.split(",");
+        this.mixCommands = new String[parts.length];
+        this.mixCumulative = new int[parts.length];
+        int total = 0;
+        for (int i = 0; i < parts.length; i++) {
+            String[] kv = parts[i].split("=");
+            mixCommands[i] = kv[0].trim().toUpperCase();
+            total += Integer.parseInt(kv[1].trim());
+            mixCumulative[i] = total;
+        }
+        for (String c : COMMANDS) samples.put(c, new Samples());
+    }
+
+    public static void main(String[] args) throws Exception {
+        BenchHarness.useBenchLogs();
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+
+        int cashiers = Integer.parseInt(opt.getOrDefault("cashiers", "50"));
+        int rows = Math.max(cashiers, Integer.parseInt(opt.getOrDefault("rows", "1000")));
+        String mix = opt.getOrDefault("mix", "LIST=30,SELL_MULTI=50,SELL=10,BUY=10");
+        long durationMs = Long.parseLong(opt.getOrDefault("duration", "30")) * 1000;
+        long thinkMs = Long.parseLong(opt.getOrDefault("think", "20"));
+
+        String host = opt.getOrDefault("host", "127.0.0.1");
+        Path scratch = null;
+        int port;
+        if (opt.containsKey("port")) {
+            port = Integer.parseInt(opt.get("port"));
+        } else {
+            scratch = Files.createTempDirectory("store-load-");
+            DataGenerator.generate(scratch.resolve("data"), rows);
+            port = freePort();
+            StoreServer server = new StoreServer(port, scratch.resolve("data"));
+            Thread t = new Thread(server::start, "store-server");
+            t.setDaemon(true);
+            t.start();
+            waitForPort(host, port);
+            System.out.println("Started StoreServer on port " + port + " with data in " + scratch);
+        }
+
+        try {
+            LoadGenerator gen = new LoadGenerator(host, port, cashiers, durationMs, thinkMs, rows, mix);
+            gen.run();
+            gen.report(opt.get("out"));
+        } finally {
+            if (scratch != null) BenchHarness.deleteTree(scratch);
+        }
+    }
+
+    // ---------- driving ----------
+
+    private void run() throws InterruptedException {
+        System.out.printf("Running %d cashiers for %ds (think %dms, mix %s)%n",
+                cashiers, durationMs / 1000, thinkMs, String.join(",", mixCommands));
+        CountDownLatch done = new CountDownLatch(cashiers);
+        long deadline = System.currentTimeMillis() + durationMs;
+        for (int i = 1; i <= cashiers; i++) {
+            final int id = i;
+            Thread t = new Thread(() -> {
+                try { cashier(id, deadline); }
+                catch (Exception e) { errors.incrementAndGet(); }
+                finally { done.countDown(); }
+            }, "cashier-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        done.await();
+    }
+
+    private void cashier(int id, long deadline) throws IOException, InterruptedException {
+        Branch branch = Branch.values()[id % Branch.values().length]; // matches DataGenerator
+        int skus = DataGenerator.skusPerBranch(rows);
+        SplittableRandom rnd = new SplittableRandom(id);
+        Map<String, Samples> local = new HashMap<>();
+        for (String c : COMMANDS) local.put(c, new Samples());
+
+        try (Socket s = new Socket(host, port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream()), true)) {
+            in.readLine(); // OK WELCOME
+
+            long t0 = System.nanoTime();
+            out.println("LOGIN emp" + id + " " + DataGenerator.PASSWORD + " employee");
+            String resp = in.readLine();
+            if (resp == null || !resp.startsWith("OK LOGIN")) { errors.incrementAndGet(); return; }
+            local.get("LOGIN").add(System.nanoTime() - t0);
+
+            while (System.currentTimeMillis() < deadline) {
+                String cmd = pick(rnd);
+                String line;
+                String sku = String.valueOf(1001 + rnd.nextInt(skus));
+                String customer = "C" + (1 + rnd.nextInt(rows));
+                switch (cmd) {
+                    case "LIST" -> line = "LIST " + branch.name();
+                    case "SELL" -> line = "SELL " + branch.name() + " " + sku + " 1 " + customer;
+                    case "SELL_MULTI" -> line = "SELL_MULTI " + branch.name() + " " + customer + " "
+                            + sku + ":1," + (1001 + rnd.nextInt(skus)) + ":2," + (1001 + rnd.nextInt(skus)) + ":1";
+                    case "BUY" -> line = "BUY " + branch.name() + " " + sku + " 3";
+                    case "CUSTOMER_LIST" -> line = "CUSTOMER_LIST";
+                    default -> throw new IllegalArgumentException("unknown command in mix: " + cmd);
+                }
+                long start = System.nanoTime();
+                out.println(line);
+                if (!readResponse(cmd, in)) { errors.incrementAndGet(); return; }
+                local.get(cmd).add(System.nanoTime() - start);
+                if (thinkMs > 0) Thread.sleep(thinkMs);
+            }
+
+            out.println("LOGOUT");
+            in.readLine();
+        } finally {
+            for (String c : COMMANDS) {
+                Samples target = samples.get(c);
+                synchronized (target) { target.addAll(local.get(c)); }
+            }
+        }
+    }
+
+    /** Reads one full response; false if the server closed the connection. */
+    private boolean readResponse(String cmd, BufferedReader in) throws IOException {
+        String l;
+        while ((l = in.readLine()) != null) {
+            if (l.startsWith("ERR")) { errors.incrementAndGet(); return true; }
+            switch (cmd) {
+                case "LIST", "SELL_MULTI", "CUSTOMER_LIST" -> { if (l.equals("OK END")) return true; }
+                case "SELL" -> { if (l.startsWith("Sale Completed")) return true; }
+                default -> { return true; }
+            }
+        }
+        return false;
+    }
+
+    private String pick(SplittableRandom rnd) {
+        int r = rnd.nextInt(mixCumulative[mixCumulative.length - 1]);
+        for (int i = 0; i < mixCumulative.length; i++) if (r < mixCumulative[i]) return mixCommands[i];
+        return mixCommands[mixCommands.length - 1];
+    }
+
+    // ---------- reporting ----------
+
+    private void report(String jsonOut) {
+        double seconds = durationMs / 1000.0;
+        BenchHarness json = new BenchHarness(0, 1, 0).quiet();
+        System.out.printf("%n%-14s %10s %12s %10s %10s %10s %10s%n",
+                "command", "count", "ops/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        long total = 0;
+        for (Map.Entry<String, Samples> e : samples.entrySet()) {
+            Samples s = e.getValue();
+            if (s.size == 0) continue;
+            s.sort();
+            total += s.size;
+            double tput = s.size / seconds;
+            System.out.printf("%-14s %10d %12.1f %10.3f %10.3f %10.3f %10.3f%n",
+                    e.getKey(), s.size, tput, ms(s.percentile(50)), ms(s.percentile(99)),
+                    ms(s.percentile(99.9)), ms(s.max()));
+            Map<String, String> p = BenchHarness.params("cashiers", String.valueOf(cashiers),
+                    "thinkMs", String.valueOf(thinkMs), "rows", String.valueOf(rows));
+            json.record("load." + e.getKey() + ".throughput", "thrpt", "ops/s", p, tput);
+            json.record("load." + e.getKey() + ".p50", "sample", "ms", p, ms(s.percentile(50)));
+            json.record("load." + e.getKey() + ".p99", "sample", "ms", p, ms(s.percentile(99)));
+            json.record("load." + e.getKey() + ".p999", "sample", "ms", p, ms(s.percentile(99.9)));
+        }
+        System.out.printf("%ntotal %d commands, %.1f ops/s, %d errors%n", total, total / seconds, errors.get());
+        if (jsonOut != null) json.writeJson(Path.of(jsonOut));
+    }
+
+    private static double ms(long nanos) { return nanos / 1_000_000.0; }
+
+    /** Growable array of latency samples (nanoseconds). */
+    private static final class Samples {
+        long[] v = new long[1024];
+        int size;
+
+        void add(long x) {
+            if (size == v.length) v = Arrays.copyOf(v, size * 2);
+            v[size++] = x;
+        }
+        void addAll(Samples o) {
+            for (int i = 0; i < o.size; i++) add(o.v[i]);
+        }
+        void sort() { Arrays.sort(v, 0, size); }
+        long percentile(double p) {
+            int idx = (int) Math.ceil(p / 100.0 * size) - 1;
+            return v[Math.max(0, Math.min(size - 1, idx))];
+        }
+        long max() { return v[size - 1]; }
+    }
+
+    // ---------- helpers ----------
+
+    private static int freePort() throws IOException {
+        try (ServerSocket ss = new ServerSocket(0)) { return ss.getLocalPort(); }
+    }
+
+    private static void waitForPort(String host, int port) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try {
+                new Socket(host, port).close(); // connected: the server is up
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("StoreServer did not start on port " + port);
+    }
+}
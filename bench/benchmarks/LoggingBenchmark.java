@@ -0,0 +1,167 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checkout (SELL_MULTI) latency with logging off, synchronous (FileHandler on the request thread)
+ * and asynchronous (AsyncLogHandler, the default).
+ *
+ * For each mode a StoreServer child process is started on a throwaway data dir with
+ *   off    -Dlog.level=OFF
+ *   sync   -Dlog.async=false
+ *   async  (defaults)
+ * then {@code --cashiers} terminals each send 3-line SELL_MULTI carts back to back. Reported per
+ * mode: checkouts/s and p50/p99/p99.9 round trip over {@code --duration} seconds (after
+ * {@code --warmup} seconds), and how much transactions.log grew.
+ *
+ * usage: LoggingBenchmark [--cashiers 32] [--duration 10] [--warmup 3] [--rows 10000] [--modes off,sync,async] [--out file.json]
+ */
+public final class LoggingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        int cashiers = Integer.parseInt(opt.getOrDefault("cashiers", "32"));
+        int duration = Integer.parseInt(opt.getOrDefault("duration", "10"));
+        int warmup = Integer.parseInt(opt.getOrDefault("warmup", "3"));
+        int rows = Integer.parseInt(opt.getOrDefault("rows", "10000"));
+
+        BenchHarness json = new BenchHarness(0, 1, 0).quiet();
+        System.out.printf("%-6s %10s %10s %10s %10s %14s%n", "mode", "sales/s", "p50 ms", "p99 ms", "p99.9 ms", "log bytes");
+        for (String mode : opt.getOrDefault("modes", "off,sync,async").split(",")) {
+            run(mode.trim(), cashiers, duration, warmup, rows, json);
+        }
+        if (opt.containsKey("out")) json.writeJson(Path.of(opt.get("out")));
+    }
+
+    private static void run(String mode, int cashiers, int duration, int warmup, int rows, BenchHarness json) throws Exception {
+        String flag = switch (mode) {
+            case "off" -> "-Dlog.level=OFF";
+            case "sync" -> "-Dlog.async=false";
+            case "async" -> "-Dlog.async=true";
+            default -> throw new IllegalArgumentException("mode must be off, sync or async: " + mode);
+        };
+        Path scratch = Files.createTempDirectory("store-logging-");
+        DataGenerator.generate(scratch.resolve("data"), rows);
+        int port;
+        try (ServerSocket ss = new ServerSocket(0)) { port = ss.getLocalPort(); }
+
+        Process server = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(), flag,
+                "-cp", System.getProperty("java.class.path"),
+                "server.app.StoreServer", String.valueOf(port), scratch.resolve("data").toString())
+                .directory(scratch.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(scratch.resolve("server.out").toFile())
+                .start();
+        try {
+            waitForPort(port);
+            int skus = DataGenerator.skusPerBranch(rows);
+            long measureFrom = System.nanoTime() + warmup * 1_000_000_000L;
+            long end = measureFrom + duration * 1_000_000_000L;
+            long[][] samples = new long[cashiers][];
+            int[] counts = new int[cashiers];
+            AtomicInteger errors = new AtomicInteger();
+            CountDownLatch done = new CountDownLatch(cashiers);
+            long logBefore = -1;
+            for (int c = 0; c < cashiers; c++) {
+                int id = c;
+                Thread t = new Thread(() -> {
+                    long[] lat = new long[1 << 16];
+                    int n = 0;
+                    SplittableRandom rnd = new SplittableRandom(id);
+                    try (Socket s = new Socket("127.0.0.1", port)) {
+                        s.setTcpNoDelay(true);
+                        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+                        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(s.getOutputStream())));
+                        in.readLine(); // OK WELCOME
+                        out.println("LOGIN emp" + (id + 1) + " " + DataGenerator.PASSWORD + " employee");
+                        out.flush();
+                        if (!in.readLine().startsWith("OK LOGIN")) { errors.incrementAndGet(); return; }
+                        for (long now = System.nanoTime(); now < end; now = System.nanoTime()) {
+                            out.println("SELL_MULTI HOLON C" + (1 + rnd.nextInt(rows)) + " "
+                                    + (1001 + rnd.nextInt(skus)) + ":1," + (1001 + rnd.nextInt(skus)) + ":1,"
+                                    + (1001 + rnd.nextInt(skus)) + ":1");
+                            out.flush();
+                            String l = in.readLine();
+                            if (l == null || !l.startsWith("OK")) { errors.incrementAndGet(); return; }
+                            while (!(l = in.readLine()).equals("OK END")) { /* LINE / GIFT_SHIRT */ }
+                            long after = System.nanoTime();
+                            if (now >= measureFrom) {
+                                if (n == lat.length) lat = Arrays.copyOf(lat, n * 2);
+                                lat[n++] = after - now;
+                            }
+                        }
+                        out.println("LOGOUT");
+                        out.flush();
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    } finally {
+                        samples[id] = lat;
+                        counts[id] = n;
+                        done.countDown();
+                    }
+                }, "cashier-" + id);
+                t.setDaemon(true);
+                t.start();
+            }
+            Path log = scratch.resolve("logs").resolve("transactions.log");
+            Thread.sleep(Math.max(0, (measureFrom - System.nanoTime()) / 1_000_000));
+            logBefore = Files.exists(log) ? Files.size(log) : 0;
+            done.await();
+            Thread.sleep(500); // let the async writer's last flush land
+            long logBytes = (Files.exists(log) ? Files.size(log) : 0) - logBefore;
+
+            int total = Arrays.stream(counts).sum();
+            long[] all = new long[total];
+            for (int c = 0, k = 0; c < cashiers; c++) {
+                System.arraycopy(samples[c], 0, all, k, counts[c]);
+                k += counts[c];
+            }
+            Arrays.sort(all);
+            double perSec = total / (double) duration;
+            System.out.printf("%-6s %10.0f %10.3f %10.3f %10.3f %14d%s%n", mode, perSec, pct(all, 50), pct(all, 99),
+                    pct(all, 99.9), logBytes, errors.get() > 0 ? "  (" + errors.get() + " errors)" : "");
+
+            Map<String, String> p = BenchHarness.params("mode", mode, "cashiers", String.valueOf(cashiers));
+            json.record("logging.checkout.throughput", "thrpt", "ops/s", p, perSec);
+            json.record("logging.checkout.p50", "sample", "ms", p, pct(all, 50));
+            json.record("logging.checkout.p99", "sample", "ms", p, pct(all, 99));
+            json.record("logging.checkout.p999", "sample", "ms", p, pct(all, 99.9));
+        } finally {
+            server.destroy();
+            server.waitFor();
+            BenchHarness.deleteTree(scratch);
+        }
+    }
+
+    private static double pct(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int idx = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))] / 1e6;
+    }
+
+    private static void waitForPort(int port) throws InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            try (Socket s = new Socket("127.0.0.1", port)) {
+                new BufferedReader(new InputStreamReader(s.getInputStream())).readLine();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("StoreServer did not start on port " + port);
+    }
+}
@@ -0,0 +1,116 @@
+package benchmarks;
+
+import server.domain.employees.AuthService;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * "Every cashier at 09:00": {@code --cashiers} threads are released together and each calls
+ * AuthService.loginEmployee once (then logout), for every workforce size.
+ * Reported per size: wall time for the whole storm, logins/s and p50 / p99 / max login latency,
+ * plus logins refused as BUSY by the bounded hashing pool (tune with -Dauth.hashThreads,
+ * -Dauth.hashQueue). The storm is repeated {@code --rounds} times; the first round is warmup
+ * and not reported.
+ *
+ * usage: LoginStormBenchmark [--cashiers 500] [--rounds 6] [--rows 1000,100000] [--out file.json]
+ */
+public final class LoginStormBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        BenchHarness.useBenchLogs();
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        int cashiers = Integer.parseInt(opt.getOrDefault("cashiers", "500"));
+        int rounds = Math.max(2, Integer.parseInt(opt.getOrDefault("rounds", "6")));
+        String[] sizes = opt.getOrDefault("rows", "1000,100000").split(",");
+
+        BenchHarness json = new BenchHarness(1, rounds - 1, 0).quiet();
+        System.out.printf("%-10s %9s %12s %12s %10s %10s %10s %8s%n",
+                "rows", "cashiers", "storm ms", "logins/s", "p50 ms", "p99 ms", "max ms", "busy");
+        for (String size : sizes) {
+            int rows = Math.max(cashiers, Integer.parseInt(size.trim().replace("_", "")));
+            run(rows, cashiers, rounds, json);
+        }
+        if (opt.containsKey("out")) json.writeJson(Path.of(opt.get("out")));
+    }
+
+    private static void run(int rows, int cashiers, int rounds, BenchHarness json) throws Exception {
+        Path dir = Files.createTempDirectory("store-logins-" + rows + "-");
+        try {
+            DataGenerator.generate(dir, rows);
+            AuthService auth = new AuthService(dir.resolve("employees.txt"));
+
+            double[] stormMs = new double[rounds - 1];
+            double[] p50 = new double[rounds - 1], p99 = new double[rounds - 1], max = new double[rounds - 1];
+            for (int round = 0; round < rounds; round++) {
+                long[] latency = new long[cashiers];
+                long[] bounds = storm(auth, cashiers, latency);
+                if (round == 0) continue;
+                Arrays.sort(latency);
+                stormMs[round - 1] = (bounds[1] - bounds[0]) / 1e6;
+                p50[round - 1] = pct(latency, 50);
+                p99[round - 1] = pct(latency, 99);
+                max[round - 1] = latency[latency.length - 1] / 1e6;
+            }
+            double storm = mean(stormMs);
+            System.out.printf("%-10d %9d %12.2f %12.0f %10.3f %10.3f %10.3f %8d%n",
+                    rows, cashiers, storm, cashiers / (storm / 1000.0), mean(p50), mean(p99), mean(max),
+                    auth.hashingStats().rejected() + auth.hashingStats().timedOut());
+
+            Map<String, String> p = BenchHarness.params("rows", String.valueOf(rows), "cashiers", String.valueOf(cashiers));
+            json.record("loginStorm.wallTime", "ss", "ms", p, stormMs);
+            json.record("loginStorm.p50", "sample", "ms", p, p50);
+            json.record("loginStorm.p99", "sample", "ms", p, p99);
+        } finally {
+            BenchHarness.deleteTree(dir);
+        }
+    }
+
+    /** One storm; fills per-login latency and returns {first start, last finish} in nanos. */
+    private static long[] storm(AuthService auth, int cashiers, long[] latency) throws InterruptedException {
+        CyclicBarrier gate = new CyclicBarrier(cashiers);
+        CountDownLatch done = new CountDownLatch(cashiers);
+        long[] starts = new long[cashiers], ends = new long[cashiers];
+        for (int i = 0; i < cashiers; i++) {
+            final int id = i + 1;
+            Thread t = new Thread(() -> {
+                try {
+                    gate.await();
+                    long start = System.nanoTime();
+                    AuthService.LoginResult r = auth.loginEmployee("emp" + id, DataGenerator.PASSWORD);
+                    long end = System.nanoTime();
+                    if (r != AuthService.LoginResult.SUCCESS && r != AuthService.LoginResult.BUSY) {
+                        throw new IllegalStateException("login failed: " + r);
+                    }
+                    auth.logout("emp" + id);
+                    starts[id - 1] = start;
+                    ends[id - 1] = end;
+                    latency[id - 1] = end - start;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    done.countDown();
+                }
+            }, "cashier-" + id);
+            t.setDaemon(true);
+            t.start();
+        }
+        done.await();
+        return new long[]{Arrays.stream(starts).min().orElse(0), Arrays.stream(ends).max().orElse(0)};
+    }
+
+    private static double pct(long[] sorted, double p) {
+        int idx = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))] / 1e6;
+    }
+
+    private static double mean(double[] v) {
+        double s = 0;
+        for (double x : v) s += x;
+        return s / v.length;
+    }
+}
@@ -0,0 +1,170 @@
+package benchmarks;
+
+import server.app.StoreServer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Protocol-level StoreServer benchmark over a real loopback socket: measures what one terminal
+ * sees per command, including the server's response writes.
+ *
+ *   protocol.LIST          LIST of one branch (rows/3 ITEM lines + OK END), one round trip
+ *   protocol.SELL_MULTI    3-line cart (header + 3 LINE + OK END), one round trip
+ *   protocol.BUY           single-line response, one round trip
+ *   protocol.BUY.pipelined {@code depth} BUY commands sent back to back, then all responses read;
+ *                          score is per batch, so divide by depth for the per-command cost
+ *   protocol.BUY.split     a BUY and the first half of the next BUY in one write, the first
+ *                          response read, then the rest of the second line sent and its response
+ *                          read; a server that holds replies back behind a partial line fails it
+ *                          (no response within 10 s)
+ *
+ * usage: ProtocolBenchmark [--rows 1000] [--depth 1,8,32] [--out file.json]
+ * tuning: -Dbench.warmup=2 -Dbench.iterations=5 -Dbench.iterationMs=1000
+ */
+public final class ProtocolBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        BenchHarness.useBenchLogs();
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        int rows = Integer.parseInt(opt.getOrDefault("rows", "1000"));
+        String[] depths = opt.getOrDefault("depth", "1,8,32").split(",");
+        Path out = Path.of(opt.getOrDefault("out", Path.of("bench-results",
+                "protocol-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json").toString()));
+
+        Path scratch = Files.createTempDirectory("store-protocol-");
+        try {
+            DataGenerator.generate(scratch.resolve("data"), rows);
+            int port;
+            try (ServerSocket ss = new ServerSocket(0)) { port = ss.getLocalPort(); }
+            Thread server = new Thread(new StoreServer(port, scratch.resolve("data"))::start, "store-server");
+            server.setDaemon(true);
+            server.start();
+
+            BenchHarness h = BenchHarness.fromSystemProperties();
+            try (Terminal term = Terminal.connect(port)) {
+                term.roundTrip("LOGIN emp3 " + DataGenerator.PASSWORD + " employee");
+                int skus = DataGenerator.skusPerBranch(rows);
+                SplittableRandom rnd = new SplittableRandom(7);
+                Map<String, String> p = BenchHarness.params("rows", String.valueOf(rows));
+
+                h.run("protocol.LIST", p, () -> term.roundTrip("LIST HOLON"));
+                h.run("protocol.SELL_MULTI", p, () -> term.roundTrip("SELL_MULTI HOLON C" + (1 + rnd.nextInt(rows)) + " "
+                        + (1001 + rnd.nextInt(skus)) + ":1," + (1001 + rnd.nextInt(skus)) + ":1," + (1001 + rnd.nextInt(skus)) + ":1"));
+                h.run("protocol.BUY", p, () -> term.roundTrip("BUY HOLON " + (1001 + rnd.nextInt(skus)) + " 1"));
+                h.run("protocol.BUY.split", p, () -> {
+                    term.send("BUY HOLON " + (1001 + rnd.nextInt(skus)) + " 1");
+                    term.sendHead("BUY HOLON " + (1001 + rnd.nextInt(skus)) + " 1", 6);
+                    term.flush();
+                    term.readResponse();
+                    term.sendTail();
+                    term.flush();
+                    return term.readResponse();
+                });
+                for (String d : depths) {
+                    int depth = Integer.parseInt(d.trim());
+                    Map<String, String> pd = BenchHarness.params("rows", String.valueOf(rows), "depth", String.valueOf(depth));
+                    h.run("protocol.BUY.pipelined", pd, () -> {
+                        for (int i = 0; i < depth; i++) term.send("BUY HOLON " + (1001 + rnd.nextInt(skus)) + " 1");
+                        term.flush();
+                        String last = null;
+                        for (int i = 0; i < depth; i++) last = term.readResponse();
+                        return last;
+                    });
+                }
+                term.roundTrip("LOGOUT");
+            }
+            h.writeJson(out);
+        } finally {
+            BenchHarness.deleteTree(scratch);
+        }
+    }
+
+    /** One client connection; a response ends at OK END, or is a single line for other commands. */
+    private static final class Terminal implements AutoCloseable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final PrintWriter out;
+        private final ArrayDeque<Boolean> multiLine = new ArrayDeque<>();
+        private String tail;
+
+        private Terminal(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            this.out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+        }
+
+        static Terminal connect(int port) throws Exception {
+            for (int i = 0; i < 100; i++) {
+                try {
+                    Terminal t = new Terminal(new Socket("127.0.0.1", port));
+                    t.socket.setTcpNoDelay(true);
+                    t.socket.setSoTimeout(10_000);
+                    t.in.readLine(); // OK WELCOME
+                    return t;
+                } catch (IOException e) {
+                    Thread.sleep(50);
+                }
+            }
+            throw new IllegalStateException("StoreServer did not start on port " + port);
+        }
+
+        void send(String line) {
+            out.println(line);
+            expect(line);
+        }
+
+        /** Writes line up to at, without the newline; sendTail() writes the rest. */
+        void sendHead(String line, int at) {
+            out.print(line.substring(0, at));
+            tail = line.substring(at);
+            expect(line);
+        }
+
+        void sendTail() { out.println(tail); }
+
+        void flush() { out.flush(); }
+
+        String roundTrip(String line) throws IOException {
+            send(line);
+            flush();
+            return readResponse();
+        }
+
+        String readResponse() throws IOException {
+            boolean untilEnd = multiLine.remove();
+            String l;
+            try {
+                while ((l = in.readLine()) != null) {
+                    if (!untilEnd || l.equals("OK END") || l.startsWith("ERR")) return l;
+                }
+            } catch (SocketTimeoutException e) {
+                throw new IllegalStateException("no response within " + socket.getSoTimeout() + " ms", e);
+            }
+            throw new IOException("server closed the connection");
+        }
+
+        private void expect(String line) {
+            String cmd = line.split(" ", 2)[0];
+            multiLine.add(cmd.equals("LIST") || cmd.equals("SELL_MULTI") || cmd.equals("CUSTOMER_LIST"));
+        }
+
+        @Override public void close() throws IOException { socket.close(); }
+    }
+}
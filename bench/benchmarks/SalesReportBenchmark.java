@@ -0,0 +1,124 @@
+package benchmarks;
+
+import server.domain.sales.SalesAggregates;
+import server.domain.sales.SalesLedger;
+import server.shared.Branch;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * SALES_REPORT totals from SalesAggregates, and what it costs to keep them across restarts.
+ *
+ *   aggregates.rebuild    building the totals from the whole ledger (no checkpoint)
+ *   aggregates.checkpoint writing the checkpoint file
+ *   aggregates.restart    loading the checkpoint and replaying the --tail sales appended after it
+ *   report.aggregates     30-day report by category (all branches) and by day x category (one branch)
+ *   report.ledger         the by-category report computed from the sales via SalesLedger.query
+ *
+ * usage: SalesReportBenchmark [--sales 1000000] [--tail 10000] [--threads 512] [--reps 10] [--out file.json]
+ */
+public final class SalesReportBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        BenchHarness.useBenchLogs();
+        Map<String, String> opt = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) opt.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        int sales = Integer.parseInt(opt.getOrDefault("sales", "1000000").replace("_", ""));
+        int tail = Integer.parseInt(opt.getOrDefault("tail", "10000").replace("_", ""));
+        int threads = Integer.parseInt(opt.getOrDefault("threads", "512"));
+        int reps = Integer.parseInt(opt.getOrDefault("reps", "10"));
+
+        Path dir = Files.createTempDirectory("store-sales-report-");
+        Path ledgerDir = dir.resolve("sales");
+        Path ckpt = ledgerDir.resolve("aggregates.txt");
+        BenchHarness json = new BenchHarness(1, reps, 0).quiet();
+        Map<String, String> p = BenchHarness.params("sales", String.valueOf(sales));
+        try {
+            try (SalesLedger ledger = new SalesLedger(ledgerDir)) {
+                LedgerBenchmark.fill(ledger, sales, threads);
+            }
+
+            try (SalesLedger ledger = new SalesLedger(ledgerDir)) {
+                long t0 = System.nanoTime();
+                SalesAggregates agg = new SalesAggregates(ledger, ckpt);
+                double rebuildMs = (System.nanoTime() - t0) / 1e6;
+                long c0 = System.nanoTime();
+                agg.close(); // writes the checkpoint
+                double ckptMs = (System.nanoTime() - c0) / 1e6;
+                System.out.printf("rebuild:    %,d records in %.0f ms%n", ledger.size(), rebuildMs);
+                System.out.printf("checkpoint: %,d bytes in %.1f ms%n", Files.size(ckpt), ckptMs);
+                json.record("aggregates.rebuild", "ss", "ms", p, rebuildMs);
+                json.record("aggregates.checkpoint", "ss", "ms", p, ckptMs);
+                LedgerBenchmark.fill(ledger, tail, Math.min(threads, tail));
+            }
+
+            try (SalesLedger ledger = new SalesLedger(ledgerDir)) {
+                long t0 = System.nanoTime();
+                SalesAggregates agg = new SalesAggregates(ledger, ckpt);
+                double restartMs = (System.nanoTime() - t0) / 1e6;
+                System.out.printf("restart:    checkpoint + %,d new sales in %.1f ms%n", tail, restartMs);
+                json.record("aggregates.restart", "ss", "ms", BenchHarness.params("sales", String.valueOf(sales),
+                        "tail", String.valueOf(tail)), restartMs);
+
+                long[] span = {Long.MAX_VALUE, Long.MIN_VALUE};
+                ledger.scan(0, r -> {
+                    span[0] = Math.min(span[0], r.timestamp());
+                    span[1] = Math.max(span[1], r.timestamp());
+                });
+                ZoneId zone = ZoneId.systemDefault();
+                LocalDate first = Instant.ofEpochMilli(span[0]).atZone(zone).toLocalDate();
+                LocalDate last = Instant.ofEpochMilli(span[1]).atZone(zone).toLocalDate();
+
+                Set<SalesAggregates.Dimension> byCategory = EnumSet.of(SalesAggregates.Dimension.CATEGORY);
+                Set<SalesAggregates.Dimension> byDayCategory =
+                        EnumSet.of(SalesAggregates.Dimension.DAY, SalesAggregates.Dimension.CATEGORY);
+                List<SalesAggregates.Row> rows = agg.report(null, first, last, byCategory);
+                time(json, "report.aggregates", "ALL", "category", rows.size(), reps,
+                        () -> agg.report(null, first, last, byCategory));
+                time(json, "report.aggregates", "HOLON", "day,category",
+                        agg.report(Branch.HOLON, first, last, byDayCategory).size(), reps,
+                        () -> agg.report(Branch.HOLON, first, last, byDayCategory));
+
+                long from = first.atStartOfDay(zone).toInstant().toEpochMilli();
+                long to = last.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+                Map<String, Long> check = new HashMap<>();
+                time(json, "report.ledger", "ALL", "category", rows.size(), reps, () -> {
+                    Map<String, Long> revenue = new HashMap<>();
+                    ledger.query(null, from, to, r -> {
+                        if (!r.isSale()) revenue.merge(r.category(), r.totalCents(), Long::sum);
+                    });
+                    check.clear();
+                    check.putAll(revenue);
+                    return revenue;
+                });
+                for (SalesAggregates.Row r : rows) {
+                    if (!Objects.equals(check.getOrDefault(r.category(), 0L), r.revenueCents())) {
+                        throw new IllegalStateException("aggregates disagree with the ledger for " + r.category());
+                    }
+                }
+                agg.close();
+            }
+        } finally {
+            BenchHarness.deleteTree(dir);
+        }
+        if (opt.containsKey("out")) json.writeJson(Path.of(opt.get("out")));
+    }
+
+    private static void time(BenchHarness json, String name, String branch, String by, int groups, int reps,
+                             BenchHarness.Op op) throws Exception {
+        double[] ms = new double[reps];
+        for (int i = 0; i <= reps; i++) { // first pass is warmup
+            long t0 = System.nanoTime();
+            BenchHarness.sink = op.run();
+            if (i > 0) ms[i - 1] = (System.nanoTime() - t0) / 1e6;
+        }
+        double avg = Arrays.stream(ms).average().orElse(0);
+        System.out.printf("%-18s %-6s by %-13s %5d rows %10.3f ms%n", name, branch, by, groups, avg);
+        json.record(name, "avgt", "ms/op", BenchHarness.params("branch", branch, "by", by), ms);
+    }
+}
@@ -0,0 +1,123 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import server.domain.customers.Customer;
+import server.domain.customers.CustomerService;
+import server.domain.employees.AuthService;
+import server.domain.invantory.InventoryService;
+import server.domain.invantory.Product;
+import server.domain.sales.SalesService;
+import server.shared.Branch;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the StoreServer domain hot paths against generated data files.
+ *
+ * Each rows value gets its own scratch directory with DataGenerator files, created in the trial
+ * setup and deleted afterwards; logs go to BenchHarness.useBenchLogs().
+ *
+ * usage: java -jar jmh/target/benchmarks.jar DomainBenchmarks -p rows=1000 -rf json -rff out.json
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DomainBenchmarks {
+
+    @Param({"1000", "100000", "1000000"})
+    public int rows;
+
+    private Path dir;
+    private InventoryService inventory;
+    private CustomerService customers;
+    private AuthService auth;
+    private final SalesService sales = new SalesService();
+    private Customer vip;
+    private final List<SalesService.LineRequest> cart = new ArrayList<>();
+    private int skus;
+    private int flip = 1;
+    private final SplittableRandom rnd = new SplittableRandom(42);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchHarness.useBenchLogs();
+        dir = Files.createTempDirectory("store-bench-" + rows + "-");
+        DataGenerator.generate(dir, rows);
+        inventory = new InventoryService(dir.resolve("products.txt"));
+        customers = new CustomerService(dir.resolve("customers.txt"), dir.resolve("customer_stats.txt"));
+        auth = new AuthService(dir.resolve("employees.txt"));
+        skus = DataGenerator.skusPerBranch(rows);
+
+        vip = customers.findById("C2").orElseThrow();
+        for (int i = 0; i < 3; i++) {
+            Product p = inventory.findProduct(Branch.HOLON, String.valueOf(1001 + i % skus)).orElseThrow();
+            cart.add(new SalesService.LineRequest(p, 1 + i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchHarness.deleteTree(dir);
+    }
+
+    @Benchmark
+    public void inventoryListByBranch(Blackhole bh) {
+        bh.consume(inventory.listByBranch(Branch.HOLON));
+    }
+
+    @Benchmark
+    public void inventoryFindProduct(Blackhole bh) {
+        bh.consume(inventory.findProduct(Branch.HOLON, sku()));
+    }
+
+    /** Alternates +1 / -1 so stock stays where the generator put it. */
+    @Benchmark
+    public void inventoryUpdateQuantity() {
+        flip = -flip;
+        inventory.updateQuantity(Branch.HOLON, sku(), flip);
+    }
+
+    @Benchmark
+    public void customerFindById(Blackhole bh) {
+        bh.consume(customers.findById("C" + (1 + rnd.nextInt(rows))));
+    }
+
+    @Benchmark
+    public void customerFindByPhone(Blackhole bh) {
+        bh.consume(customers.findByPhone("05" + (10000000 + 1 + rnd.nextInt(rows))));
+    }
+
+    @Benchmark
+    public void customerRecordPurchase() {
+        customers.recordPurchase("C" + (1 + rnd.nextInt(rows)));
+    }
+
+    @Benchmark
+    public void salesSellMulti(Blackhole bh) {
+        bh.consume(sales.sellMulti(cart, vip));
+    }
+
+    @Benchmark
+    public void authSha256(Blackhole bh) {
+        bh.consume(AuthService.sha256(DataGenerator.PASSWORD));
+    }
+
+    @Benchmark
+    public void authLoginEmployee(Blackhole bh) {
+        String user = "emp" + (1 + rnd.nextInt(rows));
+        bh.consume(auth.loginEmployee(user, DataGenerator.PASSWORD));
+        auth.logout(user);
+    }
+
+    private String sku() { return String.valueOf(1001 + rnd.nextInt(skus)); }
+}
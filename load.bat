@@ -0,0 +1,23 @@
+@echo off
+setlocal EnableExtensions
+chcp 65001 >nul
+cd /d "%~dp0"
+
+REM Usage: load.bat [--cashiers N] [--duration S] [--think MS] [--mix LIST=30,SELL_MULTI=50,SELL=10,BUY=10]
+REM        [--rows N] [--host H --port P] [--out results.json]
+REM Without --port a StoreServer is started in-process on a throwaway data directory.
+
+echo [Load] Compiling...
+if not exist "out\bench" mkdir "out\bench"
+dir /s /b "src\*.java" "bench\*.java" > "out\bench-sources.txt" 2>nul
+
+javac -encoding UTF-8 -d "out\bench" @"out\bench-sources.txt"
+if errorlevel 1 (
+  echo [Load] Compile FAILED.
+  pause & exit /b 1
+)
+
+java -cp "out\bench" benchmarks.LoadGenerator %*
+
+pause
+exit /b 0
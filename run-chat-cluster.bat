@@ -0,0 +1,8 @@
+@echo off
+cd /d "%~dp0"
+REM Two ChatServer nodes on this machine: A (6060) owns HOLON, B (6061) owns TEL_AVIV and RISHON.
+REM Clients still connect to 6060; a TEL_AVIV/RISHON user is redirected to 6061.
+set NODES=-Dchat.nodes=A=127.0.0.1:6060:7060,B=127.0.0.1:6061:7061 -Dchat.branches=HOLON=A,TEL_AVIV=B,RISHON=B
+echo [Chat] starting node A on 6060 (link 7060) and node B on 6061 (link 7061)...
+start "Chat node A" java %NODES% -Dchat.node=A -Dchat.logDir=logs\chat-A -cp out server.app.ChatServer 6060
+start "Chat node B" java %NODES% -Dchat.node=B -Dchat.logDir=logs\chat-B -cp out server.app.ChatServer 6061
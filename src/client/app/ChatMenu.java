@@ -17,7 +17,10 @@ public class ChatMenu {
             Thread reader = new Thread(() -> {
                 try {
                     String line;
-                    while ((line = br.readLine()) != null) System.out.println("Peer: " + line);
+                    while ((line = br.readLine()) != null) {
+                        if (line.equals("PING")) pw.println("PONG"); // server heartbeat
+                        else System.out.println("Peer: " + line);
+                    }
                 } catch (IOException ignored) {}
             });
             reader.setDaemon(true);
@@ -21,14 +21,17 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * Console client with numeric menus.
  * Connects to StoreServer (127.0.0.1:5050) and uses text protocol:
  *   LOGIN, LOGOUT, LIST, BUY, SELL, ADD_PRODUCT, REMOVE_PRODUCT,
- *   CUSTOMER_ADD, CUSTOMER_LIST, SELL_MULTI
- * Also supports ChatServer (127.0.0.1:6060) for chat.
+ *   CUSTOMER_ADD, CUSTOMER_LIST, SELL_MULTI, SALES_RANGE, SALES_REPORT, TOP_SKUS
+ * While connected it sends PING every client.heartbeatMs (default 30000) so the server can tell
+ * an idle terminal from a dead one; the PONG replies are skipped by the reader.
+ * Also supports ChatServer (127.0.0.1:6060) for chat; its PINGs are answered with PONG.
  */
 public class ClientConsole {
 
     private static final String HOST = "127.0.0.1";
     private static final int STORE_PORT = 5050;
     private static final int CHAT_PORT = 6060; // ChatServer should run here
+    private static final long HEARTBEAT_MS = Long.getLong("client.heartbeatMs", 30_000);
 
     private final Scanner in = new Scanner(System.in);
     private Socket socket;
@@ -72,8 +75,34 @@ public class ClientConsole {
     // -------------------- Store connection --------------------
     private void connectToStore() throws IOException {
         socket = new Socket(HOST, STORE_PORT);
-        reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        socket.setKeepAlive(true);
+        reader = new BufferedReader(new InputStreamReader(socket.getInputStream())) {
+            // heartbeat replies can land in front of any response; the menus never see them
+            @Override public String readLine() throws IOException {
+                String line;
+                while ((line = super.readLine()) != null && line.equals("PONG")) { }
+                return line;
+            }
+        };
         writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true);
+        startHeartbeat(socket, writer);
+    }
+
+    /** PING the store server until the socket closes; println is atomic, so it can't split a command. */
+    private static void startHeartbeat(Socket s, PrintWriter w) {
+        if (HEARTBEAT_MS <= 0) return;
+        Thread t = new Thread(() -> {
+            try {
+                while (!s.isClosed()) {
+                    Thread.sleep(HEARTBEAT_MS);
+                    w.println("PING");
+                    if (w.checkError()) return;
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }, "store-heartbeat");
+        t.setDaemon(true);
+        t.start();
     }
 
     private void safeCloseStore() {
@@ -116,6 +145,8 @@ public class ClientConsole {
 
                 if (resp != null && resp.equals("ERR LOGIN ALREADY_CONNECTED")) {
                     System.out.println("Already connected. Please logout from other sessions first.");
+                } else if (resp != null && resp.equals("ERR LOGIN BUSY")) {
+                    System.out.println("Server is busy. Please try again in a moment.");
                 } else {
                     System.out.println("Invalid credentials. Please try again.");
                 }
@@ -148,6 +179,8 @@ public class ClientConsole {
             System.out.println("4) List employees");
             System.out.println("5) Delete employee by ID");
             System.out.println("6) Logs & Reports");
+            System.out.println("7) Sales by branch & dates");
+            System.out.println("8) Sales totals (by category / day / type)");
             System.out.println("0) Logout");
             System.out.print("Choice: ");
             String c = in.nextLine().trim();
@@ -175,6 +208,12 @@ public class ClientConsole {
                 case "6":
                     adminLogsMenu();
                     break;
+                case "7":
+                    doSalesRange();
+                    break;
+                case "8":
+                    doSalesReport();
+                    break;
                 default:
                     System.out.println("Invalid choice.");
             }
@@ -347,6 +386,8 @@ public class ClientConsole {
             System.out.println("3) List inventory (my branch)");
             System.out.println("4) Customers");
             System.out.println("5) Chat");
+            boolean manager = "SHIFT_MANAGER".equalsIgnoreCase(employeeRole);
+            if (manager) System.out.println("6) Best sellers (my branch)");
             System.out.println("0) Logout");
             System.out.print("Choice: ");
             String c = in.nextLine().trim();
@@ -361,11 +402,45 @@ public class ClientConsole {
                 case "3" -> doList(employeeBranch);
                 case "4" -> customersMenu();
                 case "5" -> startChatClient();
+                case "6" -> {
+                    if (manager) doTopSkus(employeeBranch);
+                    else System.out.println("Invalid choice.");
+                }
                 default -> System.out.println("Invalid choice.");
             }
         }
     }
 
+    private void doTopSkus(Branch branch) throws IOException {
+        System.out.print("Window (e.g. 30m, 1h, 8h, 1d) [1h]: ");
+        String window = in.nextLine().trim();
+        writer.println("TOP_SKUS " + branch.name() + " " + (window.isEmpty() ? "1h" : window));
+        java.util.List<String> rows = new java.util.ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if ("OK END".equals(line)) break;
+            if (line.startsWith("ERR")) { System.out.println(line.replace('_', ' ')); return; }
+            if (line.startsWith("TOP ")) rows.add(line.substring(4));
+        }
+        if (rows.isEmpty()) {
+            System.out.println("No sales in that window.");
+            return;
+        }
+        System.out.println("\n" + "=".repeat(50));
+        System.out.println("          BEST SELLERS - " + branch.name() + " (" + (window.isEmpty() ? "1h" : window) + ")");
+        System.out.println("=".repeat(50));
+        System.out.printf("%-5s %-8s %-20s %-8s%n", "#", "SKU", "Category", "Units");
+        System.out.println("-".repeat(50));
+        for (String row : rows) {
+            String[] p = row.split(",");
+            if (p.length >= 5) {
+                String units = "0".equals(p[4]) ? p[3] : "~" + p[3]; // approximate when the sketch may overcount
+                System.out.printf("%-5s %-8s %-20s %-8s%n", p[0], p[1], p[2].replace('_', ' '), units);
+            }
+        }
+        System.out.println("=".repeat(50) + "\n");
+    }
+
     // -------------------- Customers submenu --------------------
     private void customersMenu() throws IOException {
         while (true) {
@@ -452,6 +527,91 @@ public class ClientConsole {
         System.out.println("=".repeat(75) + "\n");
     }
 
+    private void doSalesRange() throws IOException {
+        System.out.print("Branch (HOLON/TEL_AVIV/RISHON or ALL): ");
+        String branch = in.nextLine().trim().toUpperCase();
+        System.out.print("From (yyyy-MM-dd or yyyy-MM-ddTHH:mm): ");
+        String from = in.nextLine().trim();
+        System.out.print("To, inclusive day (yyyy-MM-dd or yyyy-MM-ddTHH:mm): ");
+        String to = in.nextLine().trim();
+
+        writer.println("SALES_RANGE " + (branch.isEmpty() ? "ALL" : branch) + " " + from + " " + to);
+        java.util.List<String> rows = new java.util.ArrayList<>();
+        String total = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if ("OK END".equals(line)) break;
+            if (line.startsWith("ERR")) { System.out.println(line.replace('_', ' ')); return; }
+            if (line.startsWith("SALE ")) rows.add(line.substring(5));
+            else if (line.startsWith("SALES_TOTAL ")) total = line.substring(12);
+        }
+        displaySalesRangeTable(rows, total);
+    }
+
+    private void displaySalesRangeTable(java.util.List<String> rows, String total) {
+        System.out.println("\n" + "=".repeat(96));
+        System.out.println("                                      SALES REPORT");
+        System.out.println("=".repeat(96));
+        System.out.printf("%-8s %-20s %-10s %-12s %-10s %-6s %-10s %-10s %-6s%n",
+                "Sale", "Time", "Branch", "Customer", "Type", "Lines", "Discount", "Total", "Gift");
+        System.out.println("-".repeat(96));
+        for (String row : rows) {
+            String[] p = row.split(",");
+            if (p.length >= 10) {
+                System.out.printf("%-8s %-20s %-10s %-12s %-10s %-6s %-10s %-10s %-6s%n",
+                        p[0], p[1].replace('T', ' '), p[2], p[3], p[4], p[5], p[7], p[8], "1".equals(p[9]) ? "yes" : "");
+            }
+        }
+        System.out.println("-".repeat(96));
+        if (total != null) {
+            String[] p = total.split(",");
+            System.out.println("Sales: " + p[0] + "   Items: " + p[1] + "   Revenue: " + p[2] + "   Discounts: " + p[3]
+                    + (rows.size() < Long.parseLong(p[0]) ? "   (showing first " + rows.size() + ")" : ""));
+        }
+        System.out.println("=".repeat(96) + "\n");
+    }
+
+    private void doSalesReport() throws IOException {
+        System.out.print("Branch (HOLON/TEL_AVIV/RISHON or ALL): ");
+        String branch = in.nextLine().trim().toUpperCase();
+        System.out.print("From day (yyyy-MM-dd): ");
+        String from = in.nextLine().trim();
+        System.out.print("To day, inclusive (yyyy-MM-dd): ");
+        String to = in.nextLine().trim();
+        System.out.print("Group by (any of branch,day,category,type) [category]: ");
+        String by = in.nextLine().trim().replace(" ", "");
+
+        writer.println("SALES_REPORT " + (branch.isEmpty() ? "ALL" : branch) + " " + from + " " + to
+                + (by.isEmpty() ? "" : " " + by));
+        java.util.List<String> rows = new java.util.ArrayList<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if ("OK END".equals(line)) break;
+            if (line.startsWith("ERR")) { System.out.println(line.replace('_', ' ')); return; }
+            if (line.startsWith("ROW ")) rows.add(line.substring(4));
+        }
+        displaySalesReportTable(rows);
+    }
+
+    private void displaySalesReportTable(java.util.List<String> rows) {
+        System.out.println("\n" + "=".repeat(92));
+        System.out.println("                                   SALES TOTALS");
+        System.out.println("=".repeat(92));
+        System.out.printf("%-10s %-11s %-16s %-10s %-12s %-7s %-11s %-6s%n",
+                "Branch", "Day", "Category", "Type", "Revenue", "Units", "Discounts", "Gifts");
+        System.out.println("-".repeat(92));
+        for (String row : rows) {
+            String[] p = row.split(",");
+            if (p.length >= 8) {
+                System.out.printf("%-10s %-11s %-16s %-10s %-12s %-7s %-11s %-6s%n",
+                        p[0], p[1], p[2], p[3], p[4], p[5], p[6], p[7]);
+            }
+        }
+        System.out.println("-".repeat(92));
+        System.out.println("Groups: " + rows.size() + "   (* = all)");
+        System.out.println("=".repeat(92) + "\n");
+    }
+
     private void displaySaleSummary(String customerType, String basePrice, String discount, String finalPrice) {
         System.out.println("\n" + "=".repeat(50));
         System.out.println("                    SALE SUMMARY");
@@ -496,9 +656,23 @@ public class ClientConsole {
     // -------------------- Chat client (pretty output) --------------------
     private void startChatClient() {
         System.out.println("\n=== Chat ===");
-        System.out.println("Connecting to chat server on port " + CHAT_PORT + " ...");
+        String host = HOST;
+        int port = CHAT_PORT;
+        // a clustered chat server answers ERR WRONG_NODE <host:port> when another node owns our branch
+        for (int hop = 0; hop < 3; hop++) {
+            System.out.println("Connecting to chat server on port " + port + " ...");
+            String redirect = chatSession(host, port);
+            if (redirect == null) return;
+            int colon = redirect.lastIndexOf(':');
+            host = redirect.substring(0, colon);
+            port = Integer.parseInt(redirect.substring(colon + 1));
+        }
+        System.out.println("Chat servers keep redirecting; giving up.");
+    }
 
-        try (Socket chat = new Socket(HOST, CHAT_PORT);
+    /** Runs one chat connection; returns the node to reconnect to if this one is the wrong node. */
+    private String chatSession(String host, int port) {
+        try (Socket chat = new Socket(host, port);
              BufferedReader chatIn = new BufferedReader(new InputStreamReader(chat.getInputStream()));
              PrintWriter chatOut = new PrintWriter(new OutputStreamWriter(chat.getOutputStream()), true)) {
 
@@ -506,9 +680,12 @@ public class ClientConsole {
             String myBranch = (employeeBranch == null ? Branch.HOLON.name() : employeeBranch.name());
             chatOut.println("HELLO " + loggedUsername + " " + myRole + " " + myBranch);
             String hello = chatIn.readLine();
+            if (hello != null && hello.startsWith("ERR WRONG_NODE ")) {
+                return hello.substring("ERR WRONG_NODE ".length()).trim();
+            }
             if (hello == null || !hello.startsWith("OK HELLO")) {
                 System.out.println(hello == null ? "No response" : hello);
-                return;
+                return null;
             }
 
             final Map<String, String> incoming = new ConcurrentHashMap<>();
@@ -518,13 +695,18 @@ public class ClientConsole {
                 try {
                     String line;
                     while ((line = chatIn.readLine()) != null) {
+                        if (line.equals("PING")) {
+                            chatOut.println("PONG");
+                            continue;
+                        }
                         if (line.startsWith("INCOMING_REQUEST ")) {
                             String[] p = line.split(" ");
                             if (p.length >= 4) {
                                 String id = p[1], fromUser = p[2], fromBranch = p[3];
                                 incoming.put(id, fromUser + "@" + fromBranch);
                             }
-                        } else if (line.startsWith("REQUEST_TAKEN ") || line.startsWith("REQUEST_CANCELLED ")) {
+                        } else if (line.startsWith("REQUEST_TAKEN ") || line.startsWith("REQUEST_CANCELLED ")
+                                || line.startsWith("REQUEST_EXPIRED ")) {
                             String[] p = line.split(" ");
                             if (p.length >= 2) incoming.remove(p[1]);
                         } else if (line.startsWith("PAIRED ")) {
@@ -625,6 +807,7 @@ public class ClientConsole {
         } catch (IOException e) {
             System.out.println("Chat error: " + e.getMessage());
         }
+        return null;
     }
 
     /**
@@ -672,6 +855,10 @@ public class ClientConsole {
             System.out.println("⚠️ Request " + line.substring("REQUEST_CANCELLED ".length()) + " was cancelled.");
             return;
         }
+        if (line.startsWith("REQUEST_EXPIRED ")) {
+            System.out.println("⚠️ Request " + line.substring("REQUEST_EXPIRED ".length()) + " expired with no answer.");
+            return;
+        }
 
         if (line.startsWith("MANAGER_JOINED ")) {
             System.out.println("👑 Manager " + line.substring("MANAGER_JOINED ".length()) + " joined the chat.");
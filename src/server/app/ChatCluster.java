@@ -0,0 +1,240 @@
+package server.app;
+
+import server.shared.Branch;
+import server.util.ChatLogger;
+import server.util.Loggers;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Clustered ChatServer layout: which node owns which branch, and the node-to-node links.
+ *
+ * Configured with system properties (the same on every node except chat.node):
+ *   chat.node      this node's name
+ *   chat.nodes     name=host:clientPort:linkPort,...     e.g. A=127.0.0.1:6060:7060,B=127.0.0.1:6061:7061
+ *   chat.branches  branch=name,...                        e.g. HOLON=A,TEL_AVIV=B,RISHON=B
+ *   chat.linkSecret  optional; when set, a peer must present it in its NODE line
+ * Every branch must be owned by exactly one node. A session connects to the node that owns its
+ * branch; the others answer HELLO with ERR WRONG_NODE host:port.
+ *
+ * Links are plain line-oriented TCP. The link port is bound to this node's own host only, and an
+ * incoming link is dropped unless it comes from the address of the node it claims to be (and
+ * carries chat.linkSecret, if set): a link line can DELIVER to any session, so nothing else may
+ * open one. Each node listens on its link port, and sends to a peer over
+ * its own outgoing connection to that peer. A single queue and writer thread per peer keep the
+ * lines to that peer in order, and a chat thread never waits for the network. The writer
+ * reconnects every second while the peer is down; lines queued in the meantime are sent once it
+ * is back, but a line the dead connection had already taken is lost.
+ */
+final class ChatCluster {
+
+    private static final int MAX_QUEUED = 100_000;
+    private static final long RECONNECT_MS = 1000;
+
+    /** Another node and the outgoing half of the link to it. */
+    static final class Node {
+        final String name;
+        final String host;
+        final int clientPort;
+        final int linkPort;
+        private final BlockingQueue<String> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+
+        Node(String name, String host, int clientPort, int linkPort) {
+            this.name = name;
+            this.host = host;
+            this.clientPort = clientPort;
+            this.linkPort = linkPort;
+        }
+
+        /** Queues a link line; never blocks (a full queue means the peer has been down for long). */
+        void send(String line) {
+            if (!queue.offer(line)) ChatLogger.logWarning("Cluster", "Link queue to " + name + " full, dropping: " + line);
+        }
+
+        String clientAddress() { return host + ":" + clientPort; }
+
+        @Override public String toString() { return name; }
+    }
+
+    private final Node self;
+    private final byte[] secret; // null: no secret configured
+    private volatile Consumer<Node> onDown = n -> { };
+    private final Map<String, Node> nodes = new HashMap<>();
+    private final Map<Branch, Node> owner = new EnumMap<>(Branch.class);
+
+    private ChatCluster(String selfName, String nodesSpec, String branchesSpec, String secret) {
+        this.secret = (secret == null || secret.isEmpty()) ? null : secret.getBytes(StandardCharsets.UTF_8);
+        for (String part : nodesSpec.split(",")) {
+            String[] kv = part.trim().split("=", 2);
+            String[] addr = kv[1].trim().split(":");
+            nodes.put(kv[0].trim(), new Node(kv[0].trim(), addr[0], Integer.parseInt(addr[1]), Integer.parseInt(addr[2])));
+        }
+        this.self = nodes.get(selfName);
+        if (self == null) throw new IllegalArgumentException("chat.node " + selfName + " is not in chat.nodes");
+        for (String part : branchesSpec.split(",")) {
+            String[] kv = part.trim().split("=", 2);
+            Node n = nodes.get(kv[1].trim());
+            if (n == null) throw new IllegalArgumentException("Branch " + kv[0] + " owned by unknown node " + kv[1]);
+            owner.put(Branch.valueOf(kv[0].trim().toUpperCase()), n);
+        }
+        for (Branch b : Branch.values()) {
+            if (!owner.containsKey(b)) throw new IllegalArgumentException("No node owns branch " + b);
+        }
+    }
+
+    /** The cluster described by the chat.* properties, or null when running as a single server. */
+    static ChatCluster fromSystemProperties() {
+        String nodesSpec = System.getProperty("chat.nodes");
+        if (nodesSpec == null || nodesSpec.isBlank()) return null;
+        return new ChatCluster(System.getProperty("chat.node", ""), nodesSpec, System.getProperty("chat.branches", ""),
+                System.getProperty("chat.linkSecret"));
+    }
+
+    boolean owns(Branch b) { return owner.get(b) == self; }
+
+    Node ownerOf(Branch b) { return owner.get(b); }
+
+    /** Peers owning at least one branch that passes the filter (never this node). */
+    Set<Node> peersOwning(Predicate<Branch> filter) {
+        Set<Node> out = new LinkedHashSet<>();
+        for (Map.Entry<Branch, Node> e : owner.entrySet()) {
+            if (e.getValue() != self && filter.test(e.getKey())) out.add(e.getValue());
+        }
+        return out;
+    }
+
+    /**
+     * Starts the link listener and one writer per peer. Each line a peer sends is handed to
+     * onLine together with the peer's Node, on that peer's reader thread, in the order sent.
+     * onDown gets the peer whenever a link to or from it breaks: lines in flight may be lost.
+     */
+    void start(BiConsumer<Node, String> onLine, Consumer<Node> onDown) throws IOException {
+        this.onDown = onDown;
+        ServerSocket ss = new ServerSocket();
+        ss.bind(new InetSocketAddress(InetAddress.getByName(self.host), self.linkPort));
+        Thread acceptor = new Thread(() -> acceptLinks(ss, onLine), "chat-link-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (Node n : nodes.values()) {
+            if (n == self) continue;
+            Thread w = new Thread(() -> writeLoop(n), "chat-link-to-" + n.name);
+            w.setDaemon(true);
+            w.start();
+        }
+        Loggers.chat().info("Cluster node " + self.name + " owns " + ownedBranches() + ", link port " + self.linkPort);
+    }
+
+    private String ownedBranches() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Branch, Node> e : owner.entrySet()) {
+            if (e.getValue() == self) sb.append(sb.length() == 0 ? "" : ",").append(e.getKey());
+        }
+        return sb.toString();
+    }
+
+    private void acceptLinks(ServerSocket ss, BiConsumer<Node, String> onLine) {
+        while (true) {
+            try {
+                Socket s = ss.accept();
+                Thread r = new Thread(() -> readLink(s, onLine), "chat-link-from");
+                r.setDaemon(true);
+                r.start();
+            } catch (IOException e) {
+                ChatLogger.logError("Cluster", "Link listener failed: " + e.getMessage(), e);
+                return;
+            }
+        }
+    }
+
+    private void readLink(Socket s, BiConsumer<Node, String> onLine) {
+        Node from = null;
+        try (s; BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), EncodedLine.CHARSET))) {
+            from = authenticate(s, in.readLine());
+            if (from == null) return;
+            Thread.currentThread().setName("chat-link-from-" + from.name);
+            for (String line; (line = in.readLine()) != null; ) {
+                try {
+                    onLine.accept(from, line);
+                } catch (RuntimeException e) {
+                    ChatLogger.logError("Cluster", "Bad link line from " + from.name + ": " + line, e);
+                }
+            }
+        } catch (IOException ignored) {
+        }
+        if (from != null) {
+            ChatLogger.logWarning("Cluster", "Link from " + from.name + " closed");
+            onDown.accept(from);
+        }
+    }
+
+    /** The peer a link's first line ("NODE name [secret]") proves it is, or null to drop it. */
+    private Node authenticate(Socket s, String hello) {
+        String[] t = (hello == null) ? new String[0] : hello.trim().split(" ");
+        Node from = (t.length >= 2 && t[0].equals("NODE")) ? nodes.get(t[1]) : null;
+        String reason = null;
+        if (from == null || from == self) reason = "not a peer";
+        else if (!fromHostOf(s, from)) reason = "not from " + from.host;
+        else if (secret != null && (t.length < 3 || !MessageDigest.isEqual(secret, t[2].getBytes(StandardCharsets.UTF_8)))) reason = "bad secret";
+        if (reason == null) return from;
+        ChatLogger.logWarning("Cluster", "Rejected link from " + s.getRemoteSocketAddress() + " (" + reason + ")");
+        return null;
+    }
+
+    private static boolean fromHostOf(Socket s, Node n) {
+        try {
+            for (InetAddress a : InetAddress.getAllByName(n.host)) {
+                if (a.equals(s.getInetAddress())) return true;
+            }
+        } catch (UnknownHostException ignored) {
+        }
+        return false;
+    }
+
+    private void writeLoop(Node n) {
+        while (true) {
+            boolean up = false;
+            // from our own host, so the peer's address check sees the address it has configured for us
+            try (Socket s = new Socket(n.host, n.linkPort, InetAddress.getByName(self.host), 0)) {
+                s.setTcpNoDelay(true);
+                s.setKeepAlive(true);
+                Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), EncodedLine.CHARSET));
+                out.write("NODE " + self.name + (secret == null ? "" : " " + new String(secret, StandardCharsets.UTF_8)) + "\n");
+                out.flush();
+                Loggers.chat().info("Cluster link to " + n.name + " up");
+                up = true;
+                while (true) {
+                    String line = n.queue.take();
+                    out.write(line);
+                    out.write('\n');
+                    // write whatever else is queued, then flush once
+                    for (String more; (more = n.queue.poll()) != null; ) {
+                        out.write(more);
+                        out.write('\n');
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                if (up) {
+                    ChatLogger.logWarning("Cluster", "Link to " + n.name + " broke: " + e.getMessage());
+                    onDown.accept(n);
+                }
+                try { Thread.sleep(RECONNECT_MS); } catch (InterruptedException ie) { return; }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
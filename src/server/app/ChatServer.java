@@ -2,6 +2,9 @@ package server.app;
 
 import server.shared.Branch;
 import server.util.ChatLogger;
+import server.util.IdleReaper;
+import server.util.ServerExecutors;
+import server.util.TimerWheel;
 
 import java.io.*;
 import java.net.ServerSocket;
@@ -9,6 +12,7 @@ import java.net.Socket;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * ChatServer (Java 8 compatible)
@@ -16,9 +20,21 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * - First ACCEPT wins; others get REQUEST_TAKEN.
  * - Shift Manager can LIST_CONVS + JOIN.
  * - Missed requests + CALLBACK.
+ * - Open requests expire after chat.request.ttlMs (REQUEST_EXPIRED); each user's missed list
+ *   keeps at most chat.missed.max entries for chat.missed.ttlMs each.
+ * - Heartbeat: a session silent for chat.pingAfterMs gets PING (clients answer PONG); one silent
+ *   for chat.idleTimeoutMs is treated as a dead peer and cleaned up as if it had disconnected.
  * - Prevent duplicate login per username.
- \ * Protocol:
+ * Transport: blocking thread-per-connection (default) or a single NIO selector thread
+ * (-Dchat.transport=nio, see NioChatTransport) - same protocol either way.
+ * Cluster: with -Dchat.nodes set (see ChatCluster) each node serves the branches it owns.
+ * A broadcast request is decided on the requester's node (so the first ACCEPT still wins) and
+ * mirrored to the nodes owning eligible branches. A conversation lives on the requester's node;
+ * a member connected elsewhere is a proxy Session there whose lines are relayed to its node.
+ * REQUEST_USER / CALLBACK / LIST_CONVS / JOIN only see this node.
+ * Protocol:
  *  HELLO <username> <role:SALESPERSON|CASHIER|SHIFT_MANAGER> <branch:HOLON|TEL_AVIV|RISHON>
+ *    (cluster: ERR WRONG_NODE <host:port> if another node owns the branch)
  *  REQUEST_ANY_OTHER_BRANCH
  *  REQUEST_BRANCH <branch>
  *  REQUEST_USER <username>
@@ -28,15 +44,68 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *  CALLBACK <username>
  *  MSG <text...>
  *  END
+ *  PING | PONG
  *  QUIT
  */
 public class ChatServer {
 
+    // ========= transport =========
+    /**
+     * Where a session's outgoing lines go (blocking socket writer or NIO connection).
+     * The same EncodedLine may be sent to many sessions at once; implementations only read it.
+     */
+    interface Outbound {
+        void send(EncodedLine line);
+        void close();
+
+        default void send(String line) { send(EncodedLine.of(line)); }
+
+        /** Closes without waiting for queued output to drain (the peer is gone). */
+        default void abort() { close(); }
+    }
+
+    private static final class SocketOutbound implements Outbound {
+        private final Socket sock;
+        private final OutputStream out;
+        private final ReentrantLock writeLock = new ReentrantLock(); // one line at a time on the socket
+
+        SocketOutbound(Socket sock) throws IOException {
+            this.sock = sock;
+            this.out = sock.getOutputStream();
+        }
+
+        @Override public void send(EncodedLine line) {
+            writeLock.lock();
+            try {
+                line.writeTo(out);
+            } catch (IOException ignored) {
+                // the reader side sees the broken socket and cleans the session up
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override public void close() { try { sock.close(); } catch (IOException ignored) {} }
+    }
+
+    /** A proxy's output: relayed to the node its user is connected to. */
+    private static final class LinkOutbound implements Outbound {
+        private final ChatCluster.Node node;
+        private final String username;
+
+        LinkOutbound(ChatCluster.Node node, String username) {
+            this.node = node;
+            this.username = username;
+        }
+
+        @Override public void send(String line) { node.send("DELIVER " + username + " " + line); }
+        @Override public void send(EncodedLine line) { send(line.toString()); }
+        @Override public void close() { }
+    }
+
     // ========= session =========
-    private static final class Session {
-        final Socket sock;
-        final BufferedReader in;
-        final PrintWriter out;
+    static final class Session {
+        final Outbound out;
 
         final String username;
         final String role;   // SALESPERSON/CASHIER/SHIFT_MANAGER
@@ -44,18 +113,32 @@ public class ChatServer {
 
         volatile boolean busy = false;
         volatile String conversationId = null;
+        IdleReaper.Handle idle; // set by openSession before any line is handled
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        // cluster only
+        final ChatCluster.Node link;          // non-null: proxy for a user connected to that node
+        volatile ChatCluster.Node convNode;   // non-null: in a conversation hosted by that node
+        // an ACCEPT forwarded to another node and not answered yet; cancel() claims the answer
+        volatile TimerWheel.Timeout pendingAccept;
+        volatile ChatCluster.Node pendingAcceptAt;
+        volatile String pendingAcceptId;
+
+        Session(Outbound out, String username, String role, Branch branch) {
+            this(out, username, role, branch, null);
+        }
 
-        Session(Socket s, String username, String role, Branch branch) throws IOException {
-            this.sock = s;
-            this.in = new BufferedReader(new InputStreamReader(s.getInputStream()));
-            this.out = new PrintWriter(new OutputStreamWriter(s.getOutputStream()), true);
+        Session(Outbound out, String username, String role, Branch branch, ChatCluster.Node link) {
+            this.out = out;
             this.username = username;
             this.role = role;
             this.branch = branch;
+            this.link = link;
         }
 
-        void send(String line) { out.println(line); }
-        void closeQuietly() { try { sock.close(); } catch (IOException ignored) {} }
+        void send(String line) { out.send(line); }
+        void send(EncodedLine line) { out.send(line); }
+        void closeQuietly() { out.close(); }
         boolean isManager() { return "SHIFT_MANAGER".equalsIgnoreCase(role); }
     }
 
@@ -63,11 +146,32 @@ public class ChatServer {
     private static final class Conversation {
         final String id = UUID.randomUUID().toString().substring(0, 8);
         final Set<Session> members = Collections.newSetFromMap(new ConcurrentHashMap<Session, Boolean>());
+        final ReentrantLock msgLock = new ReentrantLock(); // one MSG at a time: members and the log see the same order
 
-        void add(Session s) { members.add(s); s.conversationId = id; s.busy = true; }
-        void remove(Session s) { members.remove(s); s.conversationId = null; s.busy = false; }
+        void add(Session s) {
+            members.add(s); s.conversationId = id; s.busy = true;
+            if (s.link != null) s.link.send("JOINED " + s.username + " " + id);
+        }
+        void remove(Session s) {
+            boolean was = members.remove(s); s.conversationId = null; s.busy = false;
+            if (was && s.link != null) s.link.send("LEFT " + s.username + " " + id);
+        }
+        /**
+         * Removes s with a last line for it. A local session is free before it reads the line, so
+         * it can act on it at once; a proxy gets it before LEFT, after which its node drops lines.
+         */
+        void leave(Session s, String lastLine) {
+            if (s.link != null) s.send(lastLine);
+            remove(s);
+            if (s.link == null) s.send(lastLine);
+        }
+        Session member(String username) {
+            for (Session m : members) if (m.username.equals(username)) return m;
+            return null;
+        }
         void broadcast(String line) {
-            for (Session m : members) m.send(line);
+            EncodedLine encoded = EncodedLine.of(line); // once, however many members
+            for (Session m : members) m.send(encoded);
         }
         String participantsCsv() {
             StringBuilder sb = new StringBuilder();
@@ -83,36 +187,101 @@ public class ChatServer {
 
     // ========= broadcast request =========
     private static final class BroadcastRequest {
-        final String id = UUID.randomUUID().toString().substring(0, 8);
+        final String id;
         final String requester;
         final Branch requesterBranch;
         final Branch targetBranch; // null => any other branch
         final Set<Session> notified = Collections.newSetFromMap(new ConcurrentHashMap<Session, Boolean>());
         final AtomicBoolean taken = new AtomicBoolean(false);
         volatile boolean cancelled = false;
+        volatile TimerWheel.Timeout expiry;
+        final ChatCluster.Node home; // null: decided here; else a mirror of that node's request
+
+        final EncodedLine incomingLine; // the INCOMING_REQUEST line, encoded once for every candidate
 
         BroadcastRequest(String requester, Branch requesterBranch, Branch targetBranch) {
+            this(UUID.randomUUID().toString().substring(0, 8), requester, requesterBranch, targetBranch, null);
+        }
+
+        BroadcastRequest(String id, String requester, Branch requesterBranch, Branch targetBranch, ChatCluster.Node home) {
+            this.id = id;
             this.requester = requester;
             this.requesterBranch = requesterBranch;
             this.targetBranch = targetBranch;
+            this.home = home;
+            this.incomingLine = EncodedLine.of("INCOMING_REQUEST " + id + " " + requester + " " + requesterBranch);
         }
+
+        boolean eligible(Branch b) {
+            return targetBranch == null ? b != requesterBranch : b == targetBranch;
+        }
+    }
+
+    // ========= missed requests =========
+    /** REQUEST_USER attempts a user missed, oldest first; guarded by missedForUser's compute. */
+    private static final class MissedInbox {
+        final LinkedHashMap<String, TimerWheel.Timeout> from = new LinkedHashMap<String, TimerWheel.Timeout>();
     }
 
     // ========= state =========
+    private static final long REQUEST_TTL_MS = Long.getLong("chat.request.ttlMs", 5 * 60_000L);
+    // a mirror outlives its home request by this much, so the home's REQ_CLOSED normally gets there first
+    private static final long MIRROR_TTL_MARGIN_MS = Long.getLong("chat.cluster.mirrorMarginMs", 30_000L);
+    // how long an ACCEPT forwarded to the requester's node waits for JOINED / ACCEPT_FAIL
+    private static final long REMOTE_ACCEPT_TIMEOUT_MS = Long.getLong("chat.cluster.acceptTimeoutMs", 10_000L);
+    private static final int MISSED_MAX = Integer.getInteger("chat.missed.max", 20);
+    private static final long MISSED_TTL_MS = Long.getLong("chat.missed.ttlMs", 24 * 3_600_000L);
+
     private final int port;
-    private final ExecutorService pool = Executors.newCachedThreadPool();
+    private final ChatCluster cluster = ChatCluster.fromSystemProperties(); // null: single server
+    private final ExecutorService pool = ServerExecutors.forConnections("ChatServer");
+    private static final long IDLE_TIMEOUT_MS = Long.getLong("chat.idleTimeoutMs", 90_000);
+    private final IdleReaper reaper = new IdleReaper("ChatServer", Long.getLong("chat.pingAfterMs", 30_000), IDLE_TIMEOUT_MS);
 
     private final ConcurrentMap<String, Session> online = new ConcurrentHashMap<String, Session>();
     private final ConcurrentMap<String, Conversation> conversations = new ConcurrentHashMap<String, Conversation>();
     private final ConcurrentMap<Branch, Set<Session>> idleByBranch = new ConcurrentHashMap<Branch, Set<Session>>();
     private final ConcurrentMap<String, BroadcastRequest> openRequests = new ConcurrentHashMap<String, BroadcastRequest>();
-    private final ConcurrentMap<String, List<String>> missedForUser = new ConcurrentHashMap<String, List<String>>();
-
-    public ChatServer(int port) { this.port = port; }
+    // open requests indexed by the branch whose idle sessions may take them, and by requester;
+    // maintained only through addOpen/removeOpen
+    private final Map<Branch, Set<BroadcastRequest>> openForBranch = new EnumMap<Branch, Set<BroadcastRequest>>(Branch.class);
+    private final ConcurrentMap<String, Set<BroadcastRequest>> openByRequester = new ConcurrentHashMap<String, Set<BroadcastRequest>>();
+    private final ConcurrentMap<String, MissedInbox> missedForUser = new ConcurrentHashMap<String, MissedInbox>();
+    // request and missed-request expiry; one-second ticks are plenty for minute/day TTLs
+    private final TimerWheel expiry = new TimerWheel("chat-expiry", Long.getLong("chat.expiry.tickMs", 1000), 512);
+
+    public ChatServer(int port) {
+        this.port = port;
+        for (Branch b : Branch.values()) {
+            idleByBranch.put(b, ConcurrentHashMap.newKeySet());
+            openForBranch.put(b, ConcurrentHashMap.newKeySet());
+        }
+    }
 
     public void start() {
         System.out.println("ChatServer started on port " + port);
         ChatLogger.logServerStart(port);
+        if (cluster != null) {
+            try {
+                cluster.start(this::onLink, this::onLinkDown);
+            } catch (IOException e) {
+                System.err.println("ChatServer fatal: cluster link: " + e.getMessage());
+                ChatLogger.logError("Cluster", "Cannot open link port: " + e.getMessage(), e);
+                ChatLogger.logServerStop();
+                return;
+            }
+        }
+        if ("nio".equalsIgnoreCase(System.getProperty("chat.transport", "blocking"))) {
+            try {
+                new NioChatTransport(this, port).run();
+            } catch (IOException e) {
+                System.err.println("ChatServer fatal: " + e.getMessage());
+                ChatLogger.logError("Server", "Fatal server error: " + e.getMessage(), e);
+            } finally {
+                ChatLogger.logServerStop();
+            }
+            return;
+        }
         ServerSocket ss = null;
         try {
             ss = new ServerSocket(port);
@@ -134,39 +303,17 @@ public class ChatServer {
     private void serve(Socket sock) {
         Session session = null;
         try {
+            sock.setTcpNoDelay(true); // one write per line; Nagle would hold a reply back behind the client's delayed ACK
+            sock.setKeepAlive(true);
+            // a socket that never sends HELLO times out here (the NIO transport uses watchHandshake)
+            if (IDLE_TIMEOUT_MS > 0) sock.setSoTimeout((int) Math.min(Integer.MAX_VALUE, IDLE_TIMEOUT_MS));
             BufferedReader in = new BufferedReader(new InputStreamReader(sock.getInputStream()));
-            PrintWriter out = new PrintWriter(new OutputStreamWriter(sock.getOutputStream()), true);
-
-            String hello = in.readLine();
-            if (hello == null || !hello.startsWith("HELLO ")) { out.println("ERR HELLO_REQUIRED"); sock.close(); return; }
-            String[] t = hello.trim().split(" ");
-            if (t.length < 4) { out.println("ERR BAD_HELLO"); sock.close(); return; }
-
-            String username = t[1];
-            String role = t[2].toUpperCase();
-            Branch branch;
-            try {
-                branch = Branch.valueOf(t[3].toUpperCase());
-            } catch (Exception ex) { out.println("ERR BAD_BRANCH"); sock.close(); return; }
-
-            Session newSession = new Session(sock, username, role, branch);
-            Session old = online.putIfAbsent(username, newSession);
-            if (old != null) { 
-                ChatLogger.logWarning("Connection", "Duplicate login attempt from " + username);
-                out.println("ERR DUPLICATE_LOGIN"); 
-                sock.close(); 
-                return; 
-            }
-            session = newSession;
-            session.send("OK HELLO");
-            ChatLogger.logUserConnected(username, role, branch);
-
-            markIdle(session);
-            deliverOpenRequestsToIdle(session);
-            flushMissed(session);
+            session = openSession(in.readLine(), new SocketOutbound(sock), null);
+            if (session == null) { sock.close(); return; }
+            sock.setSoTimeout(0);
 
             String line;
-            while ((line = session.in.readLine()) != null) {
+            while ((line = in.readLine()) != null) {
                 if (line.trim().isEmpty()) continue;
                 handle(session, line);
             }
@@ -177,7 +324,64 @@ public class ChatServer {
         }
     }
 
-    private void handle(Session s, String line) {
+    /**
+     * Watches a connection that has not sent HELLO yet, for transports without a read timeout
+     * (NIO): if openSession has not taken the handle over within chat.idleTimeoutMs of the accept,
+     * the connection is aborted. Bytes before HELLO do not extend the deadline.
+     */
+    IdleReaper.Handle watchHandshake(Outbound out, String remote) {
+        return reaper.register(new IdleReaper.Peer() {
+            @Override public void ping() {}
+            @Override public void reap() {
+                ChatLogger.logWarning("Connection", "No HELLO from " + remote + ", closing");
+                out.abort();
+            }
+            @Override public String describe() { return remote; }
+        });
+    }
+
+    /**
+     * Validates the HELLO line and registers the session (transport-independent).
+     * Takes over handshake (from watchHandshake, or null): from here on the session's own
+     * heartbeat watches the connection. Returns null after replying ERR ... if the connection
+     * must be closed.
+     */
+    Session openSession(String hello, Outbound out, IdleReaper.Handle handshake) {
+        if (handshake != null) handshake.unregister();
+        if (hello == null || !hello.startsWith("HELLO ")) { out.send("ERR HELLO_REQUIRED"); return null; }
+        String[] t = hello.trim().split(" ");
+        if (t.length < 4) { out.send("ERR BAD_HELLO"); return null; }
+
+        String username = t[1];
+        String role = t[2].toUpperCase();
+        Branch branch;
+        try {
+            branch = Branch.valueOf(t[3].toUpperCase());
+        } catch (Exception ex) { out.send("ERR BAD_BRANCH"); return null; }
+        if (cluster != null && !cluster.owns(branch)) {
+            out.send("ERR WRONG_NODE " + cluster.ownerOf(branch).clientAddress());
+            return null;
+        }
+
+        Session session = new Session(out, username, role, branch);
+        Session old = online.putIfAbsent(username, session);
+        if (old != null) { 
+            ChatLogger.logWarning("Connection", "Duplicate login attempt from " + username);
+            out.send("ERR DUPLICATE_LOGIN"); 
+            return null; 
+        }
+        session.idle = reaper.register(heartbeat(session));
+        session.send("OK HELLO");
+        ChatLogger.logUserConnected(username, role, branch);
+
+        markIdle(session);
+        deliverOpenRequestsToIdle(session);
+        flushMissed(session);
+        return session;
+    }
+
+    void handle(Session s, String line) {
+        s.idle.touch();
         try {
             String[] t = line.trim().split(" ", 2);
             String cmd = t[0].toUpperCase();
@@ -193,6 +397,8 @@ public class ChatServer {
                 case "CALLBACK" -> doCallback(s, rest);
                 case "MSG" -> doMsg(s, rest);
                 case "END" -> endConversation(s);
+                case "PING" -> s.send("PONG");
+                case "PONG" -> { } // answer to our PING; touch() above already counted it
                 case "QUIT" -> {
                     s.send("BYE");
                     closeAndCleanup(s);
@@ -209,16 +415,15 @@ public class ChatServer {
     private void requestAnyOtherBranch(Session s) {
         ensureNotBusy(s);
         BroadcastRequest br = new BroadcastRequest(s.username, s.branch, null);
-        openRequests.put(br.id, br);
+        addOpen(br);
 
-        for (Map.Entry<Branch, Set<Session>> e : idleByBranch.entrySet()) {
-            Branch b = e.getKey();
+        for (Branch b : Branch.values()) {
             if (b == s.branch) continue;
-            Set<Session> set = e.getValue();
-            for (Session cand : set) {
+            for (Session cand : idleByBranch.get(b)) {
                 if (!cand.busy) notifyIncoming(br, cand);
             }
         }
+        relayOpen(br);
         s.send("INFO REQUEST_BROADCASTED " + br.id);
         
         // Log request creation
@@ -234,12 +439,10 @@ public class ChatServer {
         if (target == s.branch) s.send("INFO TIP_SELECT_OTHER_BRANCH");
 
         BroadcastRequest br = new BroadcastRequest(s.username, s.branch, target);
-        openRequests.put(br.id, br);
+        addOpen(br);
 
-        Set<Session> set = idleByBranch.get(target);
-        if (set != null) {
-            for (Session cand : set) if (!cand.busy) notifyIncoming(br, cand);
-        }
+        for (Session cand : idleByBranch.get(target)) if (!cand.busy) notifyIncoming(br, cand);
+        relayOpen(br);
         s.send("INFO REQUEST_BROADCASTED " + br.id);
     }
 
@@ -251,13 +454,7 @@ public class ChatServer {
         if (peer != null && !peer.busy && !peer.username.equals(s.username)) {
             startConversation(s, peer);
         } else {
-            // mark as missed for that user
-            List<String> list = missedForUser.get(user);
-            if (list == null) {
-                list = new CopyOnWriteArrayList<String>();
-                missedForUser.put(user, list);
-            }
-            if (!list.contains(s.username)) list.add(s.username);
+            addMissed(user, s.username);
             s.send("INFO USER_BUSY_OR_OFFLINE");
         }
     }
@@ -270,8 +467,18 @@ public class ChatServer {
         if (br == null || br.cancelled) { s.send("ERR NO_SUCH_REQUEST"); return; }
         if (br.taken.get()) { s.send("ERR REQUEST_ALREADY_TAKEN"); return; }
 
-        boolean eligible = (br.targetBranch == null) ? (s.branch != br.requesterBranch) : (s.branch == br.targetBranch);
-        if (!eligible) { s.send("ERR NOT_ELIGIBLE_FOR_THIS_REQUEST"); return; }
+        if (!br.eligible(s.branch)) { s.send("ERR NOT_ELIGIBLE_FOR_THIS_REQUEST"); return; }
+
+        if (br.home != null) {
+            // only the requester's node can pick the winner; JOINED or ACCEPT_FAIL comes back
+            s.busy = true;
+            unmarkIdle(s);
+            s.pendingAcceptAt = br.home;
+            s.pendingAcceptId = br.id;
+            s.pendingAccept = expiry.schedule(() -> acceptUnanswered(s, "ACCEPT_TIMED_OUT"), REMOTE_ACCEPT_TIMEOUT_MS);
+            br.home.send("ACCEPT " + br.id + " " + s.username + " " + s.role + " " + s.branch);
+            return;
+        }
 
         Session requester = online.get(br.requester);
         if (requester == null || requester.busy) {
@@ -281,9 +488,18 @@ public class ChatServer {
         }
 
         if (!br.taken.compareAndSet(false, true)) { s.send("ERR REQUEST_ALREADY_TAKEN"); return; }
-        startConversation(requester, s);
+        try {
+            startConversation(requester, s);
+        } catch (IllegalStateException e) { // requester or acceptor paired up in the meantime
+            cancelRequest(br); // taken is set, so expireRequest would never remove it
+            if (!requester.busy) requester.send("REQUEST_CANCELLED " + br.id);
+            if (s.busy) throw e;
+            s.send("ERR REQUESTER_NOT_AVAILABLE");
+            return;
+        }
         notifyRequestTaken(br, s);
-        openRequests.remove(br.id);
+        relayClosed(br, "TAKEN", s.username);
+        removeOpen(br);
         
         // Log request acceptance
         ChatLogger.logRequestAccepted(br.id, br.requester, s.username, br.requesterBranch, s.branch);
@@ -322,8 +538,11 @@ public class ChatServer {
         Session peer = online.get(target);
         if (peer != null && !peer.busy && !peer.username.equals(s.username)) {
             startConversation(s, peer);
-            List<String> list = missedForUser.get(s.username);
-            if (list != null) list.remove(target);
+            missedForUser.computeIfPresent(s.username, (u, inbox) -> {
+                TimerWheel.Timeout t = inbox.from.remove(target);
+                if (t != null) t.cancel();
+                return inbox.from.isEmpty() ? null : inbox;
+            });
         } else {
             s.send("INFO TARGET_NOT_AVAILABLE");
         }
@@ -331,30 +550,37 @@ public class ChatServer {
 
     private void doMsg(Session s, String text) {
         if (s.conversationId == null) { s.send("ERR NOT_IN_CONVERSATION"); return; }
+        ChatCluster.Node host = s.convNode;
+        if (host != null) { host.send("MSG " + s.conversationId + " " + s.username + " " + text); return; }
         Conversation c = conversations.get(s.conversationId);
         if (c == null) { s.send("ERR CONVERSATION_ENDED"); return; }
-        c.broadcast("MSG from " + s.username + " : " + text);
-        
-        // Log the message
-        ChatLogger.logMessage(s.conversationId, s.username, text);
+        c.msgLock.lock();
+        try {
+            c.broadcast("MSG from " + s.username + " : " + text);
+
+            // Log the message
+            ChatLogger.logMessage(c.id, s.username, text);
+        } finally {
+            c.msgLock.unlock();
+        }
     }
 
     private void endConversation(Session s) {
         if (s.conversationId == null) { s.send("INFO NOT_IN_CONVERSATION"); return; }
+        ChatCluster.Node host = s.convNode;
+        if (host != null) { host.send("END " + s.conversationId + " " + s.username); return; } // LEFT comes back
         Conversation c = conversations.get(s.conversationId);
         if (c == null) {
             s.busy = false; s.conversationId = null; markIdle(s); deliverOpenRequestsToIdle(s); return;
         }
 
-        c.remove(s);
-        s.send("INFO LEFT_CONVERSATION");
+        c.leave(s, "INFO LEFT_CONVERSATION");
 
         if (c.members.size() < 2) {
             // end for all
             List<Session> copy = new ArrayList<Session>(c.members);
             for (Session m : copy) {
-                c.remove(m);
-                m.send("INFO CONVERSATION_ENDED");
+                c.leave(m, "INFO CONVERSATION_ENDED");
                 markIdle(m);
                 deliverOpenRequestsToIdle(m);
             }
@@ -394,103 +620,349 @@ public class ChatServer {
         if (cand.username.equals(br.requester)) return;
         if (br.taken.get() || br.cancelled) return;
         if (br.targetBranch == null && cand.branch == br.requesterBranch) return;
-        br.notified.add(cand);
-        cand.send("INCOMING_REQUEST " + br.id + " " + br.requester + " " + br.requesterBranch);
+        // a session going idle while the request fans out can be reached from both sides
+        if (!br.notified.add(cand)) return;
+        cand.send(br.incomingLine);
     }
 
     private void notifyRequestTaken(BroadcastRequest br, Session acceptor) {
+        EncodedLine taken = EncodedLine.of("REQUEST_TAKEN " + br.id);
         for (Session s : br.notified) {
-            if (s != acceptor) s.send("REQUEST_TAKEN " + br.id);
+            if (s != acceptor) s.send(taken);
         }
         br.notified.clear();
     }
 
     private void cancelRequest(BroadcastRequest br) {
         br.cancelled = true;
-        for (Session s : br.notified) s.send("REQUEST_CANCELLED " + br.id);
+        EncodedLine cancelled = EncodedLine.of("REQUEST_CANCELLED " + br.id);
+        for (Session s : br.notified) s.send(cancelled);
         br.notified.clear();
-        openRequests.remove(br.id);
+        relayClosed(br, "CANCELLED", null);
+        removeOpen(br);
         
         // Log request cancellation
         ChatLogger.logRequestCancelled(br.id, br.requester, br.requesterBranch, "Request cancelled");
     }
 
+    /** Timer task: nobody accepted br within chat.request.ttlMs. */
+    private void expireRequest(BroadcastRequest br) {
+        // taken doubles as the claim, so an ACCEPT racing the expiry gets REQUEST_ALREADY_TAKEN
+        if (br.cancelled || !br.taken.compareAndSet(false, true)) return;
+        br.cancelled = true;
+        EncodedLine expired = EncodedLine.of("REQUEST_EXPIRED " + br.id);
+        for (Session s : br.notified) s.send(expired);
+        br.notified.clear();
+        relayClosed(br, "EXPIRED", null);
+        removeOpen(br);
+        if (br.home != null) { // the home node's REQ_CLOSED never came (link down, node restarted)
+            ChatLogger.logWarning("Cluster", "Request " + br.id + " from node " + br.home + " never closed, expired here");
+            return;
+        }
+        Session requester = online.get(br.requester);
+        if (requester != null) requester.send(expired);
+
+        ChatLogger.logRequestExpired(br.id, br.requester, br.requesterBranch, br.targetBranch, REQUEST_TTL_MS / 1000);
+    }
+
+    /** Only the requests this session's branch may take. */
     private void deliverOpenRequestsToIdle(Session s) {
-        for (BroadcastRequest br : openRequests.values()) {
+        if (s.link != null) return; // a proxy gets requests on its own node
+        for (BroadcastRequest br : openForBranch.get(s.branch)) {
             if (br.taken.get() || br.cancelled) continue;
-            boolean eligible = (br.targetBranch == null) ? (s.branch != br.requesterBranch) : (s.branch == br.targetBranch);
-            if (eligible) notifyIncoming(br, s);
+            notifyIncoming(br, s);
         }
     }
 
+    private void addOpen(BroadcastRequest br) {
+        openRequests.put(br.id, br);
+        openByRequester.computeIfAbsent(br.requester, u -> ConcurrentHashMap.newKeySet()).add(br);
+        for (Branch b : Branch.values()) if (br.eligible(b)) openForBranch.get(b).add(br);
+        br.expiry = expiry.schedule(() -> expireRequest(br), br.home == null ? REQUEST_TTL_MS : REQUEST_TTL_MS + MIRROR_TTL_MARGIN_MS);
+    }
+
+    private void removeOpen(BroadcastRequest br) {
+        if (openRequests.remove(br.id) == null) return;
+        TimerWheel.Timeout t = br.expiry;
+        if (t != null) t.cancel();
+        for (Branch b : Branch.values()) openForBranch.get(b).remove(br);
+        openByRequester.computeIfPresent(br.requester, (u, set) -> {
+            set.remove(br);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
     private void markIdle(Session s) {
-        Set<Session> set = idleByBranch.get(s.branch);
-        if (set == null) {
-            set = Collections.newSetFromMap(new ConcurrentHashMap<Session, Boolean>());
-            idleByBranch.put(s.branch, set);
-        }
-        set.add(s);
+        if (s.link != null) return;
+        idleByBranch.get(s.branch).add(s);
     }
 
     private void unmarkIdle(Session s) {
-        Set<Session> set = idleByBranch.get(s.branch);
-        if (set != null) set.remove(s);
+        idleByBranch.get(s.branch).remove(s);
     }
 
     private void ensureNotBusy(Session s) {
         if (s.busy) throw new IllegalStateException("ALREADY_IN_CONVERSATION");
     }
 
+    /** Re-adding a requester moves it to the end with a fresh TTL; a full inbox drops its oldest. */
+    private void addMissed(String user, String requester) {
+        missedForUser.compute(user, (u, inbox) -> {
+            if (inbox == null) inbox = new MissedInbox();
+            TimerWheel.Timeout old = inbox.from.remove(requester);
+            if (old != null) {
+                old.cancel();
+            } else if (inbox.from.size() >= MISSED_MAX) {
+                Iterator<Map.Entry<String, TimerWheel.Timeout>> it = inbox.from.entrySet().iterator();
+                Map.Entry<String, TimerWheel.Timeout> oldest = it.next();
+                oldest.getValue().cancel();
+                it.remove();
+                ChatLogger.logMissedRequestDropped(user, oldest.getKey(), "inbox full");
+            }
+            TimerWheel.Timeout[] self = new TimerWheel.Timeout[1];
+            self[0] = expiry.schedule(() -> expireMissed(user, requester, self[0]), MISSED_TTL_MS);
+            inbox.from.put(requester, self[0]);
+            return inbox;
+        });
+    }
+
+    /** Timer task: drops the entry unless it was re-added (new timeout) or delivered since. */
+    private void expireMissed(String user, String requester, TimerWheel.Timeout timeout) {
+        missedForUser.computeIfPresent(user, (u, inbox) -> {
+            if (inbox.from.get(requester) == timeout) {
+                inbox.from.remove(requester);
+                ChatLogger.logMissedRequestDropped(user, requester, "expired");
+            }
+            return inbox.from.isEmpty() ? null : inbox;
+        });
+    }
+
     private void flushMissed(Session s) {
-        List<String> list = missedForUser.remove(s.username);
-        if (list != null) {
-            for (String r : list) s.send("MISSED_REQUEST_FROM " + r);
+        MissedInbox inbox = missedForUser.remove(s.username);
+        if (inbox != null) {
+            for (Map.Entry<String, TimerWheel.Timeout> e : inbox.from.entrySet()) {
+                e.getValue().cancel();
+                s.send("MISSED_REQUEST_FROM " + e.getKey());
+            }
         }
     }
 
+    private IdleReaper.Peer heartbeat(Session s) {
+        return new IdleReaper.Peer() {
+            @Override public void ping() { s.send("PING"); }
+            @Override public void reap() {
+                ChatLogger.logWarning("Connection", "No heartbeat from " + s.username + ", closing session");
+                cleanupSession(s);
+                s.out.abort();
+            }
+            @Override public String describe() { return s.username; }
+        };
+    }
+
     // ===== cleanup =====
-    private void cleanupSession(Session s) {
+    /** Runs once per session, whichever of QUIT / EOF / transport error gets here first. */
+    void cleanupSession(Session s) {
+        if (!s.closed.compareAndSet(false, true)) return;
+        s.idle.unregister();
+        claimPendingAccept(s); // a JOINED that still arrives finds it gone and answers GONE
         // Log user disconnection
         ChatLogger.logUserDisconnected(s.username, s.role, s.branch);
         
         // cancel open requests created by this user
-        List<String> toCancel = new ArrayList<String>();
-        for (Map.Entry<String, BroadcastRequest> e : openRequests.entrySet()) {
-            BroadcastRequest br = e.getValue();
-            if (br.requester.equals(s.username) && !br.taken.get()) toCancel.add(e.getKey());
-        }
-        for (String id : toCancel) {
-            BroadcastRequest br = openRequests.get(id);
-            if (br != null) cancelRequest(br);
+        Set<BroadcastRequest> mine = openByRequester.get(s.username);
+        if (mine != null) {
+            for (BroadcastRequest br : new ArrayList<BroadcastRequest>(mine)) {
+                if (!br.taken.get()) cancelRequest(br);
+            }
         }
 
         // leave conversation
         if (s.conversationId != null) {
-            Conversation c = conversations.get(s.conversationId);
-            if (c != null) {
-                c.remove(s);
-                if (c.members.size() < 2) {
-                    List<Session> copy = new ArrayList<Session>(c.members);
-                    for (Session m : copy) {
-                        c.remove(m);
-                        m.send("INFO CONVERSATION_ENDED");
-                        markIdle(m);
-                        deliverOpenRequestsToIdle(m);
-                    }
-                    conversations.remove(c.id);
-                } else {
-                    c.broadcast("INFO " + s.username + "_LEFT");
-                }
-            }
+            ChatCluster.Node host = s.convNode;
+            if (host != null) host.send("GONE " + s.conversationId + " " + s.username);
+            else leaveConversation(s);
         }
         unmarkIdle(s);
         online.remove(s.username, s);
         s.closeQuietly();
     }
 
+    /** Takes a disconnected member out of its conversation; ends it if fewer than two are left. */
+    private void leaveConversation(Session s) {
+        String id = s.conversationId;
+        Conversation c = (id == null) ? null : conversations.get(id);
+        if (c == null) return;
+        c.remove(s);
+        if (c.members.size() < 2) {
+            List<Session> copy = new ArrayList<Session>(c.members);
+            for (Session m : copy) {
+                c.leave(m, "INFO CONVERSATION_ENDED");
+                markIdle(m);
+                deliverOpenRequestsToIdle(m);
+            }
+            conversations.remove(c.id);
+        } else {
+            c.broadcast("INFO " + s.username + "_LEFT");
+        }
+    }
+
+    // ===== cluster links =====
+    /** Mirrors a new request to the nodes owning branches that may take it. */
+    private void relayOpen(BroadcastRequest br) {
+        if (cluster == null) return;
+        String line = "REQ_OPEN " + br.id + " " + br.requester + " " + br.requesterBranch + " "
+                + (br.targetBranch == null ? "ANY" : br.targetBranch.name());
+        for (ChatCluster.Node n : cluster.peersOwning(br::eligible)) n.send(line);
+    }
+
+    /** Tells the mirrors a request of ours is over (how: TAKEN, CANCELLED or EXPIRED). */
+    private void relayClosed(BroadcastRequest br, String how, String acceptor) {
+        if (cluster == null || br.home != null) return;
+        String line = "REQ_CLOSED " + br.id + " " + how + (acceptor == null ? "" : " " + acceptor);
+        for (ChatCluster.Node n : cluster.peersOwning(br::eligible)) n.send(line);
+    }
+
+    /** One line from a peer node, on that peer's link thread. */
+    private void onLink(ChatCluster.Node from, String line) {
+        String[] t = line.split(" ", 4); // free text (MSG, DELIVER, reasons) stays whole in the last field
+        switch (t[0]) {
+            case "REQ_OPEN" -> {
+                String[] f = line.split(" ");
+                mirrorOpened(from, f[1], f[2], Branch.valueOf(f[3]), f[4].equals("ANY") ? null : Branch.valueOf(f[4]));
+            }
+            case "REQ_CLOSED" -> mirrorClosed(t[1], t[2], t.length > 3 ? t[3] : null);
+            case "ACCEPT" -> {
+                String[] f = line.split(" ");
+                acceptFromNode(from, f[1], f[2], f[3], Branch.valueOf(f[4]));
+            }
+            case "ACCEPT_FAIL" -> {
+                Session s = online.get(t[2]);
+                if (s != null && t[1].equals(s.pendingAcceptId) && claimPendingAccept(s)) acceptFailed(s, t[3]);
+            }
+            case "JOINED" -> {
+                Session s = online.get(t[1]);
+                // disconnected, or already told the ACCEPT failed (timeout, link down): leave again
+                if (s == null || !claimPendingAccept(s)) { from.send("GONE " + t[2] + " " + t[1]); return; }
+                s.convNode = from;
+                s.conversationId = t[2];
+                s.busy = true;
+                unmarkIdle(s);
+            }
+            case "LEFT" -> {
+                Session s = online.get(t[1]);
+                if (s != null && t[2].equals(s.conversationId)) {
+                    s.convNode = null;
+                    s.conversationId = null;
+                    s.busy = false;
+                    markIdle(s);
+                    deliverOpenRequestsToIdle(s);
+                }
+            }
+            case "DELIVER" -> {
+                Session s = online.get(t[1]);
+                // only while in that node's conversation (not after a timed-out ACCEPT it answered GONE to)
+                if (s != null && s.convNode == from) s.send(line.substring(t[0].length() + t[1].length() + 2));
+            }
+            case "MSG", "END", "GONE" -> {
+                Conversation c = conversations.get(t[1]);
+                Session proxy = (c == null) ? null : c.member(t[2]);
+                if (proxy == null || proxy.link != from) return;
+                if (t[0].equals("MSG")) doMsg(proxy, t.length > 3 ? t[3] : "");
+                else if (t[0].equals("END")) endConversation(proxy);
+                else leaveConversation(proxy);
+            }
+            default -> ChatLogger.logWarning("Cluster", "Unknown link line from " + from + ": " + line);
+        }
+    }
+
+    /** Takes the answer to s's forwarded ACCEPT for the caller; false if it was already handled. */
+    private boolean claimPendingAccept(Session s) {
+        TimerWheel.Timeout t = s.pendingAccept;
+        if (t == null || !t.cancel()) return false;
+        s.pendingAccept = null;
+        s.pendingAcceptAt = null;
+        s.pendingAcceptId = null;
+        return true;
+    }
+
+    /** Timer task: the requester's node never answered s's ACCEPT. */
+    private void acceptUnanswered(Session s, String reason) {
+        s.pendingAccept = null;
+        s.pendingAcceptAt = null;
+        s.pendingAcceptId = null;
+        acceptFailed(s, reason);
+    }
+
+    private void acceptFailed(Session s, String reason) {
+        s.busy = false;
+        markIdle(s);
+        s.send("ERR " + reason);
+        deliverOpenRequestsToIdle(s);
+    }
+
+    /** A link to or from peer broke; ACCEPTs waiting on it may never be answered. */
+    private void onLinkDown(ChatCluster.Node peer) {
+        for (Session s : online.values()) {
+            if (s.pendingAcceptAt == peer && claimPendingAccept(s)) acceptFailed(s, "NODE_UNREACHABLE");
+        }
+    }
+
+    private void mirrorOpened(ChatCluster.Node home, String id, String requester, Branch requesterBranch, Branch target) {
+        BroadcastRequest br = new BroadcastRequest(id, requester, requesterBranch, target, home);
+        addOpen(br);
+        for (Branch b : Branch.values()) {
+            if (!br.eligible(b) || !cluster.owns(b)) continue;
+            for (Session cand : idleByBranch.get(b)) if (!cand.busy) notifyIncoming(br, cand);
+        }
+    }
+
+    private void mirrorClosed(String id, String how, String acceptor) {
+        BroadcastRequest br = openRequests.get(id);
+        if (br == null || br.home == null) return;
+        br.cancelled = true;
+        EncodedLine closed = EncodedLine.of("REQUEST_" + how + " " + id);
+        for (Session s : br.notified) {
+            if (!s.username.equals(acceptor)) s.send(closed);
+        }
+        br.notified.clear();
+        removeOpen(br);
+    }
+
+    /** ACCEPT of one of our requests by a session on another node: the same race as a local ACCEPT. */
+    private void acceptFromNode(ChatCluster.Node from, String id, String username, String role, Branch branch) {
+        BroadcastRequest br = openRequests.get(id);
+        Session requester = (br == null) ? null : online.get(br.requester);
+        String fail = null;
+        if (br == null || br.cancelled || br.home != null) fail = "NO_SUCH_REQUEST";
+        else if (br.taken.get()) fail = "REQUEST_ALREADY_TAKEN";
+        else if (!br.eligible(branch)) fail = "NOT_ELIGIBLE_FOR_THIS_REQUEST";
+        else if (requester == null || requester.busy) {
+            if (br.taken.get()) fail = "REQUEST_ALREADY_TAKEN"; // lost to an ACCEPT that is pairing up now
+            else {
+                fail = "REQUESTER_NOT_AVAILABLE";
+                cancelRequest(br);
+            }
+        } else if (!br.taken.compareAndSet(false, true)) fail = "REQUEST_ALREADY_TAKEN";
+        if (fail != null) { from.send("ACCEPT_FAIL " + id + " " + username + " " + fail); return; }
+
+        Session acceptor = new Session(new LinkOutbound(from, username), username, role, branch, from);
+        try {
+            startConversation(requester, acceptor);
+        } catch (IllegalStateException e) { // requester paired up in the meantime
+            from.send("ACCEPT_FAIL " + id + " " + username + " REQUESTER_NOT_AVAILABLE");
+            cancelRequest(br);
+            return;
+        }
+        notifyRequestTaken(br, acceptor);
+        relayClosed(br, "TAKEN", username);
+        removeOpen(br);
+
+        ChatLogger.logRequestAccepted(br.id, br.requester, username, br.requesterBranch, branch);
+    }
+
     private void closeAndCleanup(Session s) {
         cleanupSession(s);
-        try { s.sock.close(); } catch (IOException ignored) {}
+        s.closeQuietly();
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,44 @@
+package server.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * One outgoing protocol line, encoded once (transport charset plus line separator) and never
+ * changed afterwards, so a broadcast can hand the same instance to every member's Outbound.
+ * Transports only copy bytes out of it; each keeps its own read offset.
+ */
+final class EncodedLine {
+
+    // what the blocking transport's PrintWriter/OutputStreamWriter used to produce
+    static final Charset CHARSET = Charset.defaultCharset();
+
+    private static final int EOL_BYTES = System.lineSeparator().getBytes(CHARSET).length;
+
+    private final byte[] bytes;
+
+    private EncodedLine(byte[] bytes) { this.bytes = bytes; }
+
+    static EncodedLine of(String line) {
+        return new EncodedLine((line + System.lineSeparator()).getBytes(CHARSET));
+    }
+
+    int length() { return bytes.length; }
+
+    void writeTo(OutputStream out) throws IOException { out.write(bytes); }
+
+    /** Copies bytes from offset on into dst, as many as fit; returns how many were copied. */
+    int copyTo(ByteBuffer dst, int offset) {
+        int n = Math.min(dst.remaining(), bytes.length - offset);
+        dst.put(bytes, offset, n);
+        return n;
+    }
+
+    /** The line as given to of(), without the separator. */
+    @Override
+    public String toString() {
+        return new String(bytes, 0, bytes.length - EOL_BYTES, CHARSET);
+    }
+}
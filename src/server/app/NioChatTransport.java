@@ -0,0 +1,275 @@
+package server.app;
+
+import server.util.ChatLogger;
+import server.util.IdleReaper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking ChatServer front end: one selector thread owns every socket.
+ * Speaks exactly the same line protocol as the blocking transport (HELLO first, then
+ * REQUEST_* / ACCEPT / MSG / ...), and hands each complete line to ChatServer.handle().
+ *
+ * Writes never block: every session has a bounded outbound queue
+ * (-Dchat.nio.maxOutboundBytes, default 256 KB) that is drained when the socket is writable.
+ * A reader that falls behind by more than that is disconnected instead of stalling
+ * the conversation it is in.
+ * The queue holds the shared EncodedLines themselves (a broadcast costs a member one queue slot,
+ * not a copy of the line); the selector thread copies as many queued bytes as fit into one
+ * direct buffer per socket write.
+ * A socket that sends no HELLO within chat.idleTimeoutMs is closed (ChatServer.watchHandshake),
+ * as the blocking transport's read timeout does.
+ */
+final class NioChatTransport {
+
+    private static final int MAX_OUTBOUND_BYTES = Integer.getInteger("chat.nio.maxOutboundBytes", 256 * 1024);
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+    // same charset the blocking transport's reader/writer use
+    private static final Charset CHARSET = EncodedLine.CHARSET;
+
+    private final ChatServer server;
+    private final int port;
+    private final Selector selector;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+    /** Connections with queued output or a pending close, handed to the selector thread. */
+    private final Queue<Connection> pending = new ConcurrentLinkedQueue<>();
+    private volatile Thread selectorThread;
+
+    NioChatTransport(ChatServer server, int port) throws IOException {
+        this.server = server;
+        this.port = port;
+        this.selector = Selector.open();
+    }
+
+    /** Runs the selector loop on the calling thread until the server socket fails. */
+    void run() throws IOException {
+        selectorThread = Thread.currentThread();
+        try (ServerSocketChannel ssc = ServerSocketChannel.open()) {
+            ssc.bind(new InetSocketAddress(port));
+            ssc.configureBlocking(false);
+            ssc.register(selector, SelectionKey.OP_ACCEPT);
+
+            while (true) {
+                selector.select();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept(ssc);
+                        continue;
+                    }
+                    Connection c = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) c.read();
+                        if (key.isValid() && key.isWritable()) c.flush();
+                    } catch (IOException e) {
+                        c.disconnect();
+                    }
+                }
+                processPending();
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel ssc) throws IOException {
+        SocketChannel ch = ssc.accept();
+        if (ch == null) return;
+        ch.configureBlocking(false);
+        ch.socket().setTcpNoDelay(true);
+        ch.socket().setKeepAlive(true);
+        Connection c = new Connection(ch);
+        c.key = ch.register(selector, SelectionKey.OP_READ, c);
+        c.handshake = server.watchHandshake(c, c.describe());
+    }
+
+    private void processPending() {
+        Connection c;
+        while ((c = pending.poll()) != null) {
+            synchronized (c) { c.scheduled = false; }
+            try {
+                if (c.closeRequested) c.disconnect();
+                else c.flush();
+            } catch (IOException e) {
+                c.disconnect();
+            }
+        }
+    }
+
+    /** One client socket; also the Outbound its ChatServer.Session writes to. */
+    private final class Connection implements ChatServer.Outbound {
+        private final SocketChannel ch;
+        private SelectionKey key;
+        private ChatServer.Session session;
+        private IdleReaper.Handle handshake; // until openSession takes it over
+        private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+
+        // guarded by this: written by whichever thread calls send(), drained by the selector thread
+        private final ArrayDeque<EncodedLine> outQueue = new ArrayDeque<>();
+        private int headOffset; // bytes of outQueue.peek() already written
+        private int queuedBytes;
+        private boolean scheduled;
+        private boolean closeAfterFlush;
+        private volatile boolean closeRequested;
+        private boolean closed;
+
+        Connection(SocketChannel ch) { this.ch = ch; }
+
+        // ---- inbound (selector thread only) ----
+
+        void read() throws IOException {
+            readBuffer.clear();
+            int n = ch.read(readBuffer);
+            if (n < 0) { disconnect(); return; }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining() && !closing()) {
+                byte b = readBuffer.get();
+                if (b != '\n') {
+                    partialLine.write(b);
+                    if (partialLine.size() > MAX_LINE_BYTES) {
+                        ChatLogger.logWarning("Connection", "Line too long from " + describe() + ", closing");
+                        disconnect();
+                    }
+                    continue;
+                }
+                String line = partialLine.toString(CHARSET.name());
+                partialLine.reset();
+                if (line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+                onLine(line);
+            }
+        }
+
+        private void onLine(String line) {
+            if (session == null) {
+                session = server.openSession(line, this, handshake);
+                if (session == null) close(); // ERR ... is flushed before the socket closes
+                return;
+            }
+            if (line.trim().isEmpty()) return;
+            server.handle(session, line);
+        }
+
+        // ---- outbound (any thread) ----
+
+        @Override public void send(EncodedLine line) {
+            synchronized (this) {
+                if (closed || closeRequested) return;
+                if (queuedBytes + line.length() > MAX_OUTBOUND_BYTES) {
+                    ChatLogger.logWarning("Connection", "Outbound buffer full for " + describe()
+                            + " (" + queuedBytes + " bytes queued), disconnecting slow reader");
+                    outQueue.clear();
+                    headOffset = 0;
+                    queuedBytes = 0;
+                    closeRequested = true;
+                } else {
+                    outQueue.add(line);
+                    queuedBytes += line.length();
+                }
+            }
+            schedule();
+        }
+
+        /** Flushes whatever is queued, then closes; used after QUIT and rejected HELLOs. */
+        @Override public void close() {
+            synchronized (this) {
+                if (closed) return;
+                if (outQueue.isEmpty()) closeRequested = true;
+                else closeAfterFlush = true;
+            }
+            schedule();
+        }
+
+        /** Drops queued output and closes on the selector thread; used for dead peers. */
+        @Override public void abort() {
+            synchronized (this) {
+                if (closed) return;
+                closeRequested = true;
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            synchronized (this) {
+                if (scheduled) return;
+                scheduled = true;
+            }
+            pending.add(this);
+            if (Thread.currentThread() != selectorThread) selector.wakeup();
+        }
+
+        // ---- selector thread only ----
+
+        void flush() throws IOException {
+            boolean closeNow;
+            synchronized (this) {
+                if (closed) return;
+                while (!outQueue.isEmpty()) {
+                    writeBuffer.clear();
+                    int offset = headOffset;
+                    for (EncodedLine l : outQueue) {
+                        l.copyTo(writeBuffer, offset);
+                        offset = 0;
+                        if (!writeBuffer.hasRemaining()) break;
+                    }
+                    writeBuffer.flip();
+                    consume(ch.write(writeBuffer));
+                    if (writeBuffer.hasRemaining()) break; // socket send buffer is full
+                }
+                boolean drained = outQueue.isEmpty();
+                key.interestOps(drained ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                closeNow = drained && closeAfterFlush;
+            }
+            if (closeNow) disconnect();
+        }
+
+        /** Drops n written bytes from the front of outQueue; caller holds this. */
+        private void consume(int n) {
+            queuedBytes -= n;
+            while (n > 0) {
+                int rest = outQueue.peek().length() - headOffset;
+                if (n < rest) { headOffset += n; return; }
+                outQueue.poll();
+                headOffset = 0;
+                n -= rest;
+            }
+        }
+
+        /** Closes the socket and runs the normal session cleanup (at most once). */
+        void disconnect() {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+                outQueue.clear();
+                headOffset = 0;
+                queuedBytes = 0;
+            }
+            key.cancel();
+            try { ch.close(); } catch (IOException ignored) {}
+            if (session != null) server.cleanupSession(session);
+            else handshake.unregister();
+        }
+
+        private synchronized boolean closing() {
+            return closed || closeRequested || closeAfterFlush;
+        }
+
+        private String describe() {
+            return session != null ? session.username : String.valueOf(ch.socket().getRemoteSocketAddress());
+        }
+    }
+}
@@ -3,27 +3,45 @@ package server.app;
 import server.domain.employees.AuthService;
 import server.domain.invantory.InventoryService;
 import server.domain.customers.CustomerService;
+import server.domain.sales.BestSellers;
+import server.domain.sales.SalesAggregates;
+import server.domain.sales.SalesLedger;
 import server.domain.sales.SalesService;
 
 import server.net.ClientHandler;
+import server.util.IdleReaper;
 import server.util.Loggers;
+import server.util.ServerExecutors;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class StoreServer {
     private final int port;
-    private final AuthService auth = new AuthService();
-    private final InventoryService inventory = new InventoryService();
-    private final CustomerService customers = new CustomerService();
-    private final SalesService sales = new SalesService();
-    private final ExecutorService pool = Executors.newCachedThreadPool();
+    private final AuthService auth;
+    private final InventoryService inventory;
+    private final CustomerService customers;
+    private final SalesService sales;
+    private final ExecutorService pool = ServerExecutors.forConnections("StoreServer");
+    // terminals send PING every 30s (ClientConsole); a socket silent this long is a dead peer
+    private final IdleReaper reaper = new IdleReaper("StoreServer", 0, Long.getLong("store.idleTimeoutMs", 120_000));
 
-    public StoreServer(int port) {
+    public StoreServer(int port) { this(port, Path.of("data")); }
+
+    /** @param dataDir directory holding products.txt, customers.txt, customer_stats.txt, employees.txt and sales/ */
+    public StoreServer(int port, Path dataDir) {
         this.port = port;
+        this.auth = new AuthService(dataDir.resolve("employees.txt"));
+        this.inventory = new InventoryService(dataDir.resolve("products.txt"));
+        this.customers = new CustomerService(dataDir.resolve("customers.txt"), dataDir.resolve("customer_stats.txt"));
+        SalesLedger ledger = new SalesLedger(dataDir.resolve("sales"));
+        BestSellers bestSellers = new BestSellers();
+        bestSellers.warmUp(ledger, System.currentTimeMillis());
+        this.sales = new SalesService(ledger, new SalesAggregates(ledger, dataDir.resolve("sales").resolve("aggregates.txt")),
+                bestSellers);
         // סוגר את מאגר־השרשורים כשמבקשים לסגור את התהליך
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try { pool.shutdownNow(); } catch (Exception ignored) {}
@@ -36,7 +54,8 @@ public class StoreServer {
             Loggers.system().info("StoreServer started on port " + port);
             while (true) {
                 Socket socket = serverSocket.accept();
-                pool.submit(new ClientHandler(socket, auth, inventory, customers, sales));
+                socket.setKeepAlive(true);
+                pool.submit(new ClientHandler(socket, auth, inventory, customers, sales, reaper));
             }
         } catch (IOException e) {
             Loggers.system().severe("StoreServer fatal error: " + e.getMessage());
@@ -47,9 +66,11 @@ public class StoreServer {
 
     public static void main(String[] args) {
         int port = 5050;
+        Path dataDir = Path.of("data");
         if (args != null && args.length > 0) {
             try { port = Integer.parseInt(args[0]); } catch (NumberFormatException ignored) {}
         }
-        new StoreServer(port).start();
+        if (args != null && args.length > 1) dataDir = Path.of(args[1]);
+        new StoreServer(port, dataDir).start();
     }
 }
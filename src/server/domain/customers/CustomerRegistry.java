@@ -0,0 +1,333 @@
+package server.domain.customers;
+
+import server.util.JournaledFileDatabase;
+import server.util.Loggers;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Resident copy of data/customers.txt and data/customer_stats.txt, one record per customer
+ * (the Customer plus its purchase counter).
+ * Both files are parsed once on construction; afterwards reads are served from memory:
+ *   byId     id -> record (file order, so CUSTOMER_LIST keeps its order)
+ *   byPhone  phone -> ids   (phones are not unique)
+ *   byType   type code -> ids
+ *
+ * Adds and edits go straight through to the customers journal (see JournaledFileDatabase).
+ * Purchases only bump the in-memory counter, and promote the tier in memory. Changed counters
+ * and tiers are written out in batches, every {@code customers.flushMs} (default 1000) or once
+ * {@code customers.flushBatch} customers (default 500) are dirty, and at shutdown.
+ *
+ * Crash recovery: a hard crash loses at most the purchases counted since the last batch
+ * (plus the journal group-commit window). Tiers are always recomputed from the counter on the
+ * next purchase, so a batch that reached one file but not the other repairs itself.
+ */
+final class CustomerRegistry {
+
+    private static final long FLUSH_MS = Long.getLong("customers.flushMs", 1000);
+    private static final int FLUSH_BATCH = Integer.getInteger("customers.flushBatch", 500);
+
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "customer-flush");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final List<CustomerRegistry> open = Collections.synchronizedList(new ArrayList<>());
+
+    static {
+        flusher.scheduleWithFixedDelay(CustomerRegistry::flushAll, FLUSH_MS, FLUSH_MS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(CustomerRegistry::flushAll));
+    }
+
+    /** A customer together with its purchase count. */
+    private static final class Entry {
+        volatile Customer customer;
+        final AtomicInteger purchases;
+
+        Entry(Customer customer, int purchases) {
+            this.customer = customer;
+            this.purchases = new AtomicInteger(purchases);
+        }
+    }
+
+    private final JournaledFileDatabase db;
+    private final JournaledFileDatabase statsDb;
+    private final Map<String, Entry> byId = new LinkedHashMap<>();
+    private final Map<String, Set<String>> byPhone = new HashMap<>();
+    private final Map<String, Set<String>> byType = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // ids whose counter / tier changed since the last batch
+    private final Set<String> dirtyStats = ConcurrentHashMap.newKeySet();
+    private final Set<String> dirtyTiers = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushQueued = new AtomicBoolean(false);
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    CustomerRegistry(JournaledFileDatabase db, JournaledFileDatabase statsDb) {
+        this.db = db;
+        this.statsDb = statsDb;
+        load();
+        open.add(this);
+    }
+
+    // ---------- reads ----------
+
+    Optional<Customer> find(String id) {
+        lock.readLock().lock();
+        try {
+            Entry e = byId.get(id);
+            return e == null ? Optional.empty() : Optional.of(e.customer);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<Customer> listAll() {
+        lock.readLock().lock();
+        try {
+            List<Customer> out = new ArrayList<>(byId.size());
+            for (Entry e : byId.values()) out.add(e.customer);
+            return out;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<Customer> findByPhone(String phone) {
+        lock.readLock().lock();
+        try {
+            return resolve(byPhone.get(phone));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<Customer> listByType(String typeCode) {
+        lock.readLock().lock();
+        try {
+            return resolve(byType.get(typeKey(typeCode)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ---------- writes ----------
+
+    /** Insert or replace the row for customer.id and journal it. */
+    void save(Customer c) {
+        lock.writeLock().lock();
+        try {
+            put(c);
+            db.put(format(c));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Like save(), but only if the id is new (its counter starts at 0). Returns false if it already exists. */
+    boolean insert(Customer c) {
+        lock.writeLock().lock();
+        try {
+            if (byId.containsKey(c.id())) return false;
+            put(c);
+            db.put(format(c));
+            statsDb.put(c.id() + ",0");
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Counts one purchase and applies the tier for the new count, in memory only;
+     * both are persisted by the next batch. Returns the customer after any promotion.
+     */
+    Customer recordPurchase(String id) {
+        Entry e;
+        int count;
+        lock.readLock().lock();
+        try {
+            e = byId.get(id);
+            if (e == null) throw new IllegalStateException("Customer not found: " + id);
+            count = e.purchases.incrementAndGet();
+        } finally {
+            lock.readLock().unlock();
+        }
+        markDirty(dirtyStats, id);
+
+        if (!e.customer.type().code().equals(tierForCount(count))) {
+            lock.writeLock().lock();
+            try {
+                // re-read: a concurrent purchase may have moved the counter (and tier) on already
+                Customer current = e.customer;
+                String tier = tierForCount(e.purchases.get());
+                if (byId.get(id) == e && !current.type().code().equals(tier)) {
+                    put(new Customer(current.id(), current.fullName(), current.phone(), typeFrom(tier)));
+                    markDirty(dirtyTiers, id);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        return e.customer;
+    }
+
+    static String tierForCount(int count) {
+        if (count >= 10) return "VIP";
+        if (count >= 2)  return "RETURNING";
+        return "NEW";
+    }
+
+    // ---------- batching ----------
+
+    /** Writes every changed counter and tier now (one journal write per file). */
+    void flush() {
+        flushLock.lock();
+        try {
+            List<String> stats = new ArrayList<>();
+            List<String> tiers = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                // remove-then-read: a purchase racing with the drain re-marks the id for the next batch
+                for (Iterator<String> it = dirtyStats.iterator(); it.hasNext(); ) {
+                    String id = it.next();
+                    it.remove();
+                    Entry e = byId.get(id);
+                    if (e != null) stats.add(id + "," + e.purchases.get());
+                }
+                for (Iterator<String> it = dirtyTiers.iterator(); it.hasNext(); ) {
+                    String id = it.next();
+                    it.remove();
+                    Entry e = byId.get(id);
+                    if (e != null) tiers.add(format(e.customer));
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (!stats.isEmpty()) statsDb.putAll(stats);
+            if (!tiers.isEmpty()) db.putAll(tiers);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void markDirty(Set<String> dirty, String id) {
+        dirty.add(id);
+        if (dirtyStats.size() + dirtyTiers.size() >= FLUSH_BATCH && flushQueued.compareAndSet(false, true)) {
+            flusher.execute(() -> {
+                flushQueued.set(false);
+                flushQuietly();
+            });
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            Loggers.system().severe("Customer stats flush failed for " + statsDb.path() + ": " + e.getMessage());
+        }
+    }
+
+    private static void flushAll() {
+        CustomerRegistry[] regs;
+        synchronized (open) { regs = open.toArray(new CustomerRegistry[0]); }
+        for (CustomerRegistry r : regs) {
+            r.flushQuietly();
+            // shutdown hooks run in no particular order; don't rely on the journal's own final sync
+            r.statsDb.sync();
+            r.db.sync();
+        }
+    }
+
+    // ---------- helpers ----------
+
+    private void put(Customer c) {
+        Entry e = byId.get(c.id());
+        Customer old = null;
+        if (e == null) byId.put(c.id(), new Entry(c, 0));
+        else {
+            old = e.customer;
+            e.customer = c;
+        }
+        if (old != null) {
+            unindex(byPhone, old.phone(), old.id());
+            unindex(byType, typeKey(old.type().code()), old.id());
+        }
+        byPhone.computeIfAbsent(c.phone(), k -> new LinkedHashSet<>()).add(c.id());
+        byType.computeIfAbsent(typeKey(c.type().code()), k -> new LinkedHashSet<>()).add(c.id());
+    }
+
+    private List<Customer> resolve(Set<String> ids) {
+        List<Customer> out = new ArrayList<>();
+        if (ids == null) return out;
+        for (String id : ids) out.add(byId.get(id).customer);
+        return out;
+    }
+
+    private static void unindex(Map<String, Set<String>> index, String key, String id) {
+        Set<String> ids = index.get(key);
+        if (ids == null) return;
+        ids.remove(id);
+        if (ids.isEmpty()) index.remove(key);
+    }
+
+    private static String typeKey(String code) { return code == null ? "" : code.trim().toUpperCase(Locale.ROOT); }
+
+    // ---------- CSV ----------
+
+    static Customer parse(String[] t) { // id,fullName,phone,type
+        return new Customer(t[0], t[1], t[2], typeFrom(t[3]));
+    }
+
+    static String format(Customer c) {
+        return String.join(",",
+                c.id(),
+                c.fullName(),
+                c.phone(),
+                c.type().code()
+        );
+    }
+
+    static CustomerType typeFrom(String code) {
+        String c = code == null ? "NEW" : code.trim().toUpperCase();
+        return switch (c) {
+            case "VIP" -> new VipCustomer();
+            case "RETURNING" -> new ReturningCustomer();
+            default -> new NewCustomer();
+        };
+    }
+
+    private void load() {
+        for (String s : db.readAllLines()) {
+            if (s == null) continue;
+            String line = s.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] t = line.split(",", -1);
+            if (t.length < 4) continue;
+            put(parse(t));
+        }
+        for (String s : statsDb.readAllLines()) { // id,count
+            if (s == null) continue;
+            String line = s.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] t = line.split(",", -1);
+            if (t.length < 2) continue;
+            Entry e = byId.get(t[0]);
+            if (e != null) e.purchases.set(parseIntSafe(t[1]));
+        }
+    }
+
+    private static int parseIntSafe(String s) {
+        try { return Integer.parseInt(s.trim()); } catch (Exception e) { return 0; }
+    }
+}
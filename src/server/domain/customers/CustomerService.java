@@ -1,10 +1,10 @@
 package server.domain.customers;
 
-import server.util.FileDatabase;
+import server.domain.sales.SalesLedger;
+import server.util.JournaledFileDatabase;
 import server.util.Loggers;
 
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,166 +19,84 @@ import java.util.Optional;
  *   >= 10 purchases => VIP
  *   >=  2 purchases => RETURNING
  *   else            => NEW
+ *
+ * Both files are journaled (see JournaledFileDatabase): single-row changes append a delta
+ * record instead of rewriting the whole file.
+ * Customers are loaded once into CustomerRegistry (indexed by id, phone and type); lookups
+ * and CUSTOMER_LIST are served from memory. Purchase counts live next to each customer in
+ * memory and are flushed in batches (see CustomerRegistry for the interval and crash notes).
  */
 public class CustomerService {
 
-    private final FileDatabase customersDb = new FileDatabase(Path.of("data/customers.txt"));
-    private final FileDatabase statsDb     = new FileDatabase(Path.of("data/customer_stats.txt"));
+    private final CustomerRegistry registry;
+
+    public CustomerService() { this(Path.of("data/customers.txt"), Path.of("data/customer_stats.txt")); }
+
+    public CustomerService(Path customersFile, Path statsFile) {
+        this.registry = new CustomerRegistry(
+                new JournaledFileDatabase(customersFile, JournaledFileDatabase.keyByColumns(0)),
+                new JournaledFileDatabase(statsFile, JournaledFileDatabase.keyByColumns(0)));
+    }
 
-    /** Find by ID in customers file. */
+    /** Find by ID (in-memory hash lookup). */
     public Optional<Customer> findById(String id) {
-        for (String s : customersDb.readAllLines()) {
-            if (s == null) continue;
-            String line = s.trim();
-            if (line.isEmpty() || line.startsWith("#")) continue;
-
-            String[] t = line.split(",", -1); // id,fullName,phone,type
-            if (t.length < 4) continue;
-            if (t[0].equals(id)) {
-                return Optional.of(new Customer(t[0], t[1], t[2], typeFrom(t[3])));
-            }
-        }
-        return Optional.empty();
+        return registry.find(id);
     }
 
-    /** List all customers. */
+    /** List all customers, in file order. */
     public List<Customer> listAll() {
-        List<Customer> out = new ArrayList<>();
-        for (String s : customersDb.readAllLines()) {
-            if (s == null) continue;
-            String line = s.trim();
-            if (line.isEmpty() || line.startsWith("#")) continue;
-            String[] t = line.split(",", -1);
-            if (t.length < 4) continue;
-            out.add(new Customer(t[0], t[1], t[2], typeFrom(t[3])));
-        }
-        return out;
+        return registry.listAll();
+    }
+
+    /** All customers registered with this phone number. */
+    public List<Customer> findByPhone(String phone) {
+        return registry.findByPhone(phone);
+    }
+
+    /** All customers of a type (NEW | RETURNING | VIP). */
+    public List<Customer> listByType(String typeCode) {
+        return registry.listByType(typeCode);
     }
 
     /** Insert or update by id. */
     public void upsert(Customer customer) {
-        List<String> lines = new ArrayList<>(customersDb.readAllLines());
-        boolean found = false;
-
-        for (int i = 0; i < lines.size(); i++) {
-            String raw = lines.get(i);
-            if (raw == null) continue;
-            String line = raw.trim();
-            if (line.isEmpty() || line.startsWith("#")) continue;
-
-            String[] t = line.split(",", -1);
-            if (t.length < 4) continue;
-
-            if (t[0].equals(customer.id())) {
-                lines.set(i, format(customer));
-                found = true;
-                break;
-            }
-        }
-        if (!found) lines.add(format(customer));
-        customersDb.writeAllLines(lines);
+        registry.save(customer);
     }
 
     /** Add a new customer (fails if id already exists). */
     public Customer addCustomer(String id, String fullName, String phone, String typeCode) {
         if (id == null || id.trim().isEmpty()) throw new IllegalArgumentException("Customer ID is required");
-        if (findById(id).isPresent()) throw new IllegalArgumentException("Customer already exists: " + id);
+        if (!SalesLedger.fitsText(id)) {
+            throw new IllegalArgumentException("Customer ID longer than " + SalesLedger.TEXT_BYTES + " bytes");
+        }
 
         CustomerType type = typeFrom(typeCode);
         Customer c = new Customer(id, fullName == null ? "" : fullName, phone == null ? "" : phone, type);
-        upsert(c);
-        // initialize stats at zero
-        ensureStatsRow(id);
+        if (!registry.insert(c)) throw new IllegalArgumentException("Customer already exists: " + id);
         
         // Log the customer addition
-        Loggers.customers().info(String.format("CUSTOMER_ADDED: ID=%s, FullName=%s, Phone=%s, Type=%s", 
-            id, fullName, phone, typeCode));
+        Loggers.info(Loggers.customers(), "CUSTOMER_ADDED: ID=%s, FullName=%s, Phone=%s, Type=%s", 
+            id, fullName, phone, typeCode);
         
         return c;
     }
 
-    /** Record a purchase and auto-promote type if thresholds reached. */
+    /**
+     * Record a purchase and auto-promote type if thresholds reached.
+     * Counted in memory; the counter and any tier change are written in the next batch.
+     */
     public void recordPurchase(String id) {
-        int count = incrementAndGetCount(id);
-        String newTypeCode = tierForCount(count);
-
-        // Update type in customers file if changed
-        Customer current = findById(id)
-                .orElseThrow(() -> new IllegalStateException("Customer not found: " + id));
-        String currentCode = current.type().code();
+        registry.recordPurchase(id);
+    }
 
-        if (!currentCode.equals(newTypeCode)) {
-            upsert(new Customer(current.id(), current.fullName(), current.phone(), typeFrom(newTypeCode)));
-        }
+    /** Writes pending purchase counters and tier changes now (normally done in the background). */
+    public void flush() {
+        registry.flush();
     }
 
     // ---------- Helpers ----------
 
     private CustomerType typeFrom(String code) {
-        String c = code == null ? "NEW" : code.trim().toUpperCase();
-        return switch (c) {
-            case "VIP" -> new VipCustomer();
-            case "RETURNING" -> new ReturningCustomer();
-            default -> new NewCustomer();
-        };
-    }
-
-    private String tierForCount(int count) {
-        if (count >= 10) return "VIP";
-        if (count >= 2)  return "RETURNING";
-        return "NEW";
-    }
-
-    private void ensureStatsRow(String id) {
-        List<String> lines = new ArrayList<>(statsDb.readAllLines());
-        for (String s : lines) {
-            if (s == null) continue;
-            String line = s.trim();
-            if (line.isEmpty() || line.startsWith("#")) continue;
-            String[] t = line.split(",", -1);
-            if (t.length < 2) continue;
-            if (t[0].equals(id)) return; // already exists
-        }
-        lines.add(id + ",0");
-        statsDb.writeAllLines(lines);
-    }
-
-    private int incrementAndGetCount(String id) {
-        List<String> lines = new ArrayList<>(statsDb.readAllLines());
-        boolean updated = false;
-        for (int i = 0; i < lines.size(); i++) {
-            String s = lines.get(i);
-            if (s == null) continue;
-            String line = s.trim();
-            if (line.isEmpty() || line.startsWith("#")) continue;
-            String[] t = line.split(",", -1);
-            if (t.length < 2) continue;
-
-            if (t[0].equals(id)) {
-                int cur = parseIntSafe(t[1]);
-                int next = cur + 1;
-                lines.set(i, id + "," + next);
-                statsDb.writeAllLines(lines);
-                updated = true;
-                return next;
-            }
-        }
-        // no row -> create with 1
-        lines.add(id + ",1");
-        statsDb.writeAllLines(lines);
-        return 1;
-    }
-
-    private int parseIntSafe(String s) {
-        try { return Integer.parseInt(s.trim()); } catch (Exception e) { return 0; }
-    }
-
-    private String format(Customer c) {
-        return String.join(",",
-                c.id(),
-                c.fullName(),
-                c.phone(),
-                c.type().code()
-        );
+        return CustomerRegistry.typeFrom(code);
     }
 }
@@ -1,14 +1,18 @@
 package server.domain.employees;
 
 import server.shared.Branch;
+import server.util.FileDatabase;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 /**
@@ -17,19 +21,35 @@ import java.util.stream.Collectors;
  * employeeId,username,passwordHash,role,branch,accountNumber,phone,fullName,nationalId
  *
  * אם הקובץ לא קיים - ייווצר ריק.
+ *
+ * The maps are the one in-memory index of the file for this process (StoreServer shares it with
+ * AuthService). add/delete update them in place. Edits made by another process - e.g. the admin
+ * console - are noticed on the next read: the file's mtime/size/inode is checked at most every
+ * {@code employees.reloadCheckMs} (default 1000) and changed rows are merged in.
  */
 public final class EmployeeDirectory {
 
     private static final Path DATA_DIR = Paths.get("data");
-    private static final Path EMP_FILE = DATA_DIR.resolve("employees.txt");
+    private static final long RELOAD_CHECK_MS = Long.getLong("employees.reloadCheckMs", 1000);
 
+    private final Path empFile;
     private final Map<String, Employee> byId = new ConcurrentHashMap<>();
     private final Map<String, Employee> byUsername = new ConcurrentHashMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock(); // not synchronized: saves do file I/O
+
+    /** What the file looked like when the maps were last in sync with it. */
+    private record Stamp(FileTime modified, long size, Object fileKey) {}
+    private volatile Stamp loaded;
+    private volatile long nextCheckAt;
 
-    public EmployeeDirectory() {
+    public EmployeeDirectory() { this(DATA_DIR.resolve("employees.txt")); }
+
+    public EmployeeDirectory(Path employeesFile) {
+        this.empFile = employeesFile;
         try {
-            if (!Files.exists(DATA_DIR)) Files.createDirectories(DATA_DIR);
-            if (!Files.exists(EMP_FILE)) Files.createFile(EMP_FILE);
+            Path dir = empFile.toAbsolutePath().getParent();
+            if (!Files.exists(dir)) Files.createDirectories(dir);
+            if (!Files.exists(empFile)) Files.createFile(empFile);
             load();
         } catch (IOException e) {
             throw new IllegalStateException("init EmployeeDirectory failed", e);
@@ -37,16 +57,13 @@ public final class EmployeeDirectory {
     }
 
     // שים לב: כאן מצופה לקבל passwordHash מוכן (sha256)
-    public synchronized Employee addEmployee(String username, String passwordHash, String role, Branch branch,
-                                             String accountNumber, String phone, String fullName, String nationalId) {
+    public Employee addEmployee(String username, String passwordHash, String role, Branch branch,
+                                String accountNumber, String phone, String fullName, String nationalId) {
         Objects.requireNonNull(username, "username");
         Objects.requireNonNull(passwordHash, "passwordHash");
         Objects.requireNonNull(role, "role");
         Objects.requireNonNull(branch, "branch");
 
-        if (byUsername.containsKey(username)) {
-            throw new IllegalArgumentException("USERNAME_ALREADY_EXISTS");
-        }
         if (fullName == null || fullName.isBlank()) {
             throw new IllegalArgumentException("FULL_NAME_REQUIRED");
         }
@@ -58,33 +75,70 @@ public final class EmployeeDirectory {
             throw new IllegalArgumentException("NO_COMMAS_ALLOWED");
         }
 
-        String id = nextEmployeeId();
-        Employee emp = new Employee(id, username, passwordHash, role, branch, accountNumber, phone, fullName, nationalId);
-        byId.put(id, emp);
-        byUsername.put(username, emp);
-        save();
-        return emp;
+        writeLock.lock();
+        try {
+            if (byUsername.containsKey(username)) {
+                throw new IllegalArgumentException("USERNAME_ALREADY_EXISTS");
+            }
+            String id = nextEmployeeId();
+            Employee emp = new Employee(id, username, passwordHash, role, branch, accountNumber, phone, fullName, nationalId);
+            byId.put(id, emp);
+            byUsername.put(username, emp);
+            save();
+            return emp;
+        } finally {
+            writeLock.unlock();
+        }
     }
 
-    public synchronized boolean deleteById(String employeeId) {
-        Employee e = byId.remove(employeeId);
-        if (e != null) {
-            byUsername.remove(e.username());
-            saveSilently();
-            return true;
+    public boolean deleteById(String employeeId) {
+        writeLock.lock();
+        try {
+            Employee e = byId.remove(employeeId);
+            if (e != null) {
+                byUsername.remove(e.username());
+                saveSilently();
+                return true;
+            }
+            return false;
+        } finally {
+            writeLock.unlock();
         }
-        return false;
     }
 
     public Optional<Employee> findById(String employeeId) {
+        refreshIfChanged();
         return Optional.ofNullable(byId.get(employeeId));
     }
 
     public Optional<Employee> findByUsername(String username) {
+        refreshIfChanged();
         return Optional.ofNullable(byUsername.get(username));
     }
 
     public List<Employee> listAll() {
+        refreshIfChanged();
+        return snapshot();
+    }
+
+    /** Re-reads the file if another process changed it since it was loaded (rate limited). */
+    public void refreshIfChanged() {
+        long now = System.currentTimeMillis();
+        if (now < nextCheckAt) return;
+        nextCheckAt = now + RELOAD_CHECK_MS;
+        if (Objects.equals(stamp(), loaded)) return;
+
+        writeLock.lock();
+        try {
+            if (!Objects.equals(stamp(), loaded)) load();
+        } catch (IOException | RuntimeException e) {
+            // keep serving the current index; the next check retries
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private List<Employee> snapshot() {
         return byId.values().stream()
                 .sorted(Comparator.comparing(Employee::employeeId))
                 .toList();
@@ -93,32 +147,58 @@ public final class EmployeeDirectory {
 
     // ---------- I/O ----------
 
+    /**
+     * Reads the file and merges it into the maps row by row (no clear(), so concurrent
+     * lookups never see an empty directory). Malformed rows are skipped.
+     */
     private void load() throws IOException {
-        byId.clear(); byUsername.clear();
-        try (BufferedReader br = Files.newBufferedReader(EMP_FILE, StandardCharsets.UTF_8)) {
+        Stamp stamp = stamp();
+        Map<String, Employee> fresh = new LinkedHashMap<>();
+        try (BufferedReader br = Files.newBufferedReader(empFile, StandardCharsets.UTF_8)) {
             String line;
             while ((line = br.readLine()) != null) {
                 line = line.trim();
                 if (line.isEmpty() || line.startsWith("#")) continue;
-                Employee e = Employee.fromCsv(line);
-                byId.put(e.employeeId(), e);
-                byUsername.put(e.username(), e);
+                try {
+                    Employee e = Employee.fromCsv(line);
+                    fresh.put(e.employeeId(), e);
+                } catch (IllegalArgumentException ignored) { }
             }
         }
+        for (Employee old : byId.values()) {
+            if (!fresh.containsKey(old.employeeId())) {
+                byId.remove(old.employeeId());
+                byUsername.remove(old.username(), old);
+            }
+        }
+        for (Employee e : fresh.values()) {
+            Employee prev = byId.put(e.employeeId(), e);
+            if (prev != null && !prev.username().equals(e.username())) byUsername.remove(prev.username(), prev);
+            byUsername.put(e.username(), e);
+        }
+        loaded = stamp;
     }
 
     private void save() {
-        try (BufferedWriter bw = Files.newBufferedWriter(EMP_FILE, StandardCharsets.UTF_8,
-                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
-            for (Employee e : listAll()) {
-                bw.write(e.toCsv());
-                bw.newLine();
-            }
-        } catch (IOException e) {
+        List<String> lines = new ArrayList<>();
+        for (Employee e : snapshot()) lines.add(e.toCsv());
+        try {
+            FileDatabase.writeAtomically(empFile, lines);
+            loaded = stamp(); // our own write - nothing to reload
+        } catch (UncheckedIOException e) {
             throw new IllegalStateException("save employees failed", e);
         }
     }
 
+    private Stamp stamp() {
+        try {
+            BasicFileAttributes a = Files.readAttributes(empFile, BasicFileAttributes.class);
+            return new Stamp(a.lastModifiedTime(), a.size(), a.fileKey());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     private void saveSilently() { try { save(); } catch (Exception ignored) {} }
 
     // ---------- Helpers ----------
@@ -0,0 +1,123 @@
+package server.domain.employees;
+
+import server.util.Loggers;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Password hashing for logins.
+ *
+ * sha256() reuses one MessageDigest and output buffers per thread and encodes hex from a
+ * lookup table (no per-byte String.format).
+ *
+ * hash() runs sha256() on a small bounded pool instead of the connection thread, so a login
+ * burst can only use {@code auth.hashThreads} cores (default: half of them) and the rest stay
+ * free for SELL traffic. Up to {@code auth.hashQueue} requests wait (default 256); beyond that,
+ * or after {@code auth.hashTimeoutMs} (default 2000), the login is refused as busy.
+ */
+public final class PasswordHasher {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Per-thread digest plus its output buffers. */
+    private static final class Scratch {
+        final MessageDigest md;
+        final byte[] digest = new byte[32];
+        final char[] hex = new char[64];
+
+        Scratch() {
+            try {
+                md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /** Lower-case hex SHA-256 of s (platform charset, as stored in employees.txt). */
+    public static String sha256(String s) {
+        Scratch sc = SCRATCH.get();
+        sc.md.update(s.getBytes());
+        try {
+            sc.md.digest(sc.digest, 0, sc.digest.length); // also resets the digest
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        for (int i = 0; i < sc.digest.length; i++) {
+            int b = sc.digest[i] & 0xff;
+            sc.hex[2 * i] = HEX[b >>> 4];
+            sc.hex[2 * i + 1] = HEX[b & 0x0f];
+        }
+        return new String(sc.hex);
+    }
+
+    // ---------- bounded pool ----------
+
+    /** Counters since startup; queued/active are current values. */
+    public record Stats(long submitted, long completed, long rejected, long timedOut, int queued, int active) {}
+
+    private final ThreadPoolExecutor pool;
+    private final long timeoutMs;
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    public PasswordHasher(int threads, int queueCapacity, long timeoutMs) {
+        AtomicInteger n = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "auth-hash-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.timeoutMs = timeoutMs;
+    }
+
+    public static PasswordHasher fromSystemProperties() {
+        return new PasswordHasher(
+                Integer.getInteger("auth.hashThreads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                Integer.getInteger("auth.hashQueue", 256),
+                Long.getLong("auth.hashTimeoutMs", 2000));
+    }
+
+    /** sha256(password) computed on the hashing pool; null if the pool is saturated or too slow. */
+    public String hash(String password) {
+        submitted.increment();
+        Future<String> f;
+        try {
+            f = pool.submit(() -> sha256(password));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            Loggers.auth().warning("Password hashing queue full, login refused: " + stats());
+            return null;
+        }
+        try {
+            String h = f.get(timeoutMs, TimeUnit.MILLISECONDS);
+            completed.increment();
+            return h;
+        } catch (TimeoutException e) {
+            f.cancel(false);
+            timedOut.increment();
+            Loggers.auth().warning("Password hashing timed out, login refused: " + stats());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(submitted.sum(), completed.sum(), rejected.sum(), timedOut.sum(),
+                pool.getQueue().size(), pool.getActiveCount());
+    }
+}
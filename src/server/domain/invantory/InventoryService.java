@@ -1,5 +1,5 @@
 package server.domain.invantory;
-import server.util.FileDatabase;
+import server.domain.sales.SalesLedger;
 import server.util.Loggers;
 import server.shared.Branch;
 
@@ -7,150 +7,210 @@ import server.shared.Branch;
 import java.math.BigDecimal;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
-
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Branch-scoped inventory on top of the resident ProductCatalog.
+ * Locking is striped by Branch: work in one branch never waits for another branch.
+ * Reads take the branch read lock, stock changes take the branch write lock.
+ */
 public class InventoryService {
 
     public static record StockInfo(
             String sku, String category, Branch branch,
             int quantity, BigDecimal price) {}
 
-    private final FileDatabase productsDb = new FileDatabase(Path.of("data/products.txt"));
+    /** One requested cart line: sku + quantity to take out of stock. */
+    public static record CartLine(String sku, int quantity) {}
+
+    public enum CommitFailure { SKU_NOT_FOUND, NOT_ENOUGH_STOCK }
 
-    public synchronized List<Product> listByBranch(Branch branch) {
-        return productsDb.readAllLines().stream()
-                .filter(s -> !s.isBlank() && !s.startsWith("#"))
-                .map(this::parseProduct)
-                .filter(p -> p.branch() == branch)
-                .collect(Collectors.toList());
+    /**
+     * Outcome of {@link #commitSale}. On success {@code products} holds the product of each cart
+     * line (same order, as priced at commit time). On failure nothing was changed and
+     * {@code failedSku} names the offending line.
+     */
+    public static record CommitResult(CommitFailure failure, String failedSku, List<Product> products) {
+        public boolean ok() { return failure == null; }
+        static CommitResult success(List<Product> products) { return new CommitResult(null, null, products); }
+        static CommitResult failed(CommitFailure f, String sku) { return new CommitResult(f, sku, List.of()); }
     }
 
-    public synchronized Optional<Product> findProduct(Branch branch, String sku) {
-        return listByBranch(branch).stream().filter(p -> p.sku().equals(sku)).findFirst();
+    private final ProductCatalog catalog;
+    private final ReadWriteLock[] branchLocks = new ReadWriteLock[Branch.values().length];
+
+    public InventoryService() { this(Path.of("data/products.txt")); }
+
+    public InventoryService(Path productsFile) {
+        this.catalog = new ProductCatalog(ProductCatalog.openDb(productsFile));
+        for (int i = 0; i < branchLocks.length; i++) branchLocks[i] = new ReentrantReadWriteLock();
     }
 
-    public synchronized Optional<StockInfo> getStockInfo(Branch branch, String sku) {
+    public List<Product> listByBranch(Branch branch) {
+        ReadWriteLock lock = lockFor(branch);
+        lock.readLock().lock();
+        try {
+            return catalog.listByBranch(branch);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Optional<Product> findProduct(Branch branch, String sku) {
+        ReadWriteLock lock = lockFor(branch);
+        lock.readLock().lock();
+        try {
+            return catalog.find(branch, sku);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Optional<StockInfo> getStockInfo(Branch branch, String sku) {
         return findProduct(branch, sku)
                 .map(p -> new StockInfo(p.sku(), p.category(), p.branch(), p.quantity(), p.price()));
     }
 
 
 
-    public synchronized void updateQuantity(Branch branch, String sku, int delta) {
-        List<String> lines = productsDb.readAllLines();
-        boolean updated = false;
-        for (int i = 0; i < lines.size(); i++) {
-            String s = lines.get(i);
-            if (s.isBlank() || s.startsWith("#")) continue;
-            Product p = parseProduct(s);
-            if (p.branch() == branch && p.sku().equals(sku)) {
-                int newQuantity = Math.max(0, p.quantity() + delta);
-                Product np = new Product(p.sku(), p.category(), p.branch(), newQuantity, p.price());
-                lines.set(i, formatProduct(np));
-                productsDb.writeAllLines(lines);
-                updated = true;
-                
-                // Log the transaction
-                if (delta > 0) {
-                    Loggers.transactions().info(String.format("STOCK_ORDERED: Branch=%s, ID=%s, Category=%s, Quantity=%d, Price=%s", 
-                        branch.name(), sku, p.category(), delta, p.price()));
-                } else if (delta < 0) {
-                    Loggers.transactions().info(String.format("STOCK_SOLD: Branch=%s, ID=%s, Category=%s, Quantity=%d, Price=%s", 
-                        branch.name(), sku, p.category(), Math.abs(delta), p.price()));
-                }
-                break;
-            }
+    public void updateQuantity(Branch branch, String sku, int delta) {
+        Product p;
+        ReadWriteLock lock = lockFor(branch);
+        lock.writeLock().lock();
+        try {
+            p = catalog.find(branch, sku)
+                    .orElseThrow(() -> new IllegalStateException("SKU not found for update: " + sku + " at " + branch));
+            int newQuantity = Math.max(0, p.quantity() + delta);
+            catalog.save(new Product(p.sku(), p.category(), p.branch(), newQuantity, p.price()));
+        } finally {
+            lock.writeLock().unlock();
         }
-        if (!updated) throw new IllegalStateException("SKU not found for update: " + sku + " at " + branch);
-    }
 
-    public synchronized boolean removeProduct(Branch branch, String sku) {
-        java.util.List<String> lines = productsDb.readAllLines();
-        boolean removed = false;
-        java.util.List<String> out = new java.util.ArrayList<String>(lines.size());
-        Product removedProduct = null;
-        for (String s : lines) {
-            if (s.isBlank() || s.startsWith("#")) { out.add(s); continue; }
-            Product p = parseProduct(s);
-            if (p.branch() == branch && p.sku().equals(sku)) {
-                removed = true; // skip adding
-                removedProduct = p; // store for logging
-            } else {
-                out.add(s);
-            }
-        }
-        if (removed) {
-            productsDb.writeAllLines(out);
-            
-            // Log the transaction
-            if (removedProduct != null) {
-                Loggers.transactions().info(String.format("PRODUCT_REMOVED: Branch=%s, ID=%s, Category=%s, Quantity=%d, Price=%s", 
-                    branch.name(), sku, removedProduct.category(), removedProduct.quantity(), removedProduct.price()));
-            }
+        // Log the transaction
+        if (delta > 0) {
+            Loggers.info(Loggers.transactions(), "STOCK_ORDERED: Branch=%s, ID=%s, Category=%s, Quantity=%d, Price=%s", 
+                branch.name(), sku, p.category(), delta, p.price());
+        } else if (delta < 0) {
+            Loggers.info(Loggers.transactions(), "STOCK_SOLD: Branch=%s, ID=%s, Category=%s, Quantity=%d, Price=%s", 
+                branch.name(), sku, p.category(), Math.abs(delta), p.price());
         }
-        return removed;
     }
 
-    private Product parseProduct(String s) {
-        String[] t = s.split(",", -1); // sku,category,branch,quantity,price
-        Product p = new Product(
-                t[0], t[1], Branch.valueOf(t[2]),
-                Integer.parseInt(t[3]),
-                new BigDecimal(t[4])
-        );
-        return p;
-    }
+    public boolean removeProduct(Branch branch, String sku) {
+        Product removedProduct;
+        ReadWriteLock lock = lockFor(branch);
+        lock.writeLock().lock();
+        try {
+            removedProduct = catalog.delete(branch, sku);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (removedProduct == null) return false;
 
-    private String formatProduct(Product p) {
-        return String.join(",",
-                p.sku(), p.category(), p.branch().name(),
-                String.valueOf(p.quantity()), p.price().toPlainString()
-        );
+        // Log the transaction
+        Loggers.info(Loggers.transactions(), "PRODUCT_REMOVED: Branch=%s, ID=%s, Category=%s, Quantity=%d, Price=%s", 
+            branch.name(), sku, removedProduct.category(), removedProduct.quantity(), removedProduct.price());
+        return true;
     }
 
-    public synchronized String addNewProduct(Branch branch, String category, int quantity, BigDecimal price) {
+    public String addNewProduct(Branch branch, String category, int quantity, BigDecimal price) {
         if (quantity < 0) throw new IllegalArgumentException("quantity must be non-negative");
         if (price.compareTo(BigDecimal.ZERO) < 0) throw new IllegalArgumentException("price must be non-negative");
-
-        java.util.List<String> lines = productsDb.readAllLines();
-        // Allocate a unique numeric SKU
-        long maxNumeric = 1000;
-        for (String line : lines) {
-            if (line.isBlank() || line.startsWith("#")) continue;
-            String[] t = line.split(",", -1);
-            String skuStr = t[0];
-            try {
-                long val = Long.parseLong(skuStr);
-                if (val > maxNumeric) maxNumeric = val;
-            } catch (NumberFormatException ignored) { }
+        if (!SalesLedger.fitsText(category)) {
+            throw new IllegalArgumentException("category longer than " + SalesLedger.TEXT_BYTES + " bytes");
         }
-        String newSku = String.valueOf(maxNumeric + 1);
 
-        Product np = new Product(newSku, category, branch, quantity, price);
-        lines.add(formatProduct(np));
-        productsDb.writeAllLines(lines);
+        // Allocate a unique numeric SKU (shared across branches, so atomic rather than branch-locked)
+        String newSku = String.valueOf(catalog.nextNumericSku());
+
+        ReadWriteLock lock = lockFor(branch);
+        lock.writeLock().lock();
+        try {
+            catalog.save(new Product(newSku, category, branch, quantity, price));
+        } finally {
+            lock.writeLock().unlock();
+        }
         
         // Log the transaction
-        Loggers.transactions().info(String.format("PRODUCT_ADDED: Branch=%s, ID=%s, Category=%s, Quantity=%d, Price=%s", 
-            branch.name(), newSku, category, quantity, price));
+        Loggers.info(Loggers.transactions(), "PRODUCT_ADDED: Branch=%s, ID=%s, Category=%s, Quantity=%d, Price=%s", 
+            branch.name(), newSku, category, quantity, price);
         
         return newSku;
     }
+    /**
+     * All-or-nothing cart commit: checks every line and decrements all of them inside one
+     * critical section on the branch, then persists the new quantities as a single journal write.
+     * Repeated SKUs in the cart are checked against their combined quantity.
+     */
+    public CommitResult commitSale(Branch branch, List<CartLine> lines) {
+        if (lines == null || lines.isEmpty()) throw new IllegalArgumentException("empty cart");
+        List<Product> priced = new ArrayList<>(lines.size());
+        ReadWriteLock lock = lockFor(branch);
+        lock.writeLock().lock();
+        try {
+            Map<String, Integer> wanted = new LinkedHashMap<>();
+            for (CartLine ln : lines) {
+                if (ln.quantity() <= 0) throw new IllegalArgumentException("quantity must be > 0");
+                Optional<Product> op = catalog.find(branch, ln.sku());
+                if (op.isEmpty()) return CommitResult.failed(CommitFailure.SKU_NOT_FOUND, ln.sku());
+                priced.add(op.get());
+                wanted.merge(ln.sku(), ln.quantity(), Integer::sum);
+            }
+            List<Product> updated = new ArrayList<>(wanted.size());
+            for (Map.Entry<String, Integer> e : wanted.entrySet()) {
+                Product p = catalog.find(branch, e.getKey()).get();
+                if (p.quantity() < e.getValue()) return CommitResult.failed(CommitFailure.NOT_ENOUGH_STOCK, e.getKey());
+                updated.add(new Product(p.sku(), p.category(), p.branch(), p.quantity() - e.getValue(), p.price()));
+            }
+            catalog.saveAll(updated);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        // Log the transaction
+        for (int i = 0; i < lines.size(); i++) {
+            Product p = priced.get(i);
+            Loggers.info(Loggers.transactions(), "STOCK_SOLD: Branch=%s, ID=%s, Category=%s, Quantity=%d, Price=%s", 
+                branch.name(), p.sku(), p.category(), lines.get(i).quantity(), p.price());
+        }
+        return CommitResult.success(priced);
+    }
+
     // מחזיר מוצר כלשהו בקטגוריה (מועדף: במחיר הנמוך ביותר ובכמות > 0)
-    public synchronized Optional<Product> findAnyByCategory(Branch branch, String category) {
-        return listByBranch(branch).stream()
-                .filter(p -> p.category().equalsIgnoreCase(category) && p.quantity() > 0)
-                .sorted(Comparator.comparing(Product::price)) // הזול קודם
-                .findFirst();
+    public Optional<Product> findAnyByCategory(Branch branch, String category) {
+        ReadWriteLock lock = lockFor(branch);
+        lock.readLock().lock();
+        try {
+            return cheapestInStock(branch, category);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /** מוריד יחידה אחת ממוצר כלשהו בקטגוריה הנתונה ומעדכן מלאי. מחזיר true אם הצליח */
-    public synchronized boolean consumeOneByCategory(Branch branch, String category) {
-        Optional<Product> opt = findAnyByCategory(branch, category);
-        if (opt.isEmpty()) return false;
-        Product p = opt.get();
-        updateQuantity(branch, p.sku(), -1);
-        return true;
+    public boolean consumeOneByCategory(Branch branch, String category) {
+        ReadWriteLock lock = lockFor(branch);
+        lock.writeLock().lock();
+        try {
+            Optional<Product> opt = cheapestInStock(branch, category);
+            if (opt.isEmpty()) return false;
+            updateQuantity(branch, opt.get().sku(), -1); // re-entrant on the same branch lock
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
+    // ---------- helpers ----------
+
+    private Optional<Product> cheapestInStock(Branch branch, String category) {
+        return catalog.listByCategory(branch, category).stream()
+                .filter(p -> p.quantity() > 0)
+                .sorted(Comparator.comparing(Product::price)) // הזול קודם
+                .findFirst();
+    }
+
+    private ReadWriteLock lockFor(Branch branch) { return branchLocks[branch.ordinal()]; }
+
 }
@@ -0,0 +1,149 @@
+package server.domain.invantory;
+
+import server.shared.Branch;
+import server.util.JournaledFileDatabase;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resident copy of data/products.txt.
+ * The file is parsed once on construction; afterwards reads are served from memory:
+ *   byBranch    branch -> sku -> Product
+ *   byCategory  branch -> lower-case category -> sku -> Product
+ *
+ * Mutations are persisted row by row through the products journal (see JournaledFileDatabase).
+ * Per-branch structures are not thread-safe on their own - InventoryService guards each branch
+ * with its own lock. Only SKU allocation is shared across branches, and it is atomic.
+ * All branches append to the one journal, so save() briefly takes the journal's file-wide lock
+ * inside the branch lock. That lock covers only the write() of the record, never an fsync or a
+ * compaction, so a branch never waits on another branch's disk I/O.
+ */
+final class ProductCatalog {
+
+    private final JournaledFileDatabase db;
+    private final Map<Branch, Map<String, Product>> byBranch = new EnumMap<>(Branch.class);
+    private final Map<Branch, Map<String, Map<String, Product>>> byCategory = new EnumMap<>(Branch.class);
+    private final AtomicLong maxNumericSku = new AtomicLong(1000);
+
+    ProductCatalog(JournaledFileDatabase db) {
+        this.db = db;
+        for (Branch b : Branch.values()) {
+            byBranch.put(b, new LinkedHashMap<>());
+            byCategory.put(b, new HashMap<>());
+        }
+        // EnumMaps are fully populated here and never structurally modified afterwards
+        load();
+    }
+
+    // ---------- reads ----------
+
+    Optional<Product> find(Branch branch, String sku) {
+        return Optional.ofNullable(byBranch.get(branch).get(sku));
+    }
+
+    List<Product> listByBranch(Branch branch) {
+        return new ArrayList<>(byBranch.get(branch).values());
+    }
+
+    List<Product> listByCategory(Branch branch, String category) {
+        Map<String, Product> m = byCategory.get(branch).get(categoryKey(category));
+        return m == null ? new ArrayList<>() : new ArrayList<>(m.values());
+    }
+
+    /** Next free numeric SKU (unique across all branches). */
+    long nextNumericSku() { return maxNumericSku.incrementAndGet(); }
+
+    // ---------- writes ----------
+
+    /** Insert or replace the row for (product.branch, product.sku) and journal it. */
+    void save(Product p) {
+        put(p);
+        db.put(format(p));
+    }
+
+    /** Like save() for several rows, journaled as one write. */
+    void saveAll(List<Product> products) {
+        List<String> lines = new ArrayList<>(products.size());
+        for (Product p : products) {
+            put(p);
+            lines.add(format(p));
+        }
+        db.putAll(lines);
+    }
+
+    /** Remove the row and journal the delete. Returns the removed product or null. */
+    Product delete(Branch branch, String sku) {
+        Product old = remove(branch, sku);
+        if (old != null) db.delete(sku + "," + branch.name());
+        return old;
+    }
+
+    /** Row key used by the journal: sku,branch (columns 0 and 2). */
+    static JournaledFileDatabase openDb(Path file) {
+        return new JournaledFileDatabase(file, JournaledFileDatabase.keyByColumns(0, 2));
+    }
+
+    // ---------- helpers ----------
+
+    private void put(Product p) {
+        Product old = byBranch.get(p.branch()).put(p.sku(), p);
+        if (old != null) unindexCategory(old);
+        byCategory.get(p.branch())
+                .computeIfAbsent(categoryKey(p.category()), k -> new LinkedHashMap<>())
+                .put(p.sku(), p);
+        trackSku(p.sku());
+    }
+
+    private Product remove(Branch branch, String sku) {
+        Product old = byBranch.get(branch).remove(sku);
+        if (old == null) return null;
+        unindexCategory(old);
+        return old;
+    }
+
+    // ---------- CSV ----------
+
+    static Product parse(String s) {
+        String[] t = s.split(",", -1); // sku,category,branch,quantity,price
+        return new Product(
+                t[0], t[1], Branch.valueOf(t[2]),
+                Integer.parseInt(t[3]),
+                new BigDecimal(t[4])
+        );
+    }
+
+    static String format(Product p) {
+        return String.join(",",
+                p.sku(), p.category(), p.branch().name(),
+                String.valueOf(p.quantity()), p.price().toPlainString()
+        );
+    }
+
+    private void load() {
+        for (String s : db.readAllLines()) {
+            if (s.isBlank() || s.startsWith("#")) continue;
+            put(parse(s));
+        }
+    }
+
+    private void unindexCategory(Product p) {
+        Map<String, Map<String, Product>> cats = byCategory.get(p.branch());
+        String ck = categoryKey(p.category());
+        Map<String, Product> m = cats.get(ck);
+        if (m == null) return;
+        m.remove(p.sku());
+        if (m.isEmpty()) cats.remove(ck);
+    }
+
+    private void trackSku(String sku) {
+        try {
+            long v = Long.parseLong(sku);
+            maxNumericSku.accumulateAndGet(v, Math::max);
+        } catch (NumberFormatException ignored) { }
+    }
+
+    private static String categoryKey(String category) { return category.toLowerCase(Locale.ROOT); }
+}
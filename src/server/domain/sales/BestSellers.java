@@ -0,0 +1,123 @@
+package server.domain.sales;
+
+import server.shared.Branch;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Approximate best-selling SKUs (by units) per branch over a recent window, in bounded memory.
+ *
+ * Each branch keeps a ring of time buckets ({@code bestsellers.bucketMs}, default 5 min) covering
+ * {@code bestsellers.maxWindowMs} (default 24 h). Each bucket is a Space-Saving summary of at most
+ * {@code bestsellers.capacity} SKUs (default 128): when a SKU that isn't tracked arrives and the
+ * bucket is full, it replaces the SKU with the smallest count and inherits that count as its
+ * possible overestimate. Memory is therefore branches x buckets x capacity, whatever the catalog size.
+ *
+ * top() adds up the buckets of the window (rounded up to whole buckets). An entry's units may be
+ * overcounted by at most maxError. They can also miss a bucket in which the SKU sold too little
+ * to be tracked, i.e. less than that bucket's units / capacity.
+ */
+public final class BestSellers {
+
+    private static final long BUCKET_MS = Long.getLong("bestsellers.bucketMs", 5 * 60_000L);
+    private static final long MAX_WINDOW_MS = Long.getLong("bestsellers.maxWindowMs", 24 * 3600_000L);
+    private static final int CAPACITY = Integer.getInteger("bestsellers.capacity", 128);
+
+    /** One ranked SKU: estimated units sold in the window, and by how much that may be overcounted. */
+    public record Entry(String sku, long units, long maxError) {}
+
+    /** Space-Saving summary for one time bucket. */
+    private static final class Bucket {
+        long index = -1; // BUCKET_MS slot number since the epoch, -1 = unused
+        final Map<String, long[]> counters = new HashMap<>(); // sku -> {count, error}
+
+        void add(String sku, long units) {
+            long[] c = counters.get(sku);
+            if (c != null) {
+                c[0] += units;
+            } else if (counters.size() < CAPACITY) {
+                counters.put(sku, new long[]{units, 0});
+            } else {
+                String minSku = null;
+                long[] min = null;
+                for (Map.Entry<String, long[]> e : counters.entrySet()) {
+                    if (min == null || e.getValue()[0] < min[0]) { min = e.getValue(); minSku = e.getKey(); }
+                }
+                counters.remove(minSku);
+                counters.put(sku, new long[]{min[0] + units, min[0]});
+            }
+        }
+    }
+
+    private static final class BranchWindow {
+        final ReentrantLock lock = new ReentrantLock();
+        // +1: a window also takes the partly covered bucket at its start
+        final Bucket[] ring = new Bucket[(int) ((MAX_WINDOW_MS + BUCKET_MS - 1) / BUCKET_MS) + 1];
+
+        BranchWindow() {
+            for (int i = 0; i < ring.length; i++) ring[i] = new Bucket();
+        }
+    }
+
+    private final BranchWindow[] branches = new BranchWindow[Branch.values().length];
+
+    public BestSellers() {
+        for (int i = 0; i < branches.length; i++) branches[i] = new BranchWindow();
+    }
+
+    /** Loads the sales of the last max window from the ledger (through its time index). */
+    public void warmUp(SalesLedger ledger, long nowMs) {
+        ledger.query(null, nowMs - MAX_WINDOW_MS, nowMs + 1, r -> {
+            if (!r.isSale()) add(r.branch(), r.timestamp(), r.sku(), r.count());
+        });
+    }
+
+    /** Counts units of sku sold at timestampMs; sales older than the max window are ignored. */
+    public void add(Branch branch, long timestampMs, String sku, long units) {
+        long index = Math.floorDiv(timestampMs, BUCKET_MS);
+        BranchWindow w = branches[branch.ordinal()];
+        w.lock.lock();
+        try {
+            Bucket b = w.ring[(int) Math.floorMod(index, (long) w.ring.length)];
+            if (b.index > index) return; // its slot already holds a newer bucket
+            if (b.index != index) {
+                b.index = index;
+                b.counters.clear();
+            }
+            b.add(sku, units);
+        } finally {
+            w.lock.unlock();
+        }
+    }
+
+    /** The k SKUs with the most units sold in branch during the last windowMs (capped at the max window). */
+    public List<Entry> top(Branch branch, long windowMs, int k, long nowMs) {
+        long last = Math.floorDiv(nowMs, BUCKET_MS);
+        long first = Math.floorDiv(nowMs - Math.min(windowMs, MAX_WINDOW_MS), BUCKET_MS);
+        Map<String, long[]> merged = new HashMap<>(); // sku -> {units, error}
+        BranchWindow w = branches[branch.ordinal()];
+        w.lock.lock();
+        try {
+            for (long i = first; i <= last; i++) {
+                Bucket b = w.ring[(int) Math.floorMod(i, (long) w.ring.length)];
+                if (b.index != i) continue;
+                for (Map.Entry<String, long[]> e : b.counters.entrySet()) {
+                    long[] m = merged.computeIfAbsent(e.getKey(), x -> new long[2]);
+                    m[0] += e.getValue()[0];
+                    m[1] += e.getValue()[1];
+                }
+            }
+        } finally {
+            w.lock.unlock();
+        }
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Comparator.comparingLong(Entry::units));
+        for (Map.Entry<String, long[]> e : merged.entrySet()) {
+            heap.add(new Entry(e.getKey(), e.getValue()[0], e.getValue()[1]));
+            if (heap.size() > k) heap.poll();
+        }
+        List<Entry> out = new ArrayList<>(heap);
+        out.sort(Comparator.comparingLong(Entry::units).reversed().thenComparing(Entry::sku));
+        return out;
+    }
+}
@@ -0,0 +1,253 @@
+package server.domain.sales;
+
+import server.shared.Branch;
+import server.util.FileDatabase;
+import server.util.Loggers;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Running sales totals by branch x day x category x customer type: revenue, units, discount
+ * total and gift shirts (counted under category SHIRT, the stock they are taken from).
+ *
+ * Fed by the ledger (SalesLedger.follow): every durable sale is added once, in ledger order,
+ * right after its group commit. A report walks the groups of the requested days and never
+ * reads the sales themselves.
+ *
+ * Checkpoint: the totals and the ledger seq they cover are written to the checkpoint file
+ * (CSV, atomic rename) every {@code sales.checkpointMs} (default 60000) and at shutdown.
+ * On startup the checkpoint is loaded and only the ledger records after that seq are replayed;
+ * without one (or if it doesn't match the ledger) everything is rebuilt from the ledger.
+ */
+public final class SalesAggregates implements AutoCloseable {
+
+    private static final long CHECKPOINT_MS = Long.getLong("sales.checkpointMs", 60_000);
+    static final String GIFT_CATEGORY = "SHIRT";
+
+    private static final int REVENUE = 0, UNITS = 1, DISCOUNT = 2, GIFTS = 3;
+
+    private static final ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sales-checkpoint");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final List<SalesAggregates> open = Collections.synchronizedList(new ArrayList<>());
+
+    static {
+        checkpointer.scheduleWithFixedDelay(SalesAggregates::checkpointAll, CHECKPOINT_MS, CHECKPOINT_MS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(SalesAggregates::checkpointAll));
+    }
+
+    /** Report grouping. */
+    public enum Dimension { BRANCH, DAY, CATEGORY, TYPE }
+
+    /** Totals of one report group; dimensions the report is not grouped by are null. */
+    public record Row(Branch branch, LocalDate day, String category, String customerType,
+                      long revenueCents, long units, long discountCents, long gifts) {
+        public BigDecimal revenue()       { return BigDecimal.valueOf(revenueCents, 2); }
+        public BigDecimal discountTotal() { return BigDecimal.valueOf(discountCents, 2); }
+    }
+
+    private record Key(int branch, String category, int customerType) {}
+
+    private final Path checkpoint;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final NavigableMap<Long, Map<Key, long[]>> days = new TreeMap<>(); // epoch day -> group -> totals
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long appliedSeq;               // next ledger seq to apply; guarded by lock
+    private volatile long checkpointedSeq = -1;
+
+    // local day of the last applied record (records arrive roughly in time order); guarded by lock
+    private long dayStart = Long.MAX_VALUE, dayEnd = Long.MIN_VALUE, epochDay;
+
+    public SalesAggregates(SalesLedger ledger, Path checkpoint) {
+        this.checkpoint = checkpoint;
+        load();
+        if (appliedSeq > ledger.size()) {
+            Loggers.system().warning("Sales aggregates checkpoint " + checkpoint + " is ahead of the ledger ("
+                    + appliedSeq + " > " + ledger.size() + "); rebuilding from the ledger");
+            days.clear();
+            appliedSeq = 0;
+        }
+        long from = appliedSeq;
+        long t0 = System.nanoTime();
+        ledger.follow(from, this::apply);
+        Loggers.system().info(String.format("Sales aggregates: replayed %d ledger records from seq %d in %d ms",
+                appliedSeq() - from, from, (System.nanoTime() - t0) / 1_000_000));
+        open.add(this);
+    }
+
+    /** Adds one ledger record; called in seq order by the ledger. */
+    void apply(SalesLedger.Record r) {
+        lock.writeLock().lock();
+        try {
+            if (r.seq() < appliedSeq) return;
+            long day = dayOf(r.timestamp());
+            if (r.isSale()) {
+                if (r.giftGiven()) totals(day, r.branchOrdinal(), GIFT_CATEGORY, r.customerTypeOrdinal())[GIFTS]++;
+            } else {
+                long[] t = totals(day, r.branchOrdinal(), r.category(), r.customerTypeOrdinal());
+                t[REVENUE] += r.totalCents();
+                t[UNITS] += r.count();
+                t[DISCOUNT] += r.discountCents();
+            }
+            appliedSeq = r.seq() + 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Ledger seq up to which sales are counted. */
+    public long appliedSeq() {
+        lock.readLock().lock();
+        try {
+            return appliedSeq;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Totals for branch (null = all branches) over the days [from, to], one row per distinct
+     * value of the {@code by} dimensions, sorted by them. Cost is the number of groups in those days.
+     */
+    public List<Row> report(Branch branch, LocalDate from, LocalDate to, Set<Dimension> by) {
+        boolean byBranch = by.contains(Dimension.BRANCH), byDay = by.contains(Dimension.DAY);
+        boolean byCategory = by.contains(Dimension.CATEGORY), byType = by.contains(Dimension.TYPE);
+        Map<Row, long[]> rows = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<Long, Map<Key, long[]>> d : days.subMap(from.toEpochDay(), true, to.toEpochDay(), true).entrySet()) {
+                LocalDate day = byDay ? LocalDate.ofEpochDay(d.getKey()) : null;
+                for (Map.Entry<Key, long[]> g : d.getValue().entrySet()) {
+                    Key k = g.getKey();
+                    if (branch != null && k.branch() != branch.ordinal()) continue;
+                    Row group = new Row(byBranch ? Branch.values()[k.branch()] : null, day,
+                            byCategory ? k.category() : null,
+                            byType ? SalesLedger.CUSTOMER_TYPES[k.customerType()] : null, 0, 0, 0, 0);
+                    long[] sum = rows.computeIfAbsent(group, x -> new long[4]);
+                    long[] t = g.getValue();
+                    for (int i = 0; i < 4; i++) sum[i] += t[i];
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Row> out = new ArrayList<>(rows.size());
+        for (Map.Entry<Row, long[]> e : rows.entrySet()) {
+            Row g = e.getKey();
+            long[] t = e.getValue();
+            out.add(new Row(g.branch(), g.day(), g.category(), g.customerType(), t[REVENUE], t[UNITS], t[DISCOUNT], t[GIFTS]));
+        }
+        out.sort(Comparator.comparing(Row::branch, Comparator.nullsFirst(Comparator.<Branch>naturalOrder()))
+                .thenComparing(Row::day, Comparator.nullsFirst(Comparator.<LocalDate>naturalOrder()))
+                .thenComparing(Row::category, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+                .thenComparing(Row::customerType, Comparator.nullsFirst(Comparator.<String>naturalOrder())));
+        return out;
+    }
+
+    // ---------- checkpoint ----------
+
+    /** Writes the totals and their ledger seq now, unless nothing changed since the last checkpoint. */
+    public void checkpoint() {
+        List<String> lines = new ArrayList<>();
+        long seq;
+        lock.readLock().lock();
+        try {
+            seq = appliedSeq;
+            if (seq == checkpointedSeq) return;
+            lines.add("seq=" + seq);
+            lines.add("# day,branch,category,customerType,revenueCents,units,discountCents,gifts");
+            for (Map.Entry<Long, Map<Key, long[]>> d : days.entrySet()) {
+                String day = LocalDate.ofEpochDay(d.getKey()).toString();
+                for (Map.Entry<Key, long[]> g : d.getValue().entrySet()) {
+                    Key k = g.getKey();
+                    long[] t = g.getValue();
+                    lines.add(String.join(",", day, Branch.values()[k.branch()].name(), k.category(),
+                            SalesLedger.CUSTOMER_TYPES[k.customerType()], String.valueOf(t[REVENUE]),
+                            String.valueOf(t[UNITS]), String.valueOf(t[DISCOUNT]), String.valueOf(t[GIFTS])));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        FileDatabase.writeAtomically(checkpoint, lines);
+        checkpointedSeq = seq;
+    }
+
+    /** Final checkpoint; the periodic/shutdown checkpoints stop covering this instance. */
+    @Override
+    public void close() {
+        open.remove(this);
+        checkpointQuietly();
+    }
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (Exception e) {
+            Loggers.system().severe("Sales aggregates checkpoint failed for " + checkpoint + ": " + e.getMessage());
+        }
+    }
+
+    private static void checkpointAll() {
+        SalesAggregates[] all;
+        synchronized (open) { all = open.toArray(new SalesAggregates[0]); }
+        for (SalesAggregates a : all) a.checkpointQuietly();
+    }
+
+    private void load() {
+        List<String> lines = new FileDatabase(checkpoint).readAllLines();
+        if (lines.isEmpty()) return;
+        try {
+            if (!lines.get(0).startsWith("seq=")) throw new IllegalArgumentException("missing seq line");
+            long seq = Long.parseLong(lines.get(0).substring(4).trim());
+            for (int i = 1; i < lines.size(); i++) {
+                String line = lines.get(i).trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] t = line.split(",", -1);
+                if (t.length < 8) throw new IllegalArgumentException("bad row: " + line);
+                long[] totals = totals(LocalDate.parse(t[0]).toEpochDay(), Branch.valueOf(t[1]).ordinal(), t[2],
+                        SalesLedger.customerTypeCode(t[3]));
+                totals[REVENUE] += Long.parseLong(t[4]);
+                totals[UNITS] += Long.parseLong(t[5]);
+                totals[DISCOUNT] += Long.parseLong(t[6]);
+                totals[GIFTS] += Long.parseLong(t[7]);
+            }
+            appliedSeq = seq;
+            checkpointedSeq = seq;
+        } catch (RuntimeException e) {
+            Loggers.system().warning("Sales aggregates checkpoint " + checkpoint + " unreadable (" + e.getMessage()
+                    + "); rebuilding from the ledger");
+            days.clear();
+            appliedSeq = 0;
+        }
+    }
+
+    // ---------- helpers ----------
+
+    private long[] totals(long day, int branch, String category, int customerType) {
+        return days.computeIfAbsent(day, d -> new HashMap<>())
+                .computeIfAbsent(new Key(branch, category, customerType), k -> new long[4]);
+    }
+
+    private long dayOf(long ts) {
+        if (ts < dayStart || ts >= dayEnd) {
+            LocalDate d = Instant.ofEpochMilli(ts).atZone(zone).toLocalDate();
+            epochDay = d.toEpochDay();
+            dayStart = d.atStartOfDay(zone).toInstant().toEpochMilli();
+            dayEnd = d.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+        return epochDay;
+    }
+}
@@ -0,0 +1,653 @@
+package server.domain.sales;
+
+import server.shared.Branch;
+import server.util.Loggers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Append-only binary sales ledger (data/sales/). data/sales.txt only documents the columns;
+ * the records themselves live here.
+ *
+ * Files: sales-&lt;first record seq, 20 digits&gt;.seg, rotated at {@code sales.segmentBytes}
+ * (default 64 MB). Every record is RECORD_SIZE bytes; a sale is one SALE record followed by
+ * its LINE records, and never spans two segments. Record layout (big-endian):
+ *
+ *   off  len  SALE                         LINE
+ *    0    1   type = 1                     type = 2
+ *    1    1   branch ordinal               branch ordinal
+ *    2    1   customer type (NEW/RET/VIP)  customer type
+ *    3    1   flags (1 = gift shirt given) flags
+ *    4    4   line count                   quantity
+ *    8    8   sale id (= its own seq)      sale id
+ *   16    8   timestamp (epoch ms)         timestamp
+ *   24   16   customer id                  customer id
+ *   40    8   base total (agorot)          unit price (agorot)
+ *   48    8   discount total               line discount
+ *   56    8   final total                  line total
+ *   64   16   -                            sku
+ *   80   16   -                            category
+ *
+ * Text fields hold at most TEXT_BYTES bytes of UTF-8; customers and products with longer ids or
+ * categories are refused when they are created, and append() throws rather than cut one short.
+ *
+ * Group commit: append() hands the encoded sale to one writer thread, which writes every sale
+ * queued meanwhile in one go, forces the segment once, and then releases all the waiting callers.
+ * A sale is durable when append() returns. If a write fails, the segment is cut back to the end
+ * of the last committed sale and the batch's callers get the error; if even that fails, the
+ * ledger refuses further appends rather than write at offsets that no longer match their seq.
+ * On open, a torn tail (partial record or a sale missing lines) is cut off the last segment.
+ *
+ * Reads go through read-only memory mappings of the segments (the tail segment is remapped as
+ * it grows). Each segment has a sparse index: for every INDEX_BLOCK records, the min/max
+ * timestamp and a bitmap of the branches in them, plus the same summary for the whole segment.
+ * query() uses it to skip segments and blocks that cannot match, so a range query only touches
+ * the pages of the blocks it reads. A full segment's index is saved next to it
+ * (sales-&lt;seq&gt;.idx) when the ledger rotates; the tail segment's is rebuilt on open.
+ * Timestamps only need to be roughly ordered (concurrent cashiers interleave) - a block's
+ * min/max bound whatever is in it.
+ *
+ * follow() registers one consumer (the sales aggregates) that sees every durable record exactly
+ * once and in seq order: first the ones it missed since fromSeq, then each batch right after its
+ * group commit, on the writer thread.
+ */
+public final class SalesLedger implements AutoCloseable {
+
+    public static final int RECORD_SIZE = 96;
+    public static final byte SALE = 1;
+    public static final byte LINE = 2;
+    public static final int FLAG_GIFT = 1;
+    /** Room for a customer id, SKU or category in a record (UTF-8 bytes). */
+    public static final int TEXT_BYTES = 16;
+
+    static final String[] CUSTOMER_TYPES = {"NEW", "RETURNING", "VIP"};
+
+    // segments are mapped whole, so they must stay under 2 GB
+    private static final long SEGMENT_BYTES =
+            Math.min(Long.getLong("sales.segmentBytes", 64L << 20), Integer.MAX_VALUE) / RECORD_SIZE * RECORD_SIZE;
+    private static final int MAX_BATCH = 1024;
+    /** Records per sparse index entry (96 KB of segment). */
+    static final int INDEX_BLOCK = 1024;
+    private static final int INDEX_MAGIC = 0x53494458; // "SIDX"
+
+    private final Path dir;
+    private final List<Segment> segments = new ArrayList<>(); // guarded by this
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+    // appends check closed and enqueue under the read lock; close() flips it under the write lock,
+    // so nothing is queued after the writer's last look at the queue
+    private final ReentrantReadWriteLock enqueueLock = new ReentrantReadWriteLock();
+    /** Set when a failed batch could not be cut off the segment; no append succeeds after it. */
+    private volatile IOException failed;
+
+    /** Writer thread only: open channel on the last segment, and the next seq to assign. */
+    private FileChannel tail;
+    private long nextSeq;
+    /** Records below this seq are on disk and visible to scan()/query(). */
+    private volatile long durableSeq;
+
+    private final ReentrantLock followLock = new ReentrantLock();
+    private Visitor follower;  // guarded by followLock
+    private long followedSeq;  // next seq the follower has not seen; guarded by followLock
+
+    /** A segment file with its sparse index and current mapping (both guarded by the segment). */
+    private static final class Segment {
+        final long firstSeq;
+        final Path path;
+
+        long[] minTs = new long[16];
+        long[] maxTs = new long[16];
+        int[] branches = new int[16];
+        int blocks;
+        long segMin = Long.MAX_VALUE, segMax = Long.MIN_VALUE;
+        int segBranches;
+
+        private MappedByteBuffer map;
+        private long mappedRecords;
+
+        Segment(long firstSeq, Path path) {
+            this.firstSeq = firstSeq;
+            this.path = path;
+        }
+
+        Path indexPath() {
+            String name = path.getFileName().toString();
+            return path.resolveSibling(name.substring(0, name.length() - 4) + ".idx");
+        }
+
+        /** Adds record #i of this segment to the index. */
+        synchronized void index(long i, long ts, int branchOrdinal) {
+            int b = (int) (i / INDEX_BLOCK);
+            if (b >= minTs.length) {
+                int n = Math.max(b + 1, minTs.length * 2);
+                minTs = Arrays.copyOf(minTs, n);
+                maxTs = Arrays.copyOf(maxTs, n);
+                branches = Arrays.copyOf(branches, n);
+            }
+            for (; blocks <= b; blocks++) {
+                minTs[blocks] = Long.MAX_VALUE;
+                maxTs[blocks] = Long.MIN_VALUE;
+                branches[blocks] = 0;
+            }
+            int bit = 1 << branchOrdinal;
+            if (ts < minTs[b]) minTs[b] = ts;
+            if (ts > maxTs[b]) maxTs[b] = ts;
+            branches[b] |= bit;
+            if (ts < segMin) segMin = ts;
+            if (ts > segMax) segMax = ts;
+            segBranches |= bit;
+        }
+
+        /**
+         * Blocks among the first {@code records} that may hold a record in [fromMs, toMs) for one
+         * of the branches in mask; empty if the whole segment can be skipped.
+         */
+        synchronized int[] candidates(long records, long fromMs, long toMs, int mask) {
+            if (segMax < fromMs || segMin >= toMs || (segBranches & mask) == 0) return new int[0];
+            int usable = (int) Math.min(blocks, (records + INDEX_BLOCK - 1) / INDEX_BLOCK);
+            int[] out = new int[usable];
+            int n = 0;
+            for (int b = 0; b < usable; b++) {
+                if (maxTs[b] >= fromMs && minTs[b] < toMs && (branches[b] & mask) != 0) out[n++] = b;
+            }
+            return Arrays.copyOf(out, n);
+        }
+
+        /** A read-only mapping covering at least the first {@code records} records. */
+        synchronized ByteBuffer mapped(long records) throws IOException {
+            if (map == null || mappedRecords < records) {
+                try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+                    map = ch.map(FileChannel.MapMode.READ_ONLY, 0, records * RECORD_SIZE);
+                }
+                mappedRecords = records;
+            }
+            return map;
+        }
+    }
+
+    private static final class Pending {
+        final ByteBuffer records;
+        final CompletableFuture<Long> done = new CompletableFuture<>();
+        Pending(ByteBuffer records) { this.records = records; }
+    }
+
+    public SalesLedger(Path dir) {
+        this.dir = dir;
+        try {
+            Files.createDirectories(dir);
+            openSegments();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.writer = new Thread(this::writeLoop, "sales-ledger");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // ---------- writing ----------
+
+    /** One sale line to append. */
+    public record Line(String sku, String category, int quantity, long unitCents, long discountCents, long totalCents) {}
+
+    /**
+     * Appends a sale and its lines; returns the sale id once the records are on disk.
+     * Concurrent callers share one write + fsync.
+     */
+    public long append(long timestampMs, Branch branch, String customerId, String customerType,
+                       long baseCents, long discountCents, long finalCents, boolean giftGiven, List<Line> lines) {
+        if (failed != null) throw new IllegalStateException("ledger failed", failed);
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE * (1 + lines.size()));
+        byte typeCode = customerTypeCode(customerType);
+        byte flags = (byte) (giftGiven ? FLAG_GIFT : 0);
+
+        header(buf, SALE, branch, typeCode, flags, lines.size(), timestampMs, customerId);
+        buf.putLong(baseCents).putLong(discountCents).putLong(finalCents);
+        buf.position(buf.position() + 32);
+        for (Line l : lines) {
+            header(buf, LINE, branch, typeCode, flags, l.quantity(), timestampMs, customerId);
+            buf.putLong(l.unitCents()).putLong(l.discountCents()).putLong(l.totalCents());
+            putString(buf, l.sku(), TEXT_BYTES);
+            putString(buf, l.category(), TEXT_BYTES);
+        }
+        buf.flip();
+
+        Pending p = new Pending(buf);
+        enqueueLock.readLock().lock();
+        try {
+            if (closed) throw new IllegalStateException("ledger closed");
+            queue.add(p);
+        } finally {
+            enqueueLock.readLock().unlock();
+        }
+        return p.done.join();
+    }
+
+    private static void header(ByteBuffer buf, byte type, Branch branch, byte customerType, byte flags,
+                               int count, long timestampMs, String customerId) {
+        buf.put(type).put((byte) branch.ordinal()).put(customerType).put(flags).putInt(count);
+        buf.putLong(0L); // sale id, filled in by the writer
+        buf.putLong(timestampMs);
+        putString(buf, customerId, TEXT_BYTES);
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                // polled rather than interrupted on close: an interrupt would close the channel mid-write
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                if (failed != null) {
+                    for (Pending p : batch) p.done.completeExceptionally(new IllegalStateException("ledger failed", failed));
+                } else {
+                    writeBatch(batch);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes and commits a batch. Sales before a segment rotation are committed at the rotation
+     * (they are forced there anyway); on failure only the uncommitted rest fails, and is cut off.
+     */
+    private void writeBatch(List<Pending> batch) {
+        int committed = 0; // batch[0, committed) is durable and its callers released
+        try {
+            for (int k = 0; k < batch.size(); k++) {
+                Pending p = batch.get(k);
+                int n = p.records.remaining() / RECORD_SIZE;
+                Segment seg = currentSegment();
+                long used = (nextSeq - seg.firstSeq) * RECORD_SIZE;
+                if (used > 0 && used + p.records.remaining() > SEGMENT_BYTES) {
+                    tail.force(false);
+                    commit(batch.subList(committed, k));
+                    committed = k;
+                    tail.close();
+                    tail = null;
+                    writeIndex(seg);
+                    seg = addSegment(nextSeq);
+                }
+                if (tail == null) {
+                    tail = FileChannel.open(seg.path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                }
+                for (int i = 0; i < n; i++) {
+                    int off = i * RECORD_SIZE;
+                    p.records.putLong(off + 8, nextSeq);
+                    seg.index(nextSeq - seg.firstSeq + i, p.records.getLong(off + 16), p.records.get(off + 1));
+                }
+                while (p.records.hasRemaining()) tail.write(p.records);
+                nextSeq += n;
+            }
+            tail.force(false);
+            commit(batch.subList(committed, batch.size()));
+        } catch (IOException | RuntimeException e) {
+            Loggers.system().severe("Sales ledger write failed: " + e);
+            rollback();
+            for (Pending p : batch.subList(committed, batch.size())) p.done.completeExceptionally(e);
+        }
+    }
+
+    private void commit(List<Pending> written) {
+        if (written.isEmpty()) return;
+        durableSeq = nextSeq;
+        for (Pending p : written) p.done.complete(p.records.getLong(8));
+        publish(written);
+    }
+
+    /**
+     * Cuts whatever the failed batch wrote off the tail segment, so the next append lands at the
+     * offset its seq says. The index may keep the cut records' timestamps; that only widens a
+     * block's min/max, which queries tolerate.
+     */
+    private void rollback() {
+        nextSeq = durableSeq;
+        if (tail == null) return;
+        try {
+            tail.truncate((nextSeq - currentSegment().firstSeq) * RECORD_SIZE);
+            tail.force(false);
+        } catch (IOException e) {
+            failed = e;
+            Loggers.system().severe("Sales ledger cannot cut back a failed write, refusing further sales: " + e);
+            try { tail.close(); } catch (IOException ignored) {}
+            tail = null;
+        }
+    }
+
+    /** Hands a committed batch to the follower (records it already replayed are skipped). */
+    private void publish(List<Pending> batch) {
+        followLock.lock();
+        try {
+            if (follower == null) return;
+            Record r = new Record();
+            for (Pending p : batch) {
+                long first = p.records.getLong(8);
+                for (int off = 0, i = 0; off < p.records.limit(); off += RECORD_SIZE, i++) {
+                    if (first + i < followedSeq) continue;
+                    r.at(p.records, off, first + i);
+                    try {
+                        follower.visit(r);
+                    } catch (RuntimeException e) {
+                        Loggers.system().severe("Sales ledger follower failed at seq " + (first + i) + ": " + e);
+                    }
+                    followedSeq = first + i + 1;
+                }
+            }
+        } finally {
+            followLock.unlock();
+        }
+    }
+
+    // ---------- reading ----------
+
+    /** Read-only view of the record the scan is positioned on; only valid inside visit(). */
+    public static final class Record {
+        private ByteBuffer buf;
+        private int off;
+        private long seq;
+
+        public long seq()            { return seq; }
+        public byte type()           { return buf.get(off); }
+        public boolean isSale()      { return type() == SALE; }
+        public Branch branch()       { return Branch.values()[buf.get(off + 1)]; }
+        public int branchOrdinal()   { return buf.get(off + 1); }
+        public String customerType() { return CUSTOMER_TYPES[buf.get(off + 2)]; }
+        public int customerTypeOrdinal() { return buf.get(off + 2); }
+        public boolean giftGiven()   { return (buf.get(off + 3) & FLAG_GIFT) != 0; }
+        /** SALE: number of lines; LINE: quantity. */
+        public int count()           { return buf.getInt(off + 4); }
+        public long saleId()         { return buf.getLong(off + 8); }
+        public long timestamp()      { return buf.getLong(off + 16); }
+        public String customerId()   { return getString(buf, off + 24, TEXT_BYTES); }
+        /** SALE: base total; LINE: unit price (agorot). */
+        public long baseOrUnitCents() { return buf.getLong(off + 40); }
+        /** Discount (agorot). */
+        public long discountCents()  { return buf.getLong(off + 48); }
+        /** SALE: final total; LINE: line total (agorot). */
+        public long totalCents()     { return buf.getLong(off + 56); }
+        public String sku()          { return getString(buf, off + 64, TEXT_BYTES); }
+        public String category()     { return getString(buf, off + 80, TEXT_BYTES); }
+
+        void at(ByteBuffer buf, int off, long seq) { this.buf = buf; this.off = off; this.seq = seq; }
+    }
+
+    public interface Visitor { void visit(Record r); }
+
+    /**
+     * Visits every durable record with seq >= fromSeq, in order. The Record passed to the visitor
+     * is reused - copy out what you need. Returns the seq to resume from next time.
+     */
+    public long scan(long fromSeq, Visitor visitor) {
+        long end = durableSeq;
+        List<Segment> segs = segmentsSnapshot();
+        Record r = new Record();
+        long seq = fromSeq;
+        for (int i = 0; i < segs.size() && seq < end; i++) {
+            Segment s = segs.get(i);
+            long segEnd = Math.min(end, i + 1 < segs.size() ? segs.get(i + 1).firstSeq : end);
+            if (segEnd <= seq) continue;
+            seq = Math.max(seq, s.firstSeq);
+            ByteBuffer m = map(s, segEnd - s.firstSeq);
+            for (long k = seq - s.firstSeq, n = segEnd - s.firstSeq; k < n; k++) {
+                r.at(m, (int) (k * RECORD_SIZE), seq++);
+                visitor.visit(r);
+            }
+        }
+        return seq;
+    }
+
+    /**
+     * Visits the durable records (SALE and LINE) of one branch - all branches if branch is null -
+     * with a timestamp in [fromMs, toMs), in seq order. Only index blocks that can match are read.
+     * Same Record reuse rules as scan(). Returns the number of records visited.
+     */
+    public long query(Branch branch, long fromMs, long toMs, Visitor visitor) {
+        long end = durableSeq;
+        int mask = branch == null ? -1 : 1 << branch.ordinal();
+        int ordinal = branch == null ? -1 : branch.ordinal();
+        List<Segment> segs = segmentsSnapshot();
+        Record r = new Record();
+        long visited = 0;
+        for (int i = 0; i < segs.size(); i++) {
+            Segment s = segs.get(i);
+            long records = Math.min(end, i + 1 < segs.size() ? segs.get(i + 1).firstSeq : end) - s.firstSeq;
+            if (records <= 0) continue;
+            int[] blocks = s.candidates(records, fromMs, toMs, mask);
+            if (blocks.length == 0) continue;
+            ByteBuffer m = map(s, records);
+            for (int b : blocks) {
+                long stop = Math.min(records, (long) (b + 1) * INDEX_BLOCK);
+                for (long k = (long) b * INDEX_BLOCK; k < stop; k++) {
+                    int off = (int) (k * RECORD_SIZE);
+                    if (ordinal >= 0 && m.get(off + 1) != ordinal) continue;
+                    long ts = m.getLong(off + 16);
+                    if (ts < fromMs || ts >= toMs) continue;
+                    r.at(m, off, s.firstSeq + k);
+                    visitor.visit(r);
+                    visited++;
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Replays the durable records from fromSeq to the visitor, then keeps feeding it every new
+     * batch after its group commit (on the writer thread - keep visit() short). One follower per ledger.
+     */
+    public void follow(long fromSeq, Visitor visitor) {
+        followLock.lock();
+        try {
+            if (follower != null) throw new IllegalStateException("ledger already has a follower");
+            followedSeq = scan(fromSeq, visitor);
+            follower = visitor;
+        } finally {
+            followLock.unlock();
+        }
+    }
+
+    /** Number of durable records (= the seq the next record will get). */
+    public long size() { return durableSeq; }
+
+    /**
+     * Stops the writer after everything already queued is written. Anything the writer did not
+     * get to (it gave up after 5 s) fails instead of leaving its caller waiting forever.
+     */
+    @Override
+    public void close() {
+        enqueueLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            enqueueLock.writeLock().unlock();
+        }
+        try { writer.join(5000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        for (Pending p; (p = queue.poll()) != null; ) p.done.completeExceptionally(new IllegalStateException("ledger closed"));
+        try { if (tail != null) tail.close(); } catch (IOException ignored) {}
+    }
+
+    // ---------- segments ----------
+
+    private void openSegments() throws IOException {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "sales-*.seg")) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                segments.add(new Segment(Long.parseLong(name.substring(6, name.length() - 4)), p));
+            }
+        }
+        segments.sort(Comparator.comparingLong(s -> s.firstSeq));
+        if (segments.isEmpty()) {
+            addSegment(0);
+            nextSeq = 0;
+        } else {
+            for (int i = 0; i < segments.size() - 1; i++) {
+                Segment s = segments.get(i);
+                long records = Files.size(s.path) / RECORD_SIZE;
+                if (!readIndex(s, records)) {
+                    rebuildIndex(s, records);
+                    writeIndex(s);
+                }
+            }
+            Segment last = segments.get(segments.size() - 1);
+            long records = repair(last.path) / RECORD_SIZE;
+            rebuildIndex(last, records);
+            nextSeq = last.firstSeq + records;
+        }
+        durableSeq = nextSeq;
+    }
+
+    /** Cuts a torn tail off the segment; returns its intact length in bytes. */
+    private static long repair(Path seg) throws IOException {
+        try (FileChannel ch = FileChannel.open(seg, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long records = ch.size() / RECORD_SIZE;
+            ByteBuffer hdr = ByteBuffer.allocate(8);
+            long good = 0, i = 0;
+            while (i < records) {
+                hdr.clear();
+                ch.read(hdr, i * RECORD_SIZE);
+                if (hdr.get(0) != SALE || hdr.getInt(4) < 0) break;
+                long next = i + 1 + hdr.getInt(4);
+                if (next > records) break;
+                i = good = next;
+            }
+            long keep = good * RECORD_SIZE;
+            if (keep < ch.size()) {
+                Loggers.system().warning("Sales ledger: cut " + (ch.size() - keep) + " torn bytes from " + seg);
+                ch.truncate(keep);
+                ch.force(true);
+            }
+            return keep;
+        }
+    }
+
+    private static void rebuildIndex(Segment s, long records) throws IOException {
+        if (records == 0) return;
+        ByteBuffer m = s.mapped(records);
+        for (long k = 0; k < records; k++) {
+            int off = (int) (k * RECORD_SIZE);
+            s.index(k, m.getLong(off + 16), m.get(off + 1));
+        }
+    }
+
+    /** Index file: magic, INDEX_BLOCK, record count, block count, then (min, max, branches) per block. */
+    private static void writeIndex(Segment s) {
+        Path idx = s.indexPath();
+        try {
+            long records = Files.size(s.path) / RECORD_SIZE;
+            ByteBuffer buf;
+            synchronized (s) {
+                buf = ByteBuffer.allocate(20 + s.blocks * 20);
+                buf.putInt(INDEX_MAGIC).putInt(INDEX_BLOCK).putLong(records).putInt(s.blocks);
+                for (int b = 0; b < s.blocks; b++) buf.putLong(s.minTs[b]).putLong(s.maxTs[b]).putInt(s.branches[b]);
+            }
+            buf.flip();
+            Path tmp = idx.resolveSibling(idx.getFileName() + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buf.hasRemaining()) ch.write(buf);
+                ch.force(true);
+            }
+            Files.move(tmp, idx, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // not fatal: a missing index is rebuilt from the segment on the next open
+            Loggers.system().warning("Sales ledger: could not write index " + idx + ": " + e);
+        }
+    }
+
+    /** Loads a saved index; false if it is missing or does not match the segment. */
+    private static boolean readIndex(Segment s, long records) {
+        Path idx = s.indexPath();
+        if (Files.notExists(idx)) return false;
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(idx));
+            if (buf.remaining() < 20 || buf.getInt() != INDEX_MAGIC || buf.getInt() != INDEX_BLOCK
+                    || buf.getLong() != records) return false;
+            int blocks = buf.getInt();
+            if (blocks != (records + INDEX_BLOCK - 1) / INDEX_BLOCK || buf.remaining() != blocks * 20) return false;
+            synchronized (s) {
+                s.minTs = new long[Math.max(1, blocks)];
+                s.maxTs = new long[Math.max(1, blocks)];
+                s.branches = new int[Math.max(1, blocks)];
+                for (int b = 0; b < blocks; b++) {
+                    s.minTs[b] = buf.getLong();
+                    s.maxTs[b] = buf.getLong();
+                    s.branches[b] = buf.getInt();
+                    s.segMin = Math.min(s.segMin, s.minTs[b]);
+                    s.segMax = Math.max(s.segMax, s.maxTs[b]);
+                    s.segBranches |= s.branches[b];
+                }
+                s.blocks = blocks;
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static ByteBuffer map(Segment s, long records) {
+        try {
+            return s.mapped(records);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized List<Segment> segmentsSnapshot() { return new ArrayList<>(segments); }
+
+    private synchronized Segment currentSegment() { return segments.get(segments.size() - 1); }
+
+    private synchronized Segment addSegment(long firstSeq) throws IOException {
+        Path p = dir.resolve(String.format("sales-%020d.seg", firstSeq));
+        if (Files.notExists(p)) Files.createFile(p);
+        Segment s = new Segment(firstSeq, p);
+        segments.add(s);
+        return s;
+    }
+
+    // ---------- encoding ----------
+
+    static byte customerTypeCode(String code) {
+        for (int i = 0; i < CUSTOMER_TYPES.length; i++) if (CUSTOMER_TYPES[i].equalsIgnoreCase(code)) return (byte) i;
+        return 0;
+    }
+
+    /** True if s fits a record's text field (at most TEXT_BYTES bytes of UTF-8). */
+    public static boolean fitsText(String s) {
+        return s == null || s.getBytes(StandardCharsets.UTF_8).length <= TEXT_BYTES;
+    }
+
+    /** UTF-8, zero padded. A longer value would merge keys in the aggregates, so it is refused. */
+    private static void putString(ByteBuffer buf, String s, int len) {
+        byte[] b = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        if (b.length > len) throw new IllegalArgumentException("'" + s + "' is longer than " + len + " UTF-8 bytes");
+        buf.put(b);
+        for (int i = b.length; i < len; i++) buf.put((byte) 0);
+    }
+
+    private static String getString(ByteBuffer buf, int off, int len) {
+        int n = 0;
+        while (n < len && buf.get(off + n) != 0) n++;
+        byte[] b = new byte[n];
+        buf.get(off, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
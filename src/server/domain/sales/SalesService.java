@@ -2,14 +2,38 @@ package server.domain.sales;
 
 import server.domain.customers.Customer;
 import server.domain.invantory.Product;
+import server.shared.Branch;
+import server.util.Loggers;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 public class SalesService {
 
+    private final SalesLedger ledger; // null: completed sales are not persisted
+    private final SalesAggregates aggregates; // null: no SALES_REPORT totals
+    private final BestSellers bestSellers;    // null: no TOP_SKUS
+
+    public SalesService() { this(null); }
+
+    public SalesService(SalesLedger ledger) { this(ledger, null, null); }
+
+    /**
+     * aggregates follow the ledger (every sale recorded here is counted once it is durable);
+     * bestSellers is fed by record() right after the ledger write. Either may be null.
+     */
+    public SalesService(SalesLedger ledger, SalesAggregates aggregates, BestSellers bestSellers) {
+        this.ledger = ledger;
+        this.aggregates = aggregates;
+        this.bestSellers = bestSellers;
+    }
+
+    public SalesLedger ledger() { return ledger; }
+
     public static class SaleSummary {
         private final BigDecimal basePrice;
         private final BigDecimal discountValue;
@@ -131,5 +155,116 @@ public class SalesService {
         );
     }
 
+    /**
+     * Appends a completed sale to the ledger; durable when this returns.
+     * Returns the sale id, or -1 if there is no ledger or the write failed (logged - the sale
+     * itself already happened, so the caller still completes it).
+     */
+    public long record(Branch branch, String customerId, CartSummary cart, boolean giftGiven) {
+        if (ledger == null) return -1;
+        List<SalesLedger.Line> lines = new ArrayList<>(cart.lines.size());
+        for (LineSummary l : cart.lines) {
+            lines.add(new SalesLedger.Line(l.sku, l.category, l.quantity,
+                    cents(l.unitPrice), cents(l.discount), cents(l.total)));
+        }
+        long now = System.currentTimeMillis();
+        try {
+            long saleId = ledger.append(now, branch, customerId, cart.customerTypeCode,
+                    cents(cart.baseTotal), cents(cart.discountTotal), cents(cart.finalTotal), giftGiven, lines);
+            if (bestSellers != null) {
+                for (LineSummary l : cart.lines) bestSellers.add(branch, now, l.sku, l.quantity);
+            }
+            return saleId;
+        } catch (RuntimeException e) {
+            Loggers.system().severe("Sale not written to ledger: branch=" + branch + " customer=" + customerId + ": " + e);
+            return -1;
+        }
+    }
+
+    /** A sale read back from the ledger (its SALE record). */
+    public static class LedgerSale {
+        public final long saleId;
+        public final long timestampMs;
+        public final Branch branch;
+        public final String customerId;
+        public final String customerTypeCode;
+        public final int lines;
+        public final BigDecimal baseTotal;
+        public final BigDecimal discountTotal;
+        public final BigDecimal finalTotal;
+        public final boolean giftShirt;
+
+        LedgerSale(SalesLedger.Record r) {
+            this.saleId = r.saleId();
+            this.timestampMs = r.timestamp();
+            this.branch = r.branch();
+            this.customerId = r.customerId();
+            this.customerTypeCode = r.customerType();
+            this.lines = r.count();
+            this.baseTotal = fromCents(r.baseOrUnitCents());
+            this.discountTotal = fromCents(r.discountCents());
+            this.finalTotal = fromCents(r.totalCents());
+            this.giftShirt = r.giftGiven();
+        }
+    }
+
+    /** Sales of a branch in a time range: totals over all of them, and the first {@code limit} in ledger order. */
+    public static class RangeReport {
+        public final List<LedgerSale> sales;
+        public final long saleCount;
+        public final long units;
+        public final BigDecimal revenue;
+        public final BigDecimal discountTotal;
+
+        RangeReport(List<LedgerSale> sales, long saleCount, long units, long revenueCents, long discountCents) {
+            this.sales = sales;
+            this.saleCount = saleCount;
+            this.units = units;
+            this.revenue = fromCents(revenueCents);
+            this.discountTotal = fromCents(discountCents);
+        }
+    }
+
+    /** Sales of branch (null = all branches) with timestamps in [fromMs, toMs), via the ledger's time index. */
+    public RangeReport salesInRange(Branch branch, long fromMs, long toMs, int limit) {
+        List<LedgerSale> sales = new ArrayList<>();
+        if (ledger == null) return new RangeReport(sales, 0, 0, 0, 0);
+        long[] totals = new long[4]; // sales, units, revenue, discount
+        ledger.query(branch, fromMs, toMs, r -> {
+            if (r.isSale()) {
+                if (totals[0]++ < limit) sales.add(new LedgerSale(r));
+                totals[2] += r.totalCents();
+                totals[3] += r.discountCents();
+            } else {
+                totals[1] += r.count();
+            }
+        });
+        return new RangeReport(sales, totals[0], totals[1], totals[2], totals[3]);
+    }
+
+    /** Totals per group from the running aggregates (see SalesAggregates.report); empty without them. */
+    public List<SalesAggregates.Row> report(Branch branch, LocalDate from, LocalDate to, Set<SalesAggregates.Dimension> by) {
+        if (aggregates == null) return List.of();
+        return aggregates.report(branch, from, to, by);
+    }
+
+    /** The k best-selling SKUs of branch over the last windowMs (see BestSellers.top); empty without tracking. */
+    public List<BestSellers.Entry> topSkus(Branch branch, long windowMs, int k) {
+        if (bestSellers == null) return List.of();
+        return bestSellers.top(branch, windowMs, k, System.currentTimeMillis());
+    }
+
+    /** Single-item sale (SELL) as a one-line cart, for record(). */
+    public CartSummary singleLineCart(Product product, int quantity, SaleSummary summary, boolean giftEligible) {
+        LineSummary line = new LineSummary(product.sku(), product.category(), quantity, scale(product.price()),
+                summary.basePrice(), summary.discountValue(), summary.finalPrice());
+        return new CartSummary(summary.customerTypeCode(), summary.basePrice(), summary.discountValue(),
+                summary.finalPrice(), giftEligible, List.of(line));
+    }
+
     private static BigDecimal scale(BigDecimal v) { return v.setScale(2, RoundingMode.HALF_UP); }
+
+    private static long cents(BigDecimal v) { return scale(v).movePointRight(2).longValueExact(); }
+
+    private static BigDecimal fromCents(long cents) { return BigDecimal.valueOf(cents, 2); }
 }
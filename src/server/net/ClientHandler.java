@@ -3,22 +3,35 @@ package server.net;
 import server.domain.employees.AuthService;
 import server.domain.invantory.InventoryService;
 import server.domain.customers.CustomerService;
+import server.domain.sales.BestSellers;
+import server.domain.sales.SalesAggregates;
 import server.domain.sales.SalesService;
 
 import server.shared.Branch;
 import server.domain.invantory.Product;
 import server.domain.customers.Customer;
 
+import server.util.IdleReaper;
 import server.util.Loggers;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.math.BigDecimal;
 import java.net.Socket;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Handles a single TCP client for the StoreServer (port 5050).
@@ -33,34 +46,67 @@ import java.util.*;
  *   CUSTOMER_LIST
  *   ADD_PRODUCT <branch> <category_underscored> <quantity> <price>
  *   REMOVE_PRODUCT <branch> <sku>
+ *   SALES_RANGE <branch|ALL> <from> <to> [limit]   (admin; from/to: yyyy-MM-dd or yyyy-MM-ddTHH:mm)
+ *   SALES_REPORT <branch|ALL> <fromDay> <toDay> [by]  (admin; by: comma list of branch,day,category,type)
+ *   TOP_SKUS <branch> <window: 30m|1h|1d...> [k]
+ *   PING                                          (answered with PONG; any line counts as a heartbeat)
+ * Commands may be pipelined (sent without waiting); responses come back in order.
+ * A connection silent for longer than the reaper's timeout is closed and its user logged out.
  */
 public class ClientHandler implements Runnable {
+    private static final int OUT_BUFFER_CHARS = 64 * 1024;
+    private static final int SALES_RANGE_LIMIT = 500;
+    private static final int TOP_SKUS_DEFAULT = 20;
+    private static final int TOP_SKUS_MAX = 100;
+
     private final Socket socket;
     private final AuthService auth;
     private final InventoryService inventory;
     private final CustomerService customers;
     private final SalesService sales;
+    private final IdleReaper reaper;
 
-    private String loggedUsername = null;
+    private volatile String loggedUsername = null; // also read by the reaper thread
+    private boolean loggedAdmin = false;
+    private final AtomicBoolean loginReleased = new AtomicBoolean(false);
 
     public ClientHandler(Socket socket, AuthService auth, InventoryService inventory,
-                         CustomerService customers, SalesService sales) {
+                         CustomerService customers, SalesService sales, IdleReaper reaper) {
         this.socket = socket;
         this.auth = auth;
         this.inventory = inventory;
         this.customers = customers;
         this.sales = sales;
+        this.reaper = reaper;
     }
 
     @Override
     public void run() {
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream()), true)) {
+        IdleReaper.Handle idle = reaper.register(new IdleReaper.Peer() {
+            @Override public void ping() { } // the store protocol is client-driven: terminals send PING
+            @Override public void reap() {
+                releaseLogin();
+                try { socket.close(); } catch (IOException ignored) {} // wakes readLine() up
+            }
+            @Override public String describe() {
+                return (loggedUsername != null ? loggedUsername : "anonymous") + "@" + socket.getRemoteSocketAddress();
+            }
+        });
+        try (FlushingInput raw = new FlushingInput(socket.getInputStream());
+             BufferedReader in = new BufferedReader(new InputStreamReader(raw));
+             PrintWriter out = new PrintWriter(new BufferedWriter(
+                     new OutputStreamWriter(socket.getOutputStream()), OUT_BUFFER_CHARS))) {
+            // Responses are buffered, and flushed only when the next read could block: if the
+            // client pipelined more commands they are answered first and the whole batch goes out
+            // together, but a response never waits behind the rest of a partly received line.
+            raw.flushBeforeBlocking(out);
 
             out.println("OK WELCOME");
             String line;
 
-            while ((line = in.readLine()) != null) {
+            while (true) {
+                if ((line = in.readLine()) == null) break;
+                idle.touch();
                 String[] t = line.trim().split(" ");
                 if (t.length == 0) continue;
                 String cmd = t[0].toUpperCase();
@@ -73,15 +119,21 @@ public class ClientHandler implements Runnable {
 
                     if (result == AuthService.LoginResult.SUCCESS) {
                         loggedUsername = t[1];
+                        loggedAdmin = "admin".equalsIgnoreCase(t[3]);
                         out.println("OK LOGIN");
                     } else if (result == AuthService.LoginResult.ALREADY_CONNECTED) {
                         out.println("ERR LOGIN ALREADY_CONNECTED");
+                    } else if (result == AuthService.LoginResult.BUSY) {
+                        out.println("ERR LOGIN BUSY");
                     } else {
                         out.println("ERR LOGIN INVALID_CREDENTIALS");
                     }
                 }
+                else if ("PING".equals(cmd)) {
+                    out.println("PONG");
+                }
                 else if ("LOGOUT".equals(cmd)) {
-                    if (loggedUsername != null) auth.logout(loggedUsername);
+                    releaseLogin();
                     out.println("OK BYE");
                     return;
                 }
@@ -106,35 +158,51 @@ public class ClientHandler implements Runnable {
                     if (t.length < 5) { out.println("ERR BAD_ARGS"); continue; }
                     Branch branch = Branch.valueOf(t[1].toUpperCase());
                     String sku = t[2];
-                    int quantity = Integer.parseInt(t[3]);
+                    int quantity;
+                    try {
+                        quantity = Integer.parseInt(t[3]);
+                    } catch (NumberFormatException nfe) {
+                        quantity = 0;
+                    }
+                    if (quantity <= 0) { out.println("ERR BAD_QTY"); continue; }
                     String customerId = t[4];
 
-                    Product product = inventory.findProduct(branch, sku)
-                            .orElseThrow(() -> new IllegalStateException("SKU not found in branch"));
                     Customer customer = customers.findById(customerId)
                             .orElseThrow(() -> new IllegalStateException("Customer not found"));
 
-                    if (product.quantity() < quantity) {
+                    // Check + decrement atomically
+                    InventoryService.CommitResult commit = inventory.commitSale(branch,
+                            List.of(new InventoryService.CartLine(sku, quantity)));
+                    if (commit.failure() == InventoryService.CommitFailure.SKU_NOT_FOUND) {
+                        throw new IllegalStateException("SKU not found in branch");
+                    }
+                    if (!commit.ok()) {
                         out.println("ERR NOT_ENOUGH_STOCK");
                         continue;
                     }
+                    Product product = commit.products().get(0);
 
                     // Discount based on current type (before promotion)
                     SalesService.SaleSummary summary = sales.sell(product, quantity, customer);
-                    inventory.updateQuantity(branch, sku, -quantity);
 
                     // Record purchase and auto-promote for next time
                     customers.recordPurchase(customerId);
 
                     // Gift logic + stock consume
-                    if (customer.type().qualifiesGiftShirt(summary.finalPrice())) {
-                        boolean consumed = inventory.consumeOneByCategory(branch, "SHIRT");
-                        if (consumed) {
+                    boolean giftEligible = customer.type().qualifiesGiftShirt(summary.finalPrice());
+                    boolean gifted = false;
+                    if (giftEligible) {
+                        gifted = inventory.consumeOneByCategory(branch, "SHIRT");
+                        if (gifted) {
                             out.println("GIFT_SHIRT 1");
                         } else {
                             out.println("GIFT_SHIRT_OUT_OF_STOCK");
                         }
                     }
+
+                    // Ledger (durable before the sale is acknowledged)
+                    sales.record(branch, customerId,
+                            sales.singleLineCart(product, quantity, summary, giftEligible), gifted);
                     out.println("Sale Completed " +
                             summary.basePrice() + " " +
                             summary.discountValue() + " " +
@@ -185,24 +253,21 @@ public class ClientHandler implements Runnable {
                         }
                         if (qty <= 0) { out.println("ERR BAD_QTY"); cart.clear(); break; }
 
-                        Optional<Product> op = inventory.findProduct(branch, sku);
-                        if (op.isEmpty()) { out.println("ERR SKU_NOT_FOUND " + sku); cart.clear(); break; }
-
                         Line ln = new Line();
-                        ln.sku = sku; ln.qty = qty; ln.product = op.get();
+                        ln.sku = sku; ln.qty = qty;
                         cart.add(ln);
                     }
                     if (cart.isEmpty()) continue;
 
-                    // --- Stock check (all-or-nothing) ---
-                    for (Line ln : cart) {
-                        if (ln.product.quantity() < ln.qty) {
-                            out.println("ERR NOT_ENOUGH_STOCK " + ln.sku);
-                            cart.clear();
-                            break;
-                        }
+                    // --- Stock check + commit (all-or-nothing, one critical section) ---
+                    List<InventoryService.CartLine> request = new ArrayList<>(cart.size());
+                    for (Line ln : cart) request.add(new InventoryService.CartLine(ln.sku, ln.qty));
+                    InventoryService.CommitResult commit = inventory.commitSale(branch, request);
+                    if (!commit.ok()) {
+                        out.println("ERR " + commit.failure().name() + " " + commit.failedSku());
+                        continue;
                     }
-                    if (cart.isEmpty()) continue;
+                    for (int i = 0; i < cart.size(); i++) cart.get(i).product = commit.products().get(i);
 
                     // --- Totals & discount ---
                     BigDecimal baseTotal = BigDecimal.ZERO;
@@ -217,11 +282,6 @@ public class ClientHandler implements Runnable {
                     // --- Gift eligibility: רק VIP + מעל 300 (כפי שממומש ב-type) ---
                     boolean giftEligible = customer.type().qualifiesGiftShirt(finalTotal);
 
-                    // --- Commit stock ---
-                    for (Line ln : cart) {
-                        inventory.updateQuantity(branch, ln.sku, -ln.qty);
-                    }
-
                     // --- Tiering / promotion for next time ---
                     customers.recordPurchase(customerId);
 
@@ -233,12 +293,11 @@ public class ClientHandler implements Runnable {
                     }
 
                     // --- Log & response header ---
-                    Loggers.transactions().info(String.format(
+                    Loggers.info(Loggers.transactions(),
                             "SALE_MULTI: Branch=%s, Customer=%s, Type=%s, Items=%d, Base=%s, Discount=%s, Final=%s, GiftEligible=%s, Gifted=%s",
                             branch.name(), customerId, customer.type().code(), cart.size(),
                             baseTotal.toPlainString(), discountAbs.toPlainString(), finalTotal.toPlainString(),
-                            giftEligible, gifted
-                    ));
+                            giftEligible, gifted);
 
                     StringBuilder hdr = new StringBuilder();
                     hdr.append("OK SALE_MULTI ").append(customer.type().code()).append(" ")
@@ -253,10 +312,13 @@ public class ClientHandler implements Runnable {
                             ? BigDecimal.ZERO
                             : discountAbs.divide(baseTotal, 8, java.math.RoundingMode.HALF_UP);
 
+                    List<SalesService.LineSummary> ledgerLines = new ArrayList<>(cart.size());
                     for (Line ln : cart) {
                         BigDecimal lineBase  = ln.unitPrice().multiply(BigDecimal.valueOf(ln.qty));
                         BigDecimal lineDisc  = lineBase.multiply(rate);
                         BigDecimal lineFinal = lineBase.subtract(lineDisc);
+                        ledgerLines.add(new SalesService.LineSummary(ln.sku, ln.category(), ln.qty,
+                                ln.unitPrice(), lineBase, lineDisc, lineFinal));
                         out.println(String.join(" ",
                                 "LINE", ln.sku, ln.category().replace(' ', '_'),
                                 String.valueOf(ln.qty),
@@ -267,6 +329,10 @@ public class ClientHandler implements Runnable {
                         ));
                     }
 
+                    // --- Ledger (durable before the sale is acknowledged) ---
+                    sales.record(branch, customerId, new SalesService.CartSummary(customer.type().code(),
+                            baseTotal, discountAbs, finalTotal, giftEligible, ledgerLines), gifted);
+
                     // --- Gift status line (ברור ושקוף לקליינט) ---
                     if (giftEligible) {
                         if (gifted) out.println("GIFT_SHIRT 1");
@@ -319,6 +385,107 @@ public class ClientHandler implements Runnable {
                         out.println("ERR " + ex.getMessage().replace(' ', '_'));
                     }
                 }
+                else if ("SALES_RANGE".equals(cmd)) { // SALES_RANGE <branch|ALL> <from> <to> [limit]
+                    if (!loggedAdmin) { out.println("ERR NOT_ADMIN"); continue; }
+                    if (t.length < 4) { out.println("ERR BAD_ARGS"); continue; }
+                    Branch branch;
+                    try {
+                        branch = "ALL".equalsIgnoreCase(t[1]) ? null : Branch.valueOf(t[1].toUpperCase());
+                    } catch (IllegalArgumentException ex) {
+                        out.println("ERR BAD_BRANCH");
+                        continue;
+                    }
+                    long from, to;
+                    try {
+                        from = rangeBound(t[2], false);
+                        to = rangeBound(t[3], true);
+                    } catch (DateTimeParseException ex) {
+                        out.println("ERR BAD_DATE");
+                        continue;
+                    }
+                    int limit = SALES_RANGE_LIMIT;
+                    if (t.length >= 5) {
+                        try {
+                            limit = Integer.parseInt(t[4]);
+                        } catch (NumberFormatException nfe) {
+                            limit = 0;
+                        }
+                        if (limit <= 0) { out.println("ERR BAD_LIMIT"); continue; }
+                        limit = Math.min(limit, SALES_RANGE_LIMIT);
+                    }
+                    SalesService.RangeReport report = sales.salesInRange(branch, from, to, limit);
+                    for (SalesService.LedgerSale s : report.sales) {
+                        out.println("SALE " + s.saleId + "," + Instant.ofEpochMilli(s.timestampMs).atZone(ZoneId.systemDefault())
+                                .toLocalDateTime().truncatedTo(ChronoUnit.SECONDS) + "," + s.branch + "," + s.customerId + ","
+                                + s.customerTypeCode + "," + s.lines + "," + s.baseTotal + "," + s.discountTotal + ","
+                                + s.finalTotal + "," + (s.giftShirt ? 1 : 0));
+                    }
+                    out.println("SALES_TOTAL " + report.saleCount + "," + report.units + ","
+                            + report.revenue + "," + report.discountTotal);
+                    out.println("OK END");
+                }
+                else if ("SALES_REPORT".equals(cmd)) { // SALES_REPORT <branch|ALL> <fromDay> <toDay> [by]
+                    if (!loggedAdmin) { out.println("ERR NOT_ADMIN"); continue; }
+                    if (t.length < 4) { out.println("ERR BAD_ARGS"); continue; }
+                    Branch branch;
+                    try {
+                        branch = "ALL".equalsIgnoreCase(t[1]) ? null : Branch.valueOf(t[1].toUpperCase());
+                    } catch (IllegalArgumentException ex) {
+                        out.println("ERR BAD_BRANCH");
+                        continue;
+                    }
+                    LocalDate from, to;
+                    try {
+                        from = LocalDate.parse(t[2]);
+                        to = LocalDate.parse(t[3]);
+                    } catch (DateTimeParseException ex) {
+                        out.println("ERR BAD_DATE");
+                        continue;
+                    }
+                    Set<SalesAggregates.Dimension> by = EnumSet.noneOf(SalesAggregates.Dimension.class);
+                    try {
+                        for (String d : (t.length >= 5 ? t[4] : "category").split(",")) {
+                            by.add(SalesAggregates.Dimension.valueOf(d.trim().toUpperCase()));
+                        }
+                    } catch (IllegalArgumentException ex) {
+                        out.println("ERR BAD_ARGS");
+                        continue;
+                    }
+                    for (SalesAggregates.Row r : sales.report(branch, from, to, by)) {
+                        out.println("ROW " + orAll(r.branch()) + "," + orAll(r.day()) + "," + orAll(r.category()) + ","
+                                + orAll(r.customerType()) + "," + r.revenue() + "," + r.units() + ","
+                                + r.discountTotal() + "," + r.gifts());
+                    }
+                    out.println("OK END");
+                }
+                else if ("TOP_SKUS".equals(cmd)) { // TOP_SKUS <branch> <window> [k]
+                    if (t.length < 3) { out.println("ERR BAD_ARGS"); continue; }
+                    Branch branch;
+                    try {
+                        branch = Branch.valueOf(t[1].toUpperCase());
+                    } catch (IllegalArgumentException ex) {
+                        out.println("ERR BAD_BRANCH");
+                        continue;
+                    }
+                    long windowMs = windowMillis(t[2]);
+                    if (windowMs <= 0) { out.println("ERR BAD_WINDOW"); continue; }
+                    int k = TOP_SKUS_DEFAULT;
+                    if (t.length >= 4) {
+                        try {
+                            k = Integer.parseInt(t[3]);
+                        } catch (NumberFormatException nfe) {
+                            k = 0;
+                        }
+                        if (k <= 0 || k > TOP_SKUS_MAX) { out.println("ERR BAD_ARGS"); continue; }
+                    }
+                    int rank = 0;
+                    for (BestSellers.Entry e : sales.topSkus(branch, windowMs, k)) {
+                        String category = inventory.findProduct(branch, e.sku()).map(Product::category).orElse("?");
+                        out.println("TOP " + (++rank) + "," + e.sku() + "," + category.replace(' ', '_') + ","
+                                + e.units() + "," + e.maxError());
+                    }
+                    out.println("OK END");
+                }
                 else {
                     out.println("ERR UNKNOWN_CMD");
                 }
@@ -326,8 +493,65 @@ public class ClientHandler implements Runnable {
         } catch (Exception e) {
             Loggers.system().severe("Client error: " + e);
         } finally {
+            idle.unregister();
             try { socket.close(); } catch (IOException ignored) {}
-            if (loggedUsername != null) auth.logout(loggedUsername);
+            releaseLogin();
+        }
+    }
+
+    /** Socket input that flushes the pending responses before any read that could block. */
+    private static final class FlushingInput extends FilterInputStream {
+        private PrintWriter out;
+
+        FlushingInput(InputStream in) { super(in); }
+
+        void flushBeforeBlocking(PrintWriter out) { this.out = out; }
+
+        @Override public int read() throws IOException {
+            flushIfIdle();
+            return super.read();
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            flushIfIdle();
+            return super.read(b, off, len);
         }
+
+        private void flushIfIdle() throws IOException {
+            if (out != null && in.available() == 0) out.flush();
+        }
+    }
+
+    /** Logs the user out once, whether LOGOUT, disconnect or the reaper gets here first. */
+    private void releaseLogin() {
+        String u = loggedUsername;
+        if (u != null && loginReleased.compareAndSet(false, true)) auth.logout(u);
+    }
+
+    /** 30m / 1h / 1d (minutes, hours, days); 0 if malformed. */
+    /** "<n>m", "<n>h" or "<n>d" in milliseconds; 0 if malformed or too large for a long. */
+    private static long windowMillis(String s) {
+        if (s.length() < 2) return 0;
+        long unit = switch (Character.toLowerCase(s.charAt(s.length() - 1))) {
+            case 'm' -> 60_000L;
+            case 'h' -> 3_600_000L;
+            case 'd' -> 86_400_000L;
+            default -> 0L;
+        };
+        try {
+            return Math.multiplyExact(unit, Long.parseLong(s.substring(0, s.length() - 1)));
+        } catch (NumberFormatException | ArithmeticException e) {
+            return 0;
+        }
+    }
+
+    private static String orAll(Object v) { return v == null ? "*" : v.toString(); }
+
+    /** yyyy-MM-dd (a whole day: its start, or for the upper bound the next day's start) or yyyy-MM-ddTHH:mm[:ss]. */
+    private static long rangeBound(String s, boolean upper) {
+        LocalDateTime t = s.indexOf('T') >= 0
+                ? LocalDateTime.parse(s)
+                : LocalDate.parse(s).plusDays(upper ? 1 : 0).atStartOfDay();
+        return t.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
 }
@@ -0,0 +1,253 @@
+package server.util;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * File handler that takes records off the caller's thread: publish() only puts the record in a
+ * ring buffer shared by all AsyncLogHandlers, and one background thread ("log-writer") formats
+ * and appends them to their files.
+ *
+ * The ring ({@code log.ringSize}, default 65536 records) is lock-free: producers claim a slot
+ * with a CAS on the tail and publish it through the slot's sequence number; only the writer
+ * advances the head. Producers don't wake the writer for every record: it runs every
+ * {@code log.flushMs} (default 200), or as soon as {@code log.flushRecords} records (default 1024)
+ * or a WARNING and above are queued, drains the ring and writes each file's batch in one call
+ * (so a write never splits a record). close() (also run by LogManager at shutdown) writes out
+ * everything that is queued.
+ *
+ * When the ring is full, {@code log.overflow} decides:
+ *   block      (default) the caller waits for room - nothing is lost, the caller slows down
+ *   drop       the record is dropped
+ *   drop_info  records below WARNING are dropped, WARNING and above wait for room
+ * Dropped records are counted and reported in the file they were meant for.
+ */
+public final class AsyncLogHandler extends Handler {
+
+    public enum Overflow { BLOCK, DROP, DROP_INFO }
+
+    private static final int RING_SIZE = Integer.highestOneBit(Math.max(2, Integer.getInteger("log.ringSize", 65536)));
+    private static final int MASK = RING_SIZE - 1;
+    private static final long FLUSH_NANOS = Long.getLong("log.flushMs", 200) * 1_000_000;
+    private static final int FLUSH_RECORDS = Integer.getInteger("log.flushRecords", 1024);
+    private static final int WAKE_RECORDS = Math.max(1, Math.min(FLUSH_RECORDS, RING_SIZE / 2));
+    private static final int FLUSH_CHARS = 64 * 1024;
+    private static final Overflow OVERFLOW =
+            Overflow.valueOf(System.getProperty("log.overflow", "block").trim().toUpperCase(Locale.ROOT));
+
+    /** Ring slot; seq == position + 1 once the record at position is published, position + RING_SIZE once consumed. */
+    private static final class Slot {
+        volatile long seq;
+        AsyncLogHandler target;
+        LogRecord record;
+    }
+
+    private static final Slot[] ring = new Slot[RING_SIZE];
+    private static final AtomicLong tail = new AtomicLong();
+    private static volatile long head; // advanced under drainLock
+    private static final ReentrantLock drainLock = new ReentrantLock();
+    private static final List<AsyncLogHandler> open = Collections.synchronizedList(new ArrayList<>());
+    private static volatile boolean writerParked;
+    private static final Thread writer;
+
+    static {
+        for (int i = 0; i < RING_SIZE; i++) {
+            ring[i] = new Slot();
+            ring[i].seq = i;
+        }
+        writer = new Thread(AsyncLogHandler::writeLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private final Path file;
+    private final Charset charset = Charset.defaultCharset();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+    // guarded by drainLock
+    private OutputStream out;
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingRecords;
+
+    /** Appends to file (created if missing). */
+    public AsyncLogHandler(Path file) throws IOException {
+        this.file = file;
+        this.out = new FileOutputStream(file.toFile(), true);
+        open.add(this);
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) return;
+        record.getSourceClassName(); // infer the caller now: the writer thread would find itself
+        while (!offer(this, record)) {
+            if (OVERFLOW == Overflow.DROP
+                    || (OVERFLOW == Overflow.DROP_INFO && record.getLevel().intValue() < Level.WARNING.intValue())) {
+                dropped.increment();
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(50_000);
+            if (closed) return;
+        }
+        // let records pile up into a batch; wake the writer early only for a full batch or a warning
+        if (writerParked && (tail.get() - head >= WAKE_RECORDS || record.getLevel().intValue() >= Level.WARNING.intValue())) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /** Writes out every queued record, then this file's buffer. */
+    @Override
+    public void flush() {
+        drainLock.lock();
+        try {
+            drain();
+            flushFile();
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        drainLock.lock();
+        try {
+            drain();
+            flushFile();
+            closed = true;
+            open.remove(this);
+            if (out != null) out.close();
+        } catch (IOException e) {
+            reportError("Could not close " + file, e, ErrorManager.CLOSE_FAILURE);
+        } finally {
+            out = null;
+            drainLock.unlock();
+        }
+    }
+
+    /** Records dropped on overflow and not yet reported in the file. */
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    // ---------- ring ----------
+
+    private static boolean offer(AsyncLogHandler target, LogRecord record) {
+        for (;;) {
+            long t = tail.get();
+            Slot s = ring[(int) t & MASK];
+            long d = s.seq - t;
+            if (d == 0) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    s.target = target;
+                    s.record = record;
+                    s.seq = t + 1;
+                    return true;
+                }
+            } else if (d < 0) {
+                return false; // the writer hasn't consumed this slot's previous record yet: full
+            }
+            // d > 0: another producer took t, retry with the new tail
+        }
+    }
+
+    /** Hands every published record to its handler; returns how many. Caller holds drainLock. */
+    private static int drain() {
+        int n = 0;
+        for (;;) {
+            Slot s = ring[(int) head & MASK];
+            if (s.seq != head + 1) return n;
+            AsyncLogHandler target = s.target;
+            LogRecord record = s.record;
+            s.target = null;
+            s.record = null;
+            s.seq = head + RING_SIZE;
+            head++;
+            target.write(record);
+            n++;
+        }
+    }
+
+    /** Every flushMs, or sooner once a batch is queued: drain the ring, then write out every file. */
+    private static void writeLoop() {
+        for (;;) {
+            drainLock.lock();
+            try {
+                drain();
+                AsyncLogHandler[] all;
+                synchronized (open) { all = open.toArray(new AsyncLogHandler[0]); }
+                for (AsyncLogHandler h : all) {
+                    h.reportDrops();
+                    h.flushFile();
+                }
+            } catch (RuntimeException e) {
+                // a handler's ErrorManager threw; keep the writer alive for the others
+            } finally {
+                drainLock.unlock();
+            }
+            writerParked = true;
+            if (tail.get() - head < WAKE_RECORDS) LockSupport.parkNanos(FLUSH_NANOS);
+            writerParked = false;
+        }
+    }
+
+    // ---------- writer side (drainLock held) ----------
+
+    private void write(LogRecord record) {
+        if (out == null) return; // closed meanwhile
+        reportDrops();
+        String line;
+        try {
+            line = getFormatter().format(record);
+        } catch (Exception e) {
+            reportError(null, e, ErrorManager.FORMAT_FAILURE);
+            return;
+        }
+        append(line);
+        if (pendingRecords >= FLUSH_RECORDS || pending.length() >= FLUSH_CHARS
+                || record.getLevel().intValue() >= Level.WARNING.intValue()) {
+            flushFile();
+        }
+    }
+
+    private void reportDrops() {
+        if (out == null || dropped.sum() == 0) return;
+        long n = dropped.sumThenReset();
+        LogRecord r = new LogRecord(Level.WARNING, "Log ring full: dropped " + n + " records (log.overflow="
+                + OVERFLOW.name().toLowerCase(Locale.ROOT) + ")");
+        r.setSourceClassName(AsyncLogHandler.class.getName());
+        r.setSourceMethodName("publish");
+        append(getFormatter().format(r));
+    }
+
+    private void append(String formatted) {
+        pendingRecords++;
+        pending.append(formatted);
+    }
+
+    private void flushFile() {
+        if (out == null || pendingRecords == 0) return;
+        try {
+            out.write(pending.toString().getBytes(charset));
+        } catch (IOException e) {
+            reportError("Could not write " + file, e, ErrorManager.WRITE_FAILURE);
+        }
+        pending.setLength(0);
+        pendingRecords = 0;
+    }
+}
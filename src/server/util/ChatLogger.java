@@ -3,13 +3,23 @@ package server.util;
 import server.shared.Branch;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -19,184 +29,303 @@ import java.util.logging.Logger;
  * - All chat messages with metadata
  * - Chat requests and responses
  * - System events and errors
+ *
+ * The CSV files under {@code chat.logDir} (default logs/chat) stay open for the life of the
+ * server. Callers only put the entry on one bounded queue ({@code chat.log.queue}, default
+ * 65536), and a single writer thread takes everything
+ * queued, writes each file's share in one call and forces the files every
+ * {@code chat.log.forceMs} (default 1000). One FIFO queue and one writer keep every file in
+ * the order the entries were logged, so lines logged in order (ChatServer logs a conversation's
+ * messages under its lock) stay in order. Message ids are assigned by the writer and therefore
+ * grow in file order.
+ *
+ * ChatServer logs from the nio selector thread, so a full queue must not make the caller wait.
+ * {@code chat.log.overflow} decides what happens then:
+ *   drop   (default) the entry is dropped; the writer reports how many per file in chat.log
+ *   block  the caller waits for room - only for callers that may block (e.g. benchmarks)
  */
 public class ChatLogger {
     private static final Logger logger = Loggers.chat();
-    private static final Path CHAT_LOGS_DIR = Path.of("logs", "chat");
-    private static final Path MESSAGES_FILE = CHAT_LOGS_DIR.resolve("messages.txt");
-    private static final Path CONVERSATIONS_FILE = CHAT_LOGS_DIR.resolve("conversations.txt");
-    private static final Path REQUESTS_FILE = CHAT_LOGS_DIR.resolve("requests.txt");
-    private static final Path SESSIONS_FILE = CHAT_LOGS_DIR.resolve("sessions.txt");
-    
+    private static final Path CHAT_LOGS_DIR = Path.of(System.getProperty("chat.logDir", Path.of("logs", "chat").toString()));
+    private static final int QUEUE_CAPACITY = Integer.getInteger("chat.log.queue", 65536);
+    private static final long FORCE_MS = Long.getLong("chat.log.forceMs", 1000);
+    private static final int MAX_BATCH = 4096;
+    private static final boolean BLOCK_WHEN_FULL = "block".equalsIgnoreCase(System.getProperty("chat.log.overflow", "drop").trim());
+
     private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-    private static final AtomicLong messageCounter = new AtomicLong(0);
     private static final ConcurrentHashMap<String, Long> conversationStartTimes = new ConcurrentHashMap<>();
-    
+
+    /** One CSV file, open for appending; written by the writer thread only. */
+    private static final class Stream {
+        final Path file;
+        final StringBuilder pending = new StringBuilder();
+        final LongAdder dropped = new LongAdder();
+        FileChannel channel;
+        boolean unforced;
+
+        Stream(Path file, String header) {
+            this.file = file;
+            try {
+                // Create header files if they don't exist
+                if (!Files.exists(file)) {
+                    Files.writeString(file, header + "\n", StandardOpenOption.CREATE);
+                }
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                logger.severe("Failed to open chat log file " + file.getFileName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /** A line to append: "timestamp,[messageId,]body". A null stream marks a flush() request. */
+    private record Entry(Stream stream, LocalDateTime time, boolean numbered, String body, CountDownLatch done) {}
+
+    private static final Stream MESSAGES;
+    private static final Stream CONVERSATIONS;
+    private static final Stream REQUESTS;
+    private static final Stream SESSIONS;
+    private static final Stream[] STREAMS;
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static long messageCounter; // writer thread only
+
     static {
         try {
             Files.createDirectories(CHAT_LOGS_DIR);
-            // Create header files if they don't exist
-            createFileWithHeader(MESSAGES_FILE, "timestamp,message_id,conversation_id,sender,receiver,message_type,content");
-            createFileWithHeader(CONVERSATIONS_FILE, "timestamp,conversation_id,event_type,participants,details");
-            createFileWithHeader(REQUESTS_FILE, "timestamp,request_id,requester,requester_branch,target_branch,event_type,details");
-            createFileWithHeader(SESSIONS_FILE, "timestamp,username,role,branch,event_type,details");
         } catch (IOException e) {
             logger.severe("Failed to initialize chat logging directories: " + e.getMessage());
         }
+        MESSAGES = new Stream(CHAT_LOGS_DIR.resolve("messages.txt"), "timestamp,message_id,conversation_id,sender,receiver,message_type,content");
+        CONVERSATIONS = new Stream(CHAT_LOGS_DIR.resolve("conversations.txt"), "timestamp,conversation_id,event_type,participants,details");
+        REQUESTS = new Stream(CHAT_LOGS_DIR.resolve("requests.txt"), "timestamp,request_id,requester,requester_branch,target_branch,event_type,details");
+        SESSIONS = new Stream(CHAT_LOGS_DIR.resolve("sessions.txt"), "timestamp,username,role,branch,event_type,details");
+        STREAMS = new Stream[]{MESSAGES, CONVERSATIONS, REQUESTS, SESSIONS};
+
+        Thread writer = new Thread(ChatLogger::writeLoop, "chat-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(ChatLogger::flush, "chat-log-shutdown"));
     }
-    
-    private static void createFileWithHeader(Path file, String header) throws IOException {
-        if (!Files.exists(file)) {
-            Files.writeString(file, header + "\n", StandardOpenOption.CREATE);
-        }
-    }
-    
+
     // ========= Session Logging =========
     public static void logUserConnected(String username, String role, Branch branch) {
-        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
-        String logEntry = String.format("%s,%s,%s,%s,CONNECTED,User connected to chat server\n", 
-                                      timestamp, username, role, branch);
-        
-        logToFile(SESSIONS_FILE, logEntry);
+        logToFile(SESSIONS, String.format("%s,%s,%s,CONNECTED,User connected to chat server",
+                                          username, role, branch));
         logger.info("User connected: " + username + " (" + role + ") from " + branch);
     }
-    
+
     public static void logUserDisconnected(String username, String role, Branch branch) {
-        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
-        String logEntry = String.format("%s,%s,%s,%s,DISCONNECTED,User disconnected from chat server\n", 
-                                      timestamp, username, role, branch);
-        
-        logToFile(SESSIONS_FILE, logEntry);
+        logToFile(SESSIONS, String.format("%s,%s,%s,DISCONNECTED,User disconnected from chat server",
+                                          username, role, branch));
         logger.info("User disconnected: " + username + " (" + role + ") from " + branch);
     }
-    
+
     // ========= Conversation Logging =========
     public static void logConversationStarted(String conversationId, String participants) {
-        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
         conversationStartTimes.put(conversationId, System.currentTimeMillis());
-        
-        String logEntry = String.format("%s,%s,STARTED,%s,Conversation started\n", 
-                                      timestamp, conversationId, participants);
-        
-        logToFile(CONVERSATIONS_FILE, logEntry);
+
+        logToFile(CONVERSATIONS, String.format("%s,STARTED,%s,Conversation started",
+                                               conversationId, participants));
         logger.info("Conversation started: " + conversationId + " with participants: " + participants);
     }
-    
+
     public static void logConversationJoined(String conversationId, String username, String participants) {
-        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
-        String logEntry = String.format("%s,%s,JOINED,%s,User %s joined\n", 
-                                      timestamp, conversationId, participants, username);
-        
-        logToFile(CONVERSATIONS_FILE, logEntry);
+        logToFile(CONVERSATIONS, String.format("%s,JOINED,%s,User %s joined",
+                                               conversationId, participants, username));
         logger.info("User " + username + " joined conversation: " + conversationId);
     }
-    
+
     public static void logConversationLeft(String conversationId, String username, String participants) {
-        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
-        String logEntry = String.format("%s,%s,LEFT,%s,User %s left\n", 
-                                      timestamp, conversationId, participants, username);
-        
-        logToFile(CONVERSATIONS_FILE, logEntry);
+        logToFile(CONVERSATIONS, String.format("%s,LEFT,%s,User %s left",
+                                               conversationId, participants, username));
         logger.info("User " + username + " left conversation: " + conversationId);
     }
-    
+
     public static void logConversationEnded(String conversationId, String participants) {
-        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
         Long startTime = conversationStartTimes.remove(conversationId);
         long duration = startTime != null ? (System.currentTimeMillis() - startTime) / 1000 : 0;
-        
-        String logEntry = String.format("%s,%s,ENDED,%s,Conversation ended (duration: %ds)\n", 
-                                      timestamp, conversationId, participants, duration);
-        
-        logToFile(CONVERSATIONS_FILE, logEntry);
+
+        logToFile(CONVERSATIONS, String.format("%s,ENDED,%s,Conversation ended (duration: %ds)",
+                                               conversationId, participants, duration));
         logger.info("Conversation ended: " + conversationId + " (duration: " + duration + "s)");
     }
-    
+
     // ========= Message Logging =========
     public static void logMessage(String conversationId, String sender, String content) {
-        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
-        long messageId = messageCounter.incrementAndGet();
-        
         // Escape commas in content to maintain CSV format
         String escapedContent = content.replace(",", "\\,");
-        
-        String logEntry = String.format("%s,%d,%s,%s,ALL,CHAT,%s\n", 
-                                      timestamp, messageId, conversationId, sender, escapedContent);
-        
-        logToFile(MESSAGES_FILE, logEntry);
-        logger.fine("Message logged: " + messageId + " in " + conversationId + " from " + sender);
+
+        enqueue(new Entry(MESSAGES, LocalDateTime.now(), true,
+                conversationId + "," + sender + ",ALL,CHAT," + escapedContent, null));
+        Loggers.log(logger, Level.FINE, "Message logged in %s from %s", conversationId, sender);
     }
-    
 
-    
+
+
     // ========= Request Logging =========
     public static void logRequestCreated(String requestId, String requester, Branch requesterBranch, Branch targetBranch) {
-        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
         String targetBranchStr = targetBranch != null ? targetBranch.toString() : "ANY_OTHER";
-        
-        String logEntry = String.format("%s,%s,%s,%s,%s,CREATED,Request created\n", 
-                                      timestamp, requestId, requester, requesterBranch, targetBranchStr);
-        
-        logToFile(REQUESTS_FILE, logEntry);
+
+        logToFile(REQUESTS, String.format("%s,%s,%s,%s,CREATED,Request created",
+                                          requestId, requester, requesterBranch, targetBranchStr));
         logger.info("Chat request created: " + requestId + " from " + requester + " (" + requesterBranch + ") to " + targetBranchStr);
     }
-    
+
     public static void logRequestAccepted(String requestId, String requester, String acceptor, Branch requesterBranch, Branch acceptorBranch) {
-        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
-        String logEntry = String.format("%s,%s,%s,%s,%s,ACCEPTED,Accepted by %s (%s)\n", 
-                                      timestamp, requestId, requester, requesterBranch, acceptorBranch, acceptor, acceptorBranch);
-        
-        logToFile(REQUESTS_FILE, logEntry);
+        logToFile(REQUESTS, String.format("%s,%s,%s,%s,ACCEPTED,Accepted by %s (%s)",
+                                          requestId, requester, requesterBranch, acceptorBranch, acceptor, acceptorBranch));
         logger.info("Chat request accepted: " + requestId + " by " + acceptor + " (" + acceptorBranch + ")");
     }
-    
+
     public static void logRequestCancelled(String requestId, String requester, Branch requesterBranch, String reason) {
-        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
-        String logEntry = String.format("%s,%s,%s,%s,%s,CANCELLED,%s\n", 
-                                      timestamp, requestId, requester, requesterBranch, "N/A", reason);
-        
-        logToFile(REQUESTS_FILE, logEntry);
+        logToFile(REQUESTS, String.format("%s,%s,%s,%s,CANCELLED,%s",
+                                          requestId, requester, requesterBranch, "N/A", reason));
         logger.info("Chat request cancelled: " + requestId + " from " + requester + " - " + reason);
     }
-    
+
+    public static void logRequestExpired(String requestId, String requester, Branch requesterBranch, Branch targetBranch, long ttlSeconds) {
+        String targetBranchStr = targetBranch != null ? targetBranch.toString() : "ANY_OTHER";
+
+        logToFile(REQUESTS, String.format("%s,%s,%s,%s,EXPIRED,No answer within %ds",
+                                          requestId, requester, requesterBranch, targetBranchStr, ttlSeconds));
+        logger.info("Chat request expired: " + requestId + " from " + requester + " after " + ttlSeconds + "s");
+    }
+
+    /** A REQUEST_USER attempt dropped from username's missed list before they logged in. */
+    public static void logMissedRequestDropped(String username, String requester, String reason) {
+        logToFile(REQUESTS, String.format("MISSED,%s,N/A,N/A,MISSED_DROPPED,For %s: %s",
+                                          requester, username, reason));
+        Loggers.log(logger, Level.FINE, "Missed request from %s to %s dropped: %s", requester, username, reason);
+    }
+
     // ========= Error and Warning Logging =========
     public static void logError(String context, String error, Exception exception) {
-        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
         String details = exception != null ? exception.getMessage() : error;
-        
+
         logger.severe("Chat error in " + context + ": " + details);
         if (exception != null) {
             logger.severe("Exception details: " + exception.toString());
         }
     }
-    
+
     public static void logWarning(String context, String warning) {
         logger.warning("Chat warning in " + context + ": " + warning);
     }
-    
+
     // ========= Utility Methods =========
-    private static void logToFile(Path file, String logEntry) {
+    private static void logToFile(Stream stream, String body) {
+        enqueue(new Entry(stream, LocalDateTime.now(), false, body, null));
+    }
+
+    private static void enqueue(Entry e) {
+        if (queue.offer(e)) return;
+        if (BLOCK_WHEN_FULL) {
+            try {
+                queue.put(e);
+                return;
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        e.stream().dropped.increment();
+    }
+
+    /** Entries dropped on a full queue and not yet reported. */
+    public static long droppedCount() {
+        long n = 0;
+        for (Stream s : STREAMS) n += s.dropped.sum();
+        return n;
+    }
+
+    /** Waits until everything logged so far is written and forced (at most 5 seconds). */
+    public static void flush() {
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            if (queue.offer(new Entry(null, null, false, null, done), 5, TimeUnit.SECONDS)) {
+                done.await(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void writeLoop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        long nextForce = System.nanoTime() + FORCE_MS * 1_000_000;
+        for (;;) {
+            try {
+                Entry first = queue.poll(Math.max(1, nextForce - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                }
+                List<CountDownLatch> flushed = null;
+                for (Entry e : batch) {
+                    if (e.stream() == null) {
+                        if (flushed == null) flushed = new ArrayList<>();
+                        flushed.add(e.done());
+                        continue;
+                    }
+                    StringBuilder sb = e.stream().pending.append(e.time().format(TIMESTAMP_FORMAT)).append(',');
+                    if (e.numbered()) sb.append(++messageCounter).append(',');
+                    sb.append(e.body()).append('\n');
+                }
+                batch.clear();
+                for (Stream s : STREAMS) {
+                    write(s);
+                    reportDrops(s);
+                }
+                if (flushed != null || System.nanoTime() - nextForce >= 0) {
+                    for (Stream s : STREAMS) force(s);
+                    nextForce = System.nanoTime() + FORCE_MS * 1_000_000;
+                }
+                if (flushed != null) flushed.forEach(CountDownLatch::countDown);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                batch.clear();
+                logger.severe("Chat log writer error: " + e);
+            }
+        }
+    }
+
+    private static void write(Stream s) {
+        if (s.pending.length() == 0) return;
+        ByteBuffer buf = ByteBuffer.wrap(s.pending.toString().getBytes(StandardCharsets.UTF_8));
+        s.pending.setLength(0);
+        if (s.channel == null) return;
         try {
-            Files.writeString(file, logEntry, StandardOpenOption.APPEND);
+            while (buf.hasRemaining()) s.channel.write(buf);
+            s.unforced = true;
         } catch (IOException e) {
-            logger.severe("Failed to write to chat log file " + file.getFileName() + ": " + e.getMessage());
+            logger.severe("Failed to write to chat log file " + s.file.getFileName() + ": " + e.getMessage());
         }
     }
-    
+
+    private static void reportDrops(Stream s) {
+        if (s.dropped.sum() == 0) return;
+        logger.warning("Chat log queue full: dropped " + s.dropped.sumThenReset() + " entries for " + s.file.getFileName());
+    }
+
+    private static void force(Stream s) {
+        if (!s.unforced) return;
+        try {
+            s.channel.force(false);
+            s.unforced = false;
+        } catch (IOException e) {
+            logger.severe("Failed to force chat log file " + s.file.getFileName() + ": " + e.getMessage());
+        }
+    }
+
     public static void logServerStart(int port) {
-        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
         logger.info("Chat server started on port " + port);
-        
-        String logEntry = String.format("%s,SYSTEM,SYSTEM,SYSTEM,SERVER_START,Server started on port %d\n", 
-                                      timestamp, port);
-        logToFile(SESSIONS_FILE, logEntry);
+
+        logToFile(SESSIONS, String.format("SYSTEM,SYSTEM,SYSTEM,SERVER_START,Server started on port %d", port));
     }
-    
+
     public static void logServerStop() {
-        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
         logger.info("Chat server stopping");
-        
-        String logEntry = String.format("%s,SYSTEM,SYSTEM,SYSTEM,SERVER_STOP,Server stopping\n", timestamp);
-        logToFile(SESSIONS_FILE, logEntry);
+
+        logToFile(SESSIONS, "SYSTEM,SYSTEM,SYSTEM,SERVER_STOP,Server stopping");
+        flush();
     }
 }
@@ -2,32 +2,110 @@ package server.util;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Plain-text table file.
+ * Writes are crash-safe: the new content goes to a sibling temp file, is forced to disk and
+ * then atomically renamed over the original, so a reader (or a restart after a crash) sees
+ * either the old or the new file - never a truncated one. Reads therefore do not lock.
+ * Writers serialize on a ReentrantLock (not synchronized) so virtual threads don't pin during I/O.
+ * A crash between creating the temp file and the rename leaves &lt;file&gt;*.tmp behind; opening the
+ * file deletes those once they are older than {@code db.staleTmpMs} (default 60000 - younger
+ * ones may belong to another process writing the same file right now, e.g. the admin console).
+ */
 public class FileDatabase {
+    private static final long STALE_TMP_MS = Long.getLong("db.staleTmpMs", 60_000L);
+
     private final Path path;
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    public FileDatabase(Path path) {
+        this.path = path;
+        deleteStaleTemps(path);
+    }
 
-    public FileDatabase(Path path) { this.path = path; }
+    public Path path() { return path; }
 
-    public synchronized List<String> readAllLines() {
+    public List<String> readAllLines() {
         try {
             if (Files.notExists(path)) return new ArrayList<>();
             return Files.readAllLines(path, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return new ArrayList<>();
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    public synchronized void writeAllLines(List<String> lines) {
+    public void writeAllLines(List<String> lines) {
+        lock.lock();
+        try {
+            writeAtomically(path, lines);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** temp file + fsync + atomic rename (+ best-effort directory fsync). */
+    public static void writeAtomically(Path target, List<String> lines) {
+        Path dir = target.toAbsolutePath().getParent();
+        Path tmp = null;
         try {
-            Files.createDirectories(path.getParent());
-            Files.write(path, lines, StandardCharsets.UTF_8,
-                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            Files.createDirectories(dir);
+            tmp = Files.createTempFile(dir, target.getFileName().toString(), ".tmp");
+
+            StringBuilder sb = new StringBuilder();
+            for (String l : lines) sb.append(l).append(System.lineSeparator());
+            ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buf.hasRemaining()) ch.write(buf);
+                ch.force(true);
+            }
+
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+            syncDirectory(dir);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
+        } finally {
+            if (tmp != null) try { Files.deleteIfExists(tmp); } catch (IOException ignored) {}
+        }
+    }
+
+    /** Removes temp files a crashed writeAtomically(target) left next to target. */
+    private static void deleteStaleTemps(Path target) {
+        Path dir = target.toAbsolutePath().getParent();
+        if (dir == null || !Files.isDirectory(dir)) return;
+        long cutoff = System.currentTimeMillis() - STALE_TMP_MS;
+        String prefix = target.getFileName().toString();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir,
+                p -> p.getFileName().toString().startsWith(prefix) && p.getFileName().toString().endsWith(".tmp"))) {
+            for (Path tmp : ds) {
+                if (Files.getLastModifiedTime(tmp).toMillis() > cutoff) continue;
+                Files.deleteIfExists(tmp);
+                Loggers.system().info("Deleted stale temp file " + tmp);
+            }
+        } catch (IOException e) {
+            Loggers.system().warning("Could not clean temp files next to " + target + ": " + e.getMessage());
+        }
+    }
+
+    // Makes the rename itself durable. Not supported on every platform (e.g. Windows) - ignore there.
+    private static void syncDirectory(Path dir) {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException | UnsupportedOperationException ignored) {
         }
     }
 
@@ -0,0 +1,125 @@
+package server.util;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches connections for silence and gets rid of dead peers.
+ *
+ * Every connection registers once and calls {@link Handle#touch()} for each line it reads.
+ * One daemon thread looks at all of them a few times per timeout: a peer silent for
+ * {@code pingAfterMs} gets one {@link Peer#ping()} (0 = never), a peer silent for
+ * {@code timeoutMs} gets {@link Peer#reap()}, which must close the socket and release its
+ * session so the connection's thread and memory are freed. A timeout of 0 disables the reaper.
+ * ping() and reap() run on a small daemon pool, not the scanning thread, so a write that blocks
+ * on one dead peer's full socket buffer can't hold up the others.
+ */
+public final class IdleReaper {
+
+    /** The connection side of a registration; ping/reap come from the reaper's pool. */
+    public interface Peer {
+        /** Asks the peer to prove it is alive (e.g. send PING). */
+        void ping();
+
+        /** The peer is dead: close its connection and release whatever it holds. */
+        void reap();
+
+        /** For the log line. */
+        String describe();
+    }
+
+    /** One watched connection. */
+    public final class Handle {
+        private final Peer peer;
+        private volatile long lastSeen = System.nanoTime();
+        private volatile boolean pinged;
+
+        private Handle(Peer peer) { this.peer = peer; }
+
+        /** Records activity; cheap enough to call for every line read. */
+        public void touch() {
+            lastSeen = System.nanoTime();
+            if (pinged) pinged = false;
+        }
+
+        /** Stops watching (the connection closed on its own). */
+        public void unregister() {
+            handles.remove(this);
+        }
+    }
+
+    private final String name;
+    private final long pingAfterNanos;
+    private final long timeoutNanos;
+    private final Set<Handle> handles = ConcurrentHashMap.newKeySet();
+    private final ExecutorService actions;
+
+    public IdleReaper(String name, long pingAfterMs, long timeoutMs) {
+        this.name = name;
+        this.pingAfterNanos = TimeUnit.MILLISECONDS.toNanos(pingAfterMs);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        if (timeoutMs <= 0) {
+            this.actions = null;
+            return;
+        }
+        long shortest = pingAfterMs > 0 ? Math.min(pingAfterMs, timeoutMs) : timeoutMs;
+        long periodMs = Math.max(50, shortest / 4);
+        this.actions = Executors.newCachedThreadPool(r -> {
+            Thread a = new Thread(r, name + "-reaper-action");
+            a.setDaemon(true);
+            return a;
+        });
+        Thread t = new Thread(() -> scanLoop(periodMs), name + "-reaper");
+        t.setDaemon(true);
+        t.start();
+        Loggers.system().info(name + " reaps connections idle for " + timeoutMs + " ms"
+                + (pingAfterMs > 0 ? " (PING after " + pingAfterMs + " ms)" : ""));
+    }
+
+    public Handle register(Peer peer) {
+        Handle h = new Handle(peer);
+        if (timeoutNanos > 0) handles.add(h);
+        return h;
+    }
+
+    /** Connections currently watched. */
+    public int size() {
+        return handles.size();
+    }
+
+    private void scanLoop(long periodMs) {
+        while (true) {
+            try {
+                Thread.sleep(periodMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            for (Handle h : handles) {
+                long idle = now - h.lastSeen;
+                if (idle >= timeoutNanos) {
+                    handles.remove(h);
+                    Loggers.system().info(name + ": reaping " + h.peer.describe() + ", silent for "
+                            + TimeUnit.NANOSECONDS.toMillis(idle) + " ms");
+                    run(h, h.peer::reap);
+                } else if (pingAfterNanos > 0 && idle >= pingAfterNanos && !h.pinged) {
+                    h.pinged = true;
+                    run(h, h.peer::ping);
+                }
+            }
+        }
+    }
+
+    private void run(Handle h, Runnable action) {
+        actions.execute(() -> {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                Loggers.system().warning(name + ": idle action failed for " + h.peer.describe() + ": " + e);
+            }
+        });
+    }
+}
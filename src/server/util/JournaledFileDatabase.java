@@ -0,0 +1,305 @@
+package server.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * FileDatabase with an append-only journal next to the snapshot file.
+ *
+ * Snapshot: the regular CSV file (e.g. data/products.txt).
+ * Journal:  &lt;file&gt;.journal, one record per line:
+ *   +&lt;csv line&gt;   insert or replace the row with the same key
+ *   -&lt;key&gt;        delete the row with that key
+ *
+ * Single-row mutations (put/delete) append a small record instead of rewriting the snapshot.
+ * A shared background thread fsyncs dirty journals in groups every {@code db.journal.syncMs}
+ * (default 50ms) and folds a journal back into its snapshot once it holds
+ * {@code db.journal.compactEvery} records (default 1000).
+ *
+ * readAllLines() returns the snapshot with the journal replayed on top. Replay is idempotent
+ * (keyed puts/deletes), so a crash during compaction - after the snapshot was written but
+ * before the old journal was deleted - is harmless. A torn last record (no trailing newline)
+ * is cut off when the journal is opened.
+ *
+ * Writers share one lock per file, but it only covers the append itself (a write() into the
+ * page cache). The group fsync runs outside it. Compaction renames the journal to
+ * &lt;file&gt;.journal.old under the lock, then folds it into the snapshot without the lock, while
+ * new records go to a fresh journal. Appends therefore never wait for a disk flush or a snapshot
+ * rewrite. Only readAllLines() and writeAllLines() wait for a compaction in progress. A
+ * .journal.old found on open (crash mid-compaction) is folded in before the file is used.
+ */
+public class JournaledFileDatabase extends FileDatabase {
+
+    private static final long SYNC_MS = Long.getLong("db.journal.syncMs", 50);
+    private static final int COMPACT_EVERY = Integer.getInteger("db.journal.compactEvery", 1000);
+
+    private static final ScheduledExecutorService background = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "db-journal");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final List<JournaledFileDatabase> open = Collections.synchronizedList(new ArrayList<>());
+
+    static {
+        background.scheduleWithFixedDelay(JournaledFileDatabase::syncAll, SYNC_MS, SYNC_MS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(JournaledFileDatabase::syncAll));
+    }
+
+    private final Path journalPath;
+    private final Path oldJournalPath;
+    /** Held for a whole compaction or full rewrite; taken before {@code lock}, never after it. */
+    private final ReentrantLock compactLock = new ReentrantLock();
+    private final Function<String, String> keyOf;
+    private FileChannel journal;
+    private boolean dirty = false;
+    private int records = 0;
+
+    /** @param keyOf extracts the row key from a CSV line (see {@link #keyByColumns(int...)}) */
+    public JournaledFileDatabase(Path path, Function<String, String> keyOf) {
+        super(path);
+        this.journalPath = path.resolveSibling(path.getFileName() + ".journal");
+        this.oldJournalPath = path.resolveSibling(path.getFileName() + ".journal.old");
+        this.keyOf = keyOf;
+        this.records = repairJournal();
+        if (Files.exists(oldJournalPath)) writeAllLines(replay(oldJournalPath, journalPath));
+        open.add(this);
+    }
+
+    /** Key = the given CSV columns joined with ','. */
+    public static Function<String, String> keyByColumns(int... columns) {
+        return line -> {
+            String[] t = line.split(",", -1);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(t[columns[i]]);
+            }
+            return sb.toString();
+        };
+    }
+
+    // ---------- reads ----------
+
+    @Override
+    public List<String> readAllLines() {
+        compactLock.lock();
+        lock.lock();
+        try {
+            return replay(oldJournalPath, journalPath);
+        } finally {
+            lock.unlock();
+            compactLock.unlock();
+        }
+    }
+
+    /** The snapshot with the given journals replayed on top, in order. */
+    private List<String> replay(Path... journals) {
+        List<String> snapshot = super.readAllLines();
+        List<String> comments = new ArrayList<>();
+        Map<String, String> rows = new LinkedHashMap<>();
+        for (String s : snapshot) {
+            if (s.isBlank()) continue;
+            if (s.startsWith("#")) { comments.add(s); continue; }
+            rows.put(keyOf.apply(s), s);
+        }
+        for (Path j : journals) replayJournal(j, rows);
+        List<String> out = new ArrayList<>(comments.size() + rows.size());
+        out.addAll(comments);
+        out.addAll(rows.values());
+        return out;
+    }
+
+    private void replayJournal(Path file, Map<String, String> rows) {
+        for (String r : readJournal(file)) {
+            if (r.startsWith("+")) {
+                String line = r.substring(1);
+                rows.put(keyOf.apply(line), line);
+            } else if (r.startsWith("-")) {
+                rows.remove(r.substring(1));
+            }
+        }
+    }
+
+    // ---------- writes ----------
+
+    /** Full rewrite: replaces the snapshot and discards the journal. */
+    @Override
+    public void writeAllLines(List<String> lines) {
+        compactLock.lock();
+        lock.lock();
+        try {
+            super.writeAllLines(lines);
+            truncateJournal();
+            Files.deleteIfExists(oldJournalPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+            compactLock.unlock();
+        }
+    }
+
+    /** Insert or replace one row. */
+    public void put(String line) { append(List.of("+" + line)); }
+
+    /** Insert or replace several rows as one journal write. */
+    public void putAll(List<String> lines) {
+        List<String> recs = new ArrayList<>(lines.size());
+        for (String l : lines) recs.add("+" + l);
+        append(recs);
+    }
+
+    /** Delete the row with this key (no-op on replay if absent). */
+    public void delete(String key) { append(List.of("-" + key)); }
+
+    /** Forces pending journal records to disk now. */
+    public void sync() {
+        FileChannel ch;
+        lock.lock();
+        try {
+            if (!dirty || journal == null) return;
+            ch = journal;
+            dirty = false; // appends racing the force below set it again
+        } finally {
+            lock.unlock();
+        }
+        try {
+            ch.force(false);
+        } catch (ClosedChannelException e) {
+            // rotated away by compact(), which makes those records durable in the new snapshot
+        } catch (IOException e) {
+            lock.lock();
+            try { dirty = true; } finally { lock.unlock(); }
+            Loggers.system().severe("Journal sync failed for " + journalPath + ": " + e.getMessage());
+        }
+    }
+
+    /** Folds the journal into the snapshot; appends go on into a fresh journal meanwhile. */
+    public void compact() {
+        compactLock.lock();
+        try {
+            // a .journal.old still here means the last compaction failed: fold that one first
+            if (Files.notExists(oldJournalPath)) {
+                lock.lock();
+                try {
+                    if (records == 0) return;
+                    // closed before the rename (Windows can't rename an open file); the next append reopens
+                    if (journal != null) journal.close();
+                    journal = null;
+                    Files.move(journalPath, oldJournalPath, StandardCopyOption.ATOMIC_MOVE);
+                    records = 0;
+                    dirty = false;
+                } finally {
+                    lock.unlock();
+                }
+            }
+            // nothing else touches the snapshot or .journal.old while compactLock is held
+            writeAtomically(path(), replay(oldJournalPath));
+            Files.delete(oldJournalPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            compactLock.unlock();
+        }
+    }
+
+    // ---------- internals ----------
+
+    private void append(List<String> recs) {
+        StringBuilder sb = new StringBuilder();
+        for (String r : recs) sb.append(r).append('\n');
+        ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        lock.lock();
+        try {
+            FileChannel ch = channel();
+            while (buf.hasRemaining()) ch.write(buf);
+            dirty = true;
+            records += recs.size();
+            if (records >= COMPACT_EVERY) background.execute(this::compactQuietly);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (journal == null) {
+            Files.createDirectories(journalPath.toAbsolutePath().getParent());
+            journal = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return journal;
+    }
+
+    private void truncateJournal() {
+        try {
+            if (journal != null) {
+                journal.truncate(0);
+                journal.force(false);
+            } else if (Files.exists(journalPath)) {
+                Files.write(journalPath, new byte[0], StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            records = 0;
+            dirty = false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<String> readJournal(Path file) {
+        try {
+            if (Files.notExists(file)) return List.of();
+            String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            int end = text.lastIndexOf('\n');
+            if (end < 0) return List.of(); // only a torn record
+            return Arrays.asList(text.substring(0, end).split("\n"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Drops a torn tail left by a crash mid-append; returns the number of intact records. */
+    private int repairJournal() {
+        try {
+            if (Files.notExists(journalPath)) return 0;
+            byte[] bytes = Files.readAllBytes(journalPath);
+            int keep = bytes.length;
+            while (keep > 0 && bytes[keep - 1] != '\n') keep--;
+            if (keep < bytes.length) {
+                try (FileChannel ch = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+                    ch.truncate(keep);
+                    ch.force(false);
+                }
+            }
+            return readJournal(journalPath).size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (Exception e) {
+            Loggers.system().severe("Journal compaction failed for " + journalPath + ": " + e.getMessage());
+        }
+    }
+
+    private static void syncAll() {
+        JournaledFileDatabase[] dbs;
+        synchronized (open) { dbs = open.toArray(new JournaledFileDatabase[0]); }
+        for (JournaledFileDatabase db : dbs) db.sync();
+    }
+}
@@ -1,11 +1,40 @@
 package server.util;
 
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.*;
 
+/**
+ * The server's log files under {@code log.dir} (default user.dir/logs). Each logger is created once
+ * and cached; the directory is read once, when this class loads.
+ *
+ * By default records are written by AsyncLogHandler on a background thread; {@code -Dlog.async=false}
+ * writes them on the caller's thread through a FileHandler as before. {@code -Dlog.level=OFF|WARNING|...}
+ * sets the level of every logger here (default INFO).
+ *
+ * Records logged through {@link #log} name their logger as the source; {@code -Dlog.source=true}
+ * finds the calling class and method instead, at the cost of a stack walk per record.
+ *
+ * On hot paths use {@link #info(Logger, String, Object...)}: the message is a String.format pattern
+ * that is only formatted if the level is enabled, and then on the writer thread.
+ */
 public class Loggers {
+    private static final boolean ASYNC = Boolean.parseBoolean(System.getProperty("log.async", "true"));
+    private static final String LEVEL = System.getProperty("log.level");
+    private static final Path LOG_DIR = Path.of(System.getProperty("log.dir",
+            Path.of(System.getProperty("user.dir"), "logs").toString()));
+    private static final boolean SOURCE = Boolean.getBoolean("log.source");
+    private static final StackWalker WALKER = StackWalker.getInstance();
+    private static final ConcurrentMap<String, Logger> loggers = new ConcurrentHashMap<>();
+
     public static Logger system() { return logger("system.log"); }
     public static Logger sales()  { return logger("sales.log"); }
     public static Logger auth()   { return logger("auth.log"); }
@@ -14,28 +43,119 @@ public class Loggers {
     public static Logger transactions() { return logger("transactions.log"); }
     public static Logger chat() { return logger("chat.log"); }
 
+    /**
+     * Logs String.format(format, args) at INFO. Nothing is built when INFO is off; otherwise the
+     * text is formatted by the handler (on the writer thread when async), so args must not change
+     * afterwards - pass strings, numbers, enums, BigDecimals.
+     */
+    public static void info(Logger l, String format, Object... args) {
+        log(l, Level.INFO, format, args);
+    }
+
+    public static void log(Logger l, Level level, String format, Object... args) {
+        if (!l.isLoggable(level)) return;
+        LogRecord r = new PrintfRecord(level, format, args);
+        r.setLoggerName(l.getName());
+        if (SOURCE) {
+            // same source as Logger.info(String) would infer: the first frame outside this class
+            WALKER.walk(s -> s.filter(f -> !f.getClassName().equals(Loggers.class.getName())).findFirst())
+                    .ifPresent(f -> {
+                        r.setSourceClassName(f.getClassName());
+                        r.setSourceMethodName(f.getMethodName());
+                    });
+        } else {
+            r.setSourceClassName(null); // stops LogRecord inferring it later; the logger name is shown
+        }
+        l.log(r);
+    }
+
     private static Logger logger(String name) {
+        Logger l = loggers.get(name);
+        return l != null ? l : loggers.computeIfAbsent(name, Loggers::create);
+    }
+
+    private static Logger create(String name) {
         Logger l = Logger.getLogger(name);
+        if (LEVEL != null) l.setLevel(Level.parse(LEVEL.trim().toUpperCase()));
         if (l.getHandlers().length == 0) {
             try {
-                // Use absolute path to avoid path issues
-                Path logsDir = Path.of(System.getProperty("user.dir"), "logs");
-                Files.createDirectories(logsDir);
-                
+                Files.createDirectories(LOG_DIR);
+
                 // Try to create the log file with append mode
-                FileHandler fh = new FileHandler(logsDir.resolve(name).toString(), true);
-                fh.setFormatter(new SimpleFormatter());
+                Handler fh = ASYNC ? new AsyncLogHandler(LOG_DIR.resolve(name))
+                        : new FileHandler(LOG_DIR.resolve(name).toString(), true);
+                fh.setFormatter(new PrintfFormatter());
                 l.addHandler(fh);
                 l.setUseParentHandlers(false);
             } catch (IOException e) {
                 // If logging fails, just log to console instead of crashing
                 System.err.println("Warning: Could not create log file " + name + ": " + e.getMessage());
                 ConsoleHandler ch = new ConsoleHandler();
-                ch.setFormatter(new SimpleFormatter());
+                ch.setFormatter(new PrintfFormatter());
                 l.addHandler(ch);
                 l.setUseParentHandlers(false);
             }
         }
         return l;
     }
+
+    /** A record whose message is a String.format pattern over its parameters. */
+    private static final class PrintfRecord extends LogRecord {
+        private static final long serialVersionUID = 1L;
+
+        PrintfRecord(Level level, String format, Object[] args) {
+            super(level, format);
+            setParameters(args);
+        }
+    }
+
+    /**
+     * SimpleFormatter output; formats PrintfRecords with String.format. With the default
+     * SimpleFormatter format the line is built directly, reusing the date text within a second.
+     */
+    private static final class PrintfFormatter extends SimpleFormatter {
+        private static final String FORMAT_KEY = "java.util.logging.SimpleFormatter.format";
+        private static final boolean DEFAULT_FORMAT = System.getProperty(FORMAT_KEY) == null
+                && LogManager.getLogManager().getProperty(FORMAT_KEY) == null;
+
+        private record Stamp(long second, String text) {}
+        private volatile Stamp stamp = new Stamp(Long.MIN_VALUE, "");
+
+        @Override
+        public String format(LogRecord record) {
+            if (!DEFAULT_FORMAT) return super.format(record);
+            String source = record.getSourceClassName() == null ? record.getLoggerName()
+                    : record.getSourceMethodName() == null ? record.getSourceClassName()
+                    : record.getSourceClassName() + " " + record.getSourceMethodName();
+            StringBuilder sb = new StringBuilder(128)
+                    .append(stamp(record.getMillis())).append(' ').append(source).append(System.lineSeparator())
+                    .append(record.getLevel().getLocalizedName()).append(": ").append(formatMessage(record));
+            if (record.getThrown() != null) {
+                StringWriter sw = new StringWriter();
+                try (PrintWriter pw = new PrintWriter(sw)) {
+                    pw.println();
+                    record.getThrown().printStackTrace(pw);
+                }
+                sb.append(sw);
+            }
+            return sb.append(System.lineSeparator()).toString();
+        }
+
+        @Override
+        public String formatMessage(LogRecord record) {
+            if (record instanceof PrintfRecord) return String.format(record.getMessage(), record.getParameters());
+            return super.formatMessage(record);
+        }
+
+        /** "%1$tb %1$td, %1$tY %1$tl:%1$tM:%1$tS %1$Tp", as SimpleFormatter writes it. */
+        private String stamp(long millis) {
+            long second = Math.floorDiv(millis, 1000);
+            Stamp s = stamp;
+            if (s.second() != second) {
+                ZonedDateTime t = ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+                stamp = s = new Stamp(second, String.format("%1$tb %1$td, %1$tY %1$tl:%1$tM:%1$tS %1$Tp", t));
+            }
+            return s.text();
+        }
+    }
 }
@@ -0,0 +1,55 @@
+package server.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection-handling executors for StoreServer / ChatServer.
+ * Mode comes from the {@code server.executor} system property:
+ *   cached    one platform thread per connection (default, previous behaviour)
+ *   virtual   one virtual thread per connection (Java 21+; falls back to cached on older JVMs)
+ *   fixed:N   N platform threads (connections beyond N wait in the queue)
+ *
+ * Services called from connection threads use java.util.concurrent locks rather than
+ * synchronized around blocking I/O, so virtual threads do not pin their carrier.
+ */
+public final class ServerExecutors {
+
+    private ServerExecutors() {}
+
+    public static ExecutorService forConnections(String serverName) {
+        String mode = System.getProperty("server.executor", "cached").trim().toLowerCase();
+        if (mode.equals("virtual")) {
+            ExecutorService v = virtualOrNull();
+            if (v != null) {
+                Loggers.system().info(serverName + " executor: virtual threads");
+                return v;
+            }
+            Loggers.system().warning(serverName + " executor: virtual threads need Java 21+, using cached pool");
+        } else if (mode.startsWith("fixed:")) {
+            int n = Integer.parseInt(mode.substring("fixed:".length()));
+            Loggers.system().info(serverName + " executor: fixed pool of " + n);
+            return Executors.newFixedThreadPool(n, named(serverName));
+        }
+        Loggers.system().info(serverName + " executor: cached thread pool");
+        return Executors.newCachedThreadPool(named(serverName));
+    }
+
+    // Looked up reflectively so the sources still compile and run on Java 17.
+    private static ExecutorService virtualOrNull() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory named(String serverName) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> new Thread(r, serverName + "-conn-" + n.incrementAndGet());
+    }
+}
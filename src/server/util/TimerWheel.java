@@ -0,0 +1,169 @@
+package server.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed timer wheel for many coarse timeouts (seconds to days) that are usually cancelled.
+ *
+ * The wheel has {@code ticksPerWheel} buckets of {@code tickMs} each; a timeout goes into the
+ * bucket of its deadline tick, with the number of full turns left before it is due. One daemon
+ * thread advances one bucket per tick and runs the timeouts that are due. schedule() and
+ * cancel() are O(1) and never block: they only queue the change for the ticker thread. Timeouts
+ * fire up to one tick late; tasks run on the ticker thread, so they should be short.
+ */
+public final class TimerWheel implements AutoCloseable {
+
+    /** A scheduled task. */
+    public interface Timeout {
+        /** Stops the task from running; false if it already ran or was cancelled. */
+        boolean cancel();
+    }
+
+    private static final int PENDING = 0, CANCELLED = 1, EXPIRED = 2;
+
+    private final class Entry implements Timeout {
+        final Runnable task;
+        final long deadline; // nanos since start
+        final AtomicInteger state = new AtomicInteger(PENDING);
+        // ticker thread only
+        long rounds;
+        Bucket bucket;
+        Entry prev, next;
+
+        Entry(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) return false;
+            pending.decrementAndGet();
+            cancelled.add(this);
+            return true;
+        }
+    }
+
+    /** Doubly linked list of entries; ticker thread only. */
+    private static final class Bucket {
+        Entry head, tail;
+
+        void add(Entry e) {
+            e.bucket = this;
+            e.prev = tail;
+            if (tail == null) head = e; else tail.next = e;
+            tail = e;
+        }
+
+        Entry remove(Entry e) {
+            Entry next = e.next;
+            if (e.prev == null) head = next; else e.prev.next = next;
+            if (next == null) tail = e.prev; else next.prev = e.prev;
+            e.prev = e.next = null;
+            e.bucket = null;
+            return next;
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long start = System.nanoTime();
+    private final Queue<Entry> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Entry> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final Thread ticker;
+    private volatile boolean closed;
+    private long tick; // ticker thread only
+
+    /** ticksPerWheel is rounded up to a power of two. */
+    public TimerWheel(String name, long tickMs, int ticksPerWheel) {
+        if (tickMs <= 0) throw new IllegalArgumentException("tickMs must be > 0");
+        this.tickNanos = tickMs * 1_000_000;
+        int size = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) wheel[i] = new Bucket();
+        this.mask = size - 1;
+        this.ticker = new Thread(this::run, name);
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /** Runs task on the ticker thread once delayMs has passed, unless cancelled first. */
+    public Timeout schedule(Runnable task, long delayMs) {
+        if (closed) throw new IllegalStateException("timer wheel closed");
+        Entry e = new Entry(task, System.nanoTime() - start + Math.max(0, delayMs) * 1_000_000);
+        pending.incrementAndGet();
+        added.add(e);
+        return e;
+    }
+
+    /** Timeouts scheduled and neither run nor cancelled yet. */
+    public long pending() {
+        return pending.get();
+    }
+
+    /** Stops the ticker; timeouts that haven't run never will. */
+    @Override
+    public void close() {
+        closed = true;
+        ticker.interrupt();
+    }
+
+    private void run() {
+        while (!closed) {
+            long deadline = tickNanos * (tick + 1);
+            long sleep = deadline - (System.nanoTime() - start);
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+                } catch (InterruptedException e) {
+                    if (closed) return;
+                }
+                continue;
+            }
+            removeCancelled();
+            transferAdded();
+            expire(wheel[(int) (tick & mask)], deadline);
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+        for (Entry e; (e = cancelled.poll()) != null; ) {
+            if (e.bucket != null) e.bucket.remove(e);
+        }
+    }
+
+    private void transferAdded() {
+        for (Entry e; (e = added.poll()) != null; ) {
+            if (e.state.get() != PENDING) continue; // cancelled before it got here
+            long due = e.deadline / tickNanos;
+            e.rounds = Math.max(0, (due - tick) / wheel.length);
+            wheel[(int) (Math.max(due, tick) & mask)].add(e);
+        }
+    }
+
+    private void expire(Bucket bucket, long deadline) {
+        for (Entry e = bucket.head; e != null; ) {
+            if (e.rounds > 0) {
+                e.rounds--;
+                e = e.next;
+                continue;
+            }
+            Entry next = bucket.remove(e);
+            if (e.deadline <= deadline && e.state.compareAndSet(PENDING, EXPIRED)) {
+                pending.decrementAndGet();
+                try {
+                    e.task.run();
+                } catch (RuntimeException ex) {
+                    Loggers.system().severe("Timer task failed on " + ticker.getName() + ": " + ex);
+                }
+            }
+            e = next;
+        }
+    }
+}